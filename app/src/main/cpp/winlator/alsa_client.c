@@ -79,10 +79,11 @@ Java_com_winlator_xmod_alsaserver_ALSAClient_create(JNIEnv *env, jobject obj, ji
 
 JNIEXPORT jint JNICALL
 Java_com_winlator_xmod_alsaserver_ALSAClient_write(JNIEnv *env, jobject obj, jlong streamPtr, jobject buffer,
-                                              jint numFrames) {
+                                              jint offset, jint numFrames) {
     AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
     if (aaudioStream) {
-        return aaudioWrite(aaudioStream, (*env)->GetDirectBufferAddress(env, buffer), numFrames);
+        char *data = (*env)->GetDirectBufferAddress(env, buffer);
+        return aaudioWrite(aaudioStream, data + offset, numFrames);
     }
     else return -1;
 }
@@ -115,4 +116,16 @@ JNIEXPORT void JNICALL
 Java_com_winlator_xmod_alsaserver_ALSAClient_close(JNIEnv *env, jobject obj, jlong streamPtr) {
     AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
     if (aaudioStream) AAudioStream_close(aaudioStream);
+}
+
+JNIEXPORT jint JNICALL
+Java_com_winlator_xmod_alsaserver_ALSAClient_getXRunCount(JNIEnv *env, jobject obj, jlong streamPtr) {
+    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
+    return aaudioStream ? AAudioStream_getXRunCount(aaudioStream) : 0;
+}
+
+JNIEXPORT jlong JNICALL
+Java_com_winlator_xmod_alsaserver_ALSAClient_getFramesRead(JNIEnv *env, jobject obj, jlong streamPtr) {
+    AAudioStream *aaudioStream = (AAudioStream*)streamPtr;
+    return aaudioStream ? AAudioStream_getFramesRead(aaudioStream) : 0;
 }
\ No newline at end of file
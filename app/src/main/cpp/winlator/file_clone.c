@@ -0,0 +1,38 @@
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/ioctl.h>
+#include <sys/stat.h>
+#include <jni.h>
+
+#ifndef FICLONE
+#define FICLONE _IOW(0x94, 9, int)
+#endif
+
+/*
+ * Creates dstPath as a copy-on-write clone of srcPath (FICLONE). Fails without leaving dstPath
+ * behind when the filesystem can't share extents, so the caller can fall back to a copy.
+ */
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_xmod_container_ContainerBlobStore_cloneFile(JNIEnv *env, jclass obj, jstring srcPath, jstring dstPath) {
+    const char *src = (*env)->GetStringUTFChars(env, srcPath, NULL);
+    const char *dst = (*env)->GetStringUTFChars(env, dstPath, NULL);
+    jboolean success = JNI_FALSE;
+
+    int srcFd = open(src, O_RDONLY | O_CLOEXEC);
+    if (srcFd >= 0) {
+        struct stat st;
+        if (fstat(srcFd, &st) == 0) {
+            int dstFd = open(dst, O_WRONLY | O_CREAT | O_EXCL | O_CLOEXEC, st.st_mode & 0777);
+            if (dstFd >= 0) {
+                success = ioctl(dstFd, FICLONE, srcFd) == 0 ? JNI_TRUE : JNI_FALSE;
+                close(dstFd);
+                if (!success) unlink(dst);
+            }
+        }
+        close(srcFd);
+    }
+
+    (*env)->ReleaseStringUTFChars(env, srcPath, src);
+    (*env)->ReleaseStringUTFChars(env, dstPath, dst);
+    return success;
+}
@@ -85,4 +85,9 @@ Java_com_winlator_xmod_sysvshm_SysVSharedMemory_createMemoryFd(JNIEnv *env, jcla
     }
 
     return fd;
-}
\ No newline at end of file
+}
+
+JNIEXPORT void JNICALL
+Java_com_winlator_xmod_sysvshm_SysVSharedMemory_memoryBarrier(JNIEnv *env, jclass obj) {
+    __atomic_thread_fence(__ATOMIC_SEQ_CST);
+}
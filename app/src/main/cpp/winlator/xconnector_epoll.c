@@ -5,9 +5,12 @@
 #include <sys/types.h>
 #include <sys/eventfd.h>
 #include <sys/un.h>
+#include <sys/uio.h>
 #include <unistd.h>
+#include <errno.h>
 #include <string.h>
 #include <malloc.h>
+#include <time.h>
 #include <jni.h>
 #include <android/log.h>
 
@@ -33,11 +36,18 @@ static jmethodID s_XC_handleNewConnection = NULL;
 static jmethodID s_XC_handleExistingConnection = NULL;
 static jmethodID s_CS_addAncillaryFd = NULL;
 
+/* Same clock as System.nanoTime(), tells the Java side when the fd was reported ready */
+static jlong get_ready_time() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return (jlong)ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
 static void ensure_xc_methods(JNIEnv *env, jobject obj) {
     if (s_XC_handleNewConnection == NULL || s_XC_handleExistingConnection == NULL) {
         jclass cls = (*env)->GetObjectClass(env, obj);
         s_XC_handleNewConnection = (*env)->GetMethodID(env, cls, "handleNewConnection", "(I)V");
-        s_XC_handleExistingConnection = (*env)->GetMethodID(env, cls, "handleExistingConnection", "(I)V");
+        s_XC_handleExistingConnection = (*env)->GetMethodID(env, cls, "handleExistingConnection", "(IJ)V");
         (*env)->DeleteLocalRef(env, cls);
     }
 }
@@ -90,10 +100,12 @@ Java_com_winlator_xmod_xconnector_XConnectorEpoll_closeFd(JNIEnv *env, jobject o
 JNIEXPORT jboolean JNICALL
 Java_com_winlator_xmod_xconnector_XConnectorEpoll_doEpollIndefinitely(JNIEnv *env, jobject obj,
                                                                  jint epollFd, jint serverFd,
-                                                                 jboolean addClientToEpoll) {
+                                                                 jboolean addClientToEpoll,
+                                                                 jboolean oneShotClients) {
     ensure_xc_methods(env, obj);
 
     int numFds = epoll_wait(epollFd, events, MAX_EVENTS, -1);
+    jlong readyTime = get_ready_time();
     for (int i = 0; i < numFds; i++) {
         if (events[i].data.fd == serverFd) {
             int clientFd = accept(serverFd, NULL, NULL);
@@ -101,7 +113,7 @@ Java_com_winlator_xmod_xconnector_XConnectorEpoll_doEpollIndefinitely(JNIEnv *en
                 if (addClientToEpoll) {
                     struct epoll_event event;
                     event.data.fd = clientFd;
-                    event.events = EPOLLIN;
+                    event.events = oneShotClients ? (EPOLLIN | EPOLLONESHOT) : EPOLLIN;
 
                     if (epoll_ctl(epollFd, EPOLL_CTL_ADD, clientFd, &event) >= 0) {
                         (*env)->CallVoidMethod(env, obj, s_XC_handleNewConnection, clientFd);
@@ -111,7 +123,7 @@ Java_com_winlator_xmod_xconnector_XConnectorEpoll_doEpollIndefinitely(JNIEnv *en
             }
         }
         else if (events[i].events & EPOLLIN) {
-            (*env)->CallVoidMethod(env, obj, s_XC_handleExistingConnection, events[i].data.fd);
+            (*env)->CallVoidMethod(env, obj, s_XC_handleExistingConnection, events[i].data.fd, readyTime);
         }
     }
 
@@ -129,6 +141,16 @@ Java_com_winlator_xmod_xconnector_XConnectorEpoll_addFdToEpoll(JNIEnv *env, jobj
     return JNI_TRUE;
 }
 
+JNIEXPORT jboolean JNICALL
+Java_com_winlator_xmod_xconnector_XConnectorEpoll_rearmFdInEpoll(JNIEnv *env, jobject obj,
+                                                            jint epollFd, jint fd) {
+    struct epoll_event event;
+    event.data.fd = fd;
+    event.events = EPOLLIN | EPOLLONESHOT;
+    if (epoll_ctl(epollFd, EPOLL_CTL_MOD, fd, &event) < 0) return JNI_FALSE;
+    return JNI_TRUE;
+}
+
 JNIEXPORT void JNICALL
 Java_com_winlator_xmod_xconnector_XConnectorEpoll_removeFdFromEpoll(JNIEnv *env, jobject obj,
                                                                jint epollFd, jint fd) {
@@ -149,6 +171,46 @@ Java_com_winlator_xmod_xconnector_ClientSocket_write(JNIEnv *env, jobject obj, j
     return write(fd, dataAddr, length);
 }
 
+JNIEXPORT jint JNICALL
+Java_com_winlator_xmod_xconnector_ClientSocket_writev(JNIEnv *env, jobject obj, jint fd, jobjectArray buffers,
+                                                 jintArray lengths, jint count) {
+    if (count <= 0) return 0;
+
+    struct iovec iov[count];
+    jint *lengthsPtr = (*env)->GetIntArrayElements(env, lengths, NULL);
+    for (int i = 0; i < count; i++) {
+        jobject buffer = (*env)->GetObjectArrayElement(env, buffers, i);
+        iov[i].iov_base = (*env)->GetDirectBufferAddress(env, buffer);
+        iov[i].iov_len = lengthsPtr[i];
+        (*env)->DeleteLocalRef(env, buffer);
+    }
+    (*env)->ReleaseIntArrayElements(env, lengths, lengthsPtr, JNI_ABORT);
+
+    int total = 0;
+    struct iovec *iovPtr = iov;
+    int iovCount = count;
+    while (iovCount > 0) {
+        ssize_t bytesWritten = writev(fd, iovPtr, iovCount);
+        if (bytesWritten < 0) {
+            if (errno == EINTR) continue;
+            return -1;
+        }
+        total += bytesWritten;
+
+        while (iovCount > 0 && bytesWritten >= (ssize_t)iovPtr->iov_len) {
+            bytesWritten -= iovPtr->iov_len;
+            iovPtr++;
+            iovCount--;
+        }
+
+        if (iovCount > 0) {
+            iovPtr->iov_base = (char*)iovPtr->iov_base + bytesWritten;
+            iovPtr->iov_len -= bytesWritten;
+        }
+    }
+    return total;
+}
+
 JNIEXPORT jint JNICALL
 Java_com_winlator_xmod_xconnector_XConnectorEpoll_createEventFd(JNIEnv *env, jobject obj) {
     return eventfd(0, EFD_NONBLOCK);
@@ -224,6 +286,14 @@ Java_com_winlator_xmod_xconnector_ClientSocket_sendAncillaryMsg(JNIEnv *env, job
     return sendmsg(clientFd, &msg, 0);
 }
 
+JNIEXPORT jint JNICALL
+Java_com_winlator_xmod_xconnector_ClientSocket_getPeerPid(JNIEnv *env, jobject obj, jint clientFd) {
+    struct ucred cred;
+    socklen_t length = sizeof(cred);
+    if (getsockopt(clientFd, SOL_SOCKET, SO_PEERCRED, &cred, &length) < 0) return -1;
+    return cred.pid;
+}
+
 JNIEXPORT jboolean JNICALL
 Java_com_winlator_xmod_xconnector_XConnectorEpoll_waitForSocketRead(JNIEnv *env, jobject obj, jint clientFd, jint shutdownFd) {
     struct pollfd pfds[2];
@@ -238,7 +308,7 @@ Java_com_winlator_xmod_xconnector_XConnectorEpoll_waitForSocketRead(JNIEnv *env,
 
     if (pfds[0].revents & POLLIN) {
         ensure_xc_methods(env, obj);
-        (*env)->CallVoidMethod(env, obj, s_XC_handleExistingConnection, clientFd);
+        (*env)->CallVoidMethod(env, obj, s_XC_handleExistingConnection, clientFd, get_ready_time());
     }
     return JNI_TRUE;
 }
@@ -333,15 +333,20 @@ public class ContentsFragment extends Fragment {
             });
             holder.ibDownload.setVisibility((profile.remoteUrl != null) && (holder.progressBar.getVisibility() == View.GONE) ? View.VISIBLE : View.GONE);
             holder.ibDownload.setOnClickListener(v -> {
-                holder.ibDownload.setVisibility(View.GONE);
-                holder.progressBar.setVisibility(View.VISIBLE);
-
                 Intent intent = new Intent();
                 intent.setData(Uri.parse(profile.remoteUrl));
+                if (profile.remoteSha256 == null) {
+                    // nothing to verify a cached copy against, stream it straight into the extraction
+                    onActivityResult(MainActivity.OPEN_FILE_REQUEST_CODE, Activity.RESULT_OK, intent);
+                    return;
+                }
+
+                holder.ibDownload.setVisibility(View.GONE);
+                holder.progressBar.setVisibility(View.VISIBLE);
                 new Thread(() -> {
-                    long timestamp = System.currentTimeMillis();
-                    File output = new File(getContext().getCacheDir(), "temp_" + timestamp);
-                    if (Downloader.downloadFile(profile.remoteUrl, output)) {
+                    // named after the url so that an interrupted download resumes on the next attempt
+                    File output = new File(getContext().getCacheDir(), "download_" + Integer.toHexString(profile.remoteUrl.hashCode()));
+                    if (Downloader.downloadFile(profile.remoteUrl, output, profile.remoteSha256)) {
                         intent.setData(Uri.parse(output.getAbsolutePath()));
                     }
                     getActivity().runOnUiThread(() -> {
@@ -54,6 +54,7 @@ import com.winlator.xmod.container.Shortcut;
 import com.winlator.xmod.contentdialog.ContentDialog;
 import com.winlator.xmod.contentdialog.FilePickerDialog;
 import com.winlator.xmod.contentdialog.ShortcutSettingsDialog;
+import com.winlator.xmod.core.BitmapCache;
 import com.winlator.xmod.core.FileUtils;
 import com.winlator.xmod.core.ShortcutConfigManager;
 import com.winlator.xmod.core.PreloaderDialog;
@@ -174,12 +175,13 @@ public class ShortcutsFragment extends Fragment {
         public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
             final Shortcut item = data.get(position);
             
-            // Display cover art if available, otherwise use icon
-            if (item.getCoverArt() != null) {
-                holder.imageView.setImageBitmap(item.getCoverArt());
-            } else if (item.icon != null) {
-                holder.imageView.setImageBitmap(item.icon);
-            }
+            // Display cover art if available, otherwise use icon. Both are decoded off the UI thread
+            // and only set if the view wasn't bound to another shortcut meanwhile.
+            holder.imageView.setTag(item);
+            holder.imageView.setImageDrawable(null);
+            BitmapCache.getInstance().loadAsync(item::getCoverArtOrIcon, (bitmap) -> {
+                if (bitmap != null && holder.imageView.getTag() == item) holder.imageView.setImageBitmap(bitmap);
+            });
             
             holder.title.setText(item.name);
             holder.subtitle.setText(item.container.getName());
@@ -917,7 +919,7 @@ exportOptions.includeWine = false;
         ShortcutManager shortcutManager = getSystemService(requireContext(), ShortcutManager.class);
         if (shortcutManager != null && shortcutManager.isRequestPinShortcutSupported())
             shortcutManager.requestPinShortcut(buildScreenShortCut(shortcut.name, shortcut.name, shortcut.container.id,
-                    shortcut.file.getPath(), Icon.createWithBitmap(shortcut.icon), shortcut.getExtra("uuid")), null);
+                    shortcut.file.getPath(), Icon.createWithBitmap(shortcut.getIcon()), shortcut.getExtra("uuid")), null);
     }
 
     public static void disableShortcutOnScreen(Context context, Shortcut shortcut) {
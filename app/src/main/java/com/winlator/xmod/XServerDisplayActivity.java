@@ -184,8 +184,6 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
     private Runnable savePlaytimeRunnable;
     private static final long SAVE_INTERVAL_MS = 1000;
     
-    private Runnable frameRatingUpdateRunnable;
-    private static final long FPS_UPDATE_INTERVAL_MS = 500; // Update FPS every 500ms
 
     private Handler  timeoutHandler = new Handler(Looper.getMainLooper());
     private Runnable hideControlsRunnable;
@@ -290,17 +288,6 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
             }
         };
         handler.postDelayed(savePlaytimeRunnable, SAVE_INTERVAL_MS);
-        
-        // Initialize FPS counter update runnable
-        frameRatingUpdateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                if (frameRating != null && frameRatingWindowId != -1) {
-                    frameRating.update();
-                }
-                handler.postDelayed(this, FPS_UPDATE_INTERVAL_MS);
-            }
-        };
 
         // Handler and Runnable to manage timeout for hiding controls
 
@@ -729,10 +716,8 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
         startTime = System.currentTimeMillis();
         handler.postDelayed(savePlaytimeRunnable, SAVE_INTERVAL_MS);
         
-        // Restart FPS update loop if FPS counter is enabled
-        if (frameRating != null) {
-            handler.postDelayed(frameRatingUpdateRunnable, FPS_UPDATE_INTERVAL_MS);
-        }
+        // Resume sampling the FPS counter stats if it is enabled
+        if (frameRating != null) frameRating.onResume();
         
         ProcessHelper.resumeAllWineProcesses();
     }
@@ -759,10 +744,8 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
         savePlaytimeData();
         handler.removeCallbacks(savePlaytimeRunnable);
         
-        // Stop FPS update loop
-        if (frameRatingUpdateRunnable != null) {
-            handler.removeCallbacks(frameRatingUpdateRunnable);
-        }
+        // Stop sampling the FPS counter stats
+        if (frameRating != null) frameRating.onPause();
         
         ProcessHelper.pauseAllWineProcesses();
     }
@@ -816,7 +799,7 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
                 ProcessHelper.terminateAllWineProcesses();
                 /* Wait until all processes have gracefully terminated, forcefully killing them only after a certain amount of time */
                 long start = System.currentTimeMillis();
-                while (!ProcessHelper.listRunningWineProcesses().isEmpty()) {
+                while (ProcessHelper.hasRunningWineProcesses()) {
                     long elapsed = System.currentTimeMillis() - start;
                     if (elapsed >= 1500) {
                         break;
@@ -1214,9 +1197,6 @@ public class XServerDisplayActivity extends AppCompatActivity implements Navigat
             frameRating.setContainer(container);
             frameRating.setVisibility(View.GONE);
             rootView.addView(frameRating);
-            
-            // Start the FPS update loop
-            handler.postDelayed(frameRatingUpdateRunnable, FPS_UPDATE_INTERVAL_MS);
         }
 
         inputControlsView = new InputControlsView(this, timeoutHandler, hideControlsRunnable);
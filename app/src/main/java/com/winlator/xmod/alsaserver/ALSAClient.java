@@ -4,8 +4,15 @@ import com.winlator.xmod.sysvshm.SysVSharedMemory;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Audio stream of an ALSA client. Written frames are queued in an AudioRingBuffer and a pump thread
+ * writes them to the AAudio stream, so a stalled output never blocks the connector thread that
+ * parses the requests of every client.
+ */
 public class ALSAClient {
+    private static final long PUMP_IDLE_TIMEOUT = 10 * 1000000L;
     public enum DataType {
         U8(1), S16LE(2), S16BE(2), FLOATLE(4), FLOATBE(4);
         public final byte byteCount;
@@ -17,63 +24,116 @@ public class ALSAClient {
     private DataType dataType = DataType.U8;
     private byte channelCount = 2;
     private int sampleRate = 0;
-    private int position;
+    private volatile int position;
     private int bufferSize;
     private int frameBytes;
     private ByteBuffer sharedBuffer;
-    private boolean playing = false;
+    private volatile boolean playing = false;
     private long streamPtr = 0;
+    private AudioRingBuffer ringBuffer;
+    private Thread pumpThread;
+    private volatile boolean pumpRunning = false;
 
     static {
         System.loadLibrary("winlator");
     }
 
-    public void release() {
+    public synchronized void release() {
         if (sharedBuffer != null) {
             SysVSharedMemory.unmapSHMSegment(sharedBuffer, sharedBuffer.capacity());
             sharedBuffer = null;
         }
 
+        playing = false;
+        stopPump();
         stop(streamPtr);
         close(streamPtr);
-        playing = false;
         streamPtr = 0;
+        ringBuffer = null;
     }
 
-    public void prepare() {
+    public synchronized void prepare() {
+        // The old pump thread keeps advancing the position until release() has joined it
+        release();
         position = 0;
         frameBytes = channelCount * dataType.byteCount;
-        release();
 
         if (!isValidBufferSize()) return;
 
         streamPtr = create(dataType.ordinal(), channelCount, sampleRate, bufferSize);
-        if (streamPtr > 0) start();
+        if (streamPtr > 0) {
+            ringBuffer = new AudioRingBuffer(bufferSize, frameBytes);
+            startPump();
+            start();
+        }
+    }
+
+    private void startPump() {
+        pumpRunning = true;
+        pumpThread = new Thread(this::pumpLoop, "ALSAClient-Pump");
+        pumpThread.setPriority(Thread.MAX_PRIORITY);
+        pumpThread.start();
+    }
+
+    private void stopPump() {
+        if (pumpThread == null) return;
+        pumpRunning = false;
+        LockSupport.unpark(pumpThread);
+        try {
+            pumpThread.join();
+        }
+        catch (InterruptedException e) {}
+        pumpThread = null;
+    }
+
+    private void pumpLoop() {
+        AudioRingBuffer ringBuffer = this.ringBuffer;
+        long streamPtr = this.streamPtr;
+
+        while (pumpRunning) {
+            int numFrames = playing ? ringBuffer.getReadableFrames() : 0;
+            if (numFrames == 0) {
+                LockSupport.parkNanos(PUMP_IDLE_TIMEOUT);
+                continue;
+            }
+
+            int framesWritten = write(streamPtr, ringBuffer.getBuffer(), ringBuffer.getReadOffset(), numFrames);
+            if (framesWritten > 0) {
+                ringBuffer.advance(framesWritten);
+                position += framesWritten;
+            }
+            else LockSupport.parkNanos(PUMP_IDLE_TIMEOUT);
+        }
     }
 
     public void start() {
         if (streamPtr > 0 && !playing) {
             start(streamPtr);
             playing = true;
+            LockSupport.unpark(pumpThread);
         }
     }
 
     public void stop() {
         if (streamPtr > 0 && playing) {
-            stop(streamPtr);
             playing = false;
+            ringBuffer.discard();
+            stop(streamPtr);
         }
     }
 
     public void pause() {
         if (streamPtr > 0) {
-            pause(streamPtr);
             playing = false;
+            pause(streamPtr);
         }
     }
 
     public void drain() {
-        if (streamPtr > 0) flush(streamPtr);
+        if (streamPtr > 0) {
+            ringBuffer.discard();
+            flush(streamPtr);
+        }
     }
 
     public void writeDataToStream(ByteBuffer data) {
@@ -85,15 +145,45 @@ public class ALSAClient {
         }
 
         if (playing) {
-            int numFrames = data.limit() / frameBytes;
-            int framesWritten = write(streamPtr, data, numFrames);
-            if (framesWritten > 0) position += framesWritten;
+            ringBuffer.write(data);
             data.rewind();
+            LockSupport.unpark(pumpThread);
         }
     }
 
+    /**
+     * Returns the number of frames consumed so far: the frames the AAudio stream has read, plus
+     * the frames the ring dropped or discarded since they will never be played. Frames still
+     * queued in the ring or in the AAudio buffer don't count.
+     */
     public int pointer() {
-        return position;
+        if (streamPtr <= 0) return 0;
+        // the read counter can run ahead of the written frames while the stream underruns
+        long framesRead = Math.min(getFramesRead(streamPtr), position);
+        return (int)(framesRead + ringBuffer.getDroppedFrames() + ringBuffer.getDiscardedFrames());
+    }
+
+    public synchronized int getQueuedFrames() {
+        return ringBuffer != null ? ringBuffer.getQueuedFrames() : 0;
+    }
+
+    public synchronized int getOverruns() {
+        return ringBuffer != null ? ringBuffer.getOverruns() : 0;
+    }
+
+    public synchronized int getUnderruns() {
+        return streamPtr > 0 ? getXRunCount(streamPtr) : 0;
+    }
+
+    /**
+     * Time until a frame written now is played: the frames queued in the ring plus the frames
+     * written to the AAudio stream that it hasn't read yet. Like the other counters, it can be
+     * read from any thread, the stream isn't closed meanwhile.
+     */
+    public synchronized int getPlaybackLatencyMillis() {
+        if (streamPtr <= 0 || sampleRate <= 0) return 0;
+        long numFrames = getQueuedFrames() + Math.max(0, position - getFramesRead(streamPtr));
+        return (int)(numFrames * 1000 / sampleRate);
     }
 
     public void setDataType(DataType dataType) {
@@ -150,7 +240,7 @@ public class ALSAClient {
 
     private native long create(int format, byte channelCount, int sampleRate, int bufferSize);
 
-    private native int write(long streamPtr, ByteBuffer buffer, int numFrames);
+    private native int write(long streamPtr, ByteBuffer buffer, int offset, int numFrames);
 
     private native void start(long streamPtr);
 
@@ -161,4 +251,8 @@ public class ALSAClient {
     private native void flush(long streamPtr);
 
     private native void close(long streamPtr);
+
+    private native int getXRunCount(long streamPtr);
+
+    private native long getFramesRead(long streamPtr);
 }
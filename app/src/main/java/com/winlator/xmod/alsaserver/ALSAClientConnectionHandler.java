@@ -3,15 +3,28 @@ package com.winlator.xmod.alsaserver;
 import com.winlator.xmod.xconnector.Client;
 import com.winlator.xmod.xconnector.ConnectionHandler;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public class ALSAClientConnectionHandler implements ConnectionHandler {
+    private final List<ALSAClient> alsaClients = new CopyOnWriteArrayList<>();
+
     @Override
     public void handleNewConnection(Client client) {
         client.createIOStreams();
-        client.setTag(new ALSAClient());
+        ALSAClient alsaClient = new ALSAClient();
+        alsaClients.add(alsaClient);
+        client.setTag(alsaClient);
     }
 
     @Override
     public void handleConnectionShutdown(Client client) {
-        ((ALSAClient)client.getTag()).release();
+        ALSAClient alsaClient = (ALSAClient)client.getTag();
+        alsaClients.remove(alsaClient);
+        alsaClient.release();
+    }
+
+    public List<ALSAClient> getClients() {
+        return alsaClients;
     }
 }
@@ -0,0 +1,131 @@
+package com.winlator.xmod.alsaserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Single-producer/single-consumer ring of audio frames. The producer (the request handler) only
+ * moves the write position and the consumer (the audio pump thread) only moves the read position,
+ * so neither side needs a lock. Positions are in bytes and never wrap.
+ *
+ * Frames that don't fit are dropped and counted as an overrun, the producer never waits for the
+ * consumer.
+ */
+public class AudioRingBuffer {
+    private final ByteBuffer buffer;
+    private final ByteBuffer producerView;
+    private final int capacity;
+    private final int frameBytes;
+    private volatile long writePosition = 0;
+    private volatile long readPosition = 0;
+    private volatile long discardPosition = 0;
+    private volatile int overruns = 0;
+    private volatile long droppedFrames = 0;
+    private volatile long discardedFrames = 0;
+
+    public AudioRingBuffer(int numFrames, int frameBytes) {
+        this.frameBytes = frameBytes;
+        capacity = numFrames * frameBytes;
+        buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        producerView = buffer.duplicate();
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getFrameBytes() {
+        return frameBytes;
+    }
+
+    public int getCapacityInFrames() {
+        return capacity / frameBytes;
+    }
+
+    /**
+     * Copies the remaining whole frames of data into the ring, called by the producer. Returns the
+     * number of frames queued, which is less than requested if the ring was full.
+     */
+    public int write(ByteBuffer data) {
+        int length = data.remaining() - data.remaining() % frameBytes;
+        int free = capacity - (int)(writePosition - Math.max(readPosition, discardPosition));
+        if (length > free) {
+            overruns++;
+            droppedFrames += (length - free) / frameBytes;
+            length = free;
+        }
+        if (length == 0) return 0;
+
+        int offset = (int)(writePosition % capacity);
+        int firstPart = Math.min(length, capacity - offset);
+        int limit = data.limit();
+
+        data.limit(data.position() + firstPart);
+        producerView.position(offset);
+        producerView.put(data);
+        if (firstPart < length) {
+            data.limit(data.position() + length - firstPart);
+            producerView.position(0);
+            producerView.put(data);
+        }
+        data.limit(limit);
+
+        writePosition += length;
+        return length / frameBytes;
+    }
+
+    /**
+     * Drops everything queued so far, called by the producer. The consumer skips the dropped
+     * frames the next time it reads.
+     */
+    public void discard() {
+        discardedFrames += getQueuedFrames();
+        discardPosition = writePosition;
+    }
+
+    private void applyDiscard() {
+        long discardPosition = this.discardPosition;
+        if (discardPosition > readPosition) readPosition = discardPosition;
+    }
+
+    /**
+     * Returns the number of queued frames that are contiguous from getReadOffset(), called by the
+     * consumer.
+     */
+    public int getReadableFrames() {
+        applyDiscard();
+        int readable = (int)(writePosition - readPosition);
+        int offset = (int)(readPosition % capacity);
+        return Math.min(readable, capacity - offset) / frameBytes;
+    }
+
+    public int getReadOffset() {
+        return (int)(readPosition % capacity);
+    }
+
+    /**
+     * Marks numFrames from getReadOffset() as consumed, called by the consumer.
+     */
+    public void advance(int numFrames) {
+        readPosition += numFrames * frameBytes;
+    }
+
+    public int getQueuedFrames() {
+        return (int)Math.max(0, writePosition - Math.max(readPosition, discardPosition)) / frameBytes;
+    }
+
+    public int getOverruns() {
+        return overruns;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the number of queued frames dropped by discard() so far.
+     */
+    public long getDiscardedFrames() {
+        return discardedFrames;
+    }
+}
@@ -11,6 +11,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.winlator.xmod.BigPictureActivity;
 import com.winlator.xmod.R;
 import com.winlator.xmod.container.Shortcut;
+import com.winlator.xmod.core.BitmapCache;
 
 import java.util.List;
 
@@ -48,12 +49,12 @@ public class BigPictureAdapter extends RecyclerView.Adapter<BigPictureAdapter.Vi
     public void onBindViewHolder(ViewHolder holder, int position) {
         Shortcut shortcut = shortcuts.get(position);
 
-        // Set shortcut's icon in the carousel
-        if (shortcut.icon != null) {
-            holder.iconView.setImageBitmap(shortcut.icon);
-        } else {
-            holder.iconView.setImageResource(R.mipmap.ic_launcher_foreground); // Placeholder for missing icon
-        }
+        // Set shortcut's icon in the carousel once it is decoded, the placeholder stays for a missing icon
+        holder.iconView.setTag(shortcut);
+        holder.iconView.setImageResource(R.mipmap.ic_launcher_foreground);
+        BitmapCache.getInstance().loadAsync(shortcut::getIcon, (icon) -> {
+            if (icon != null && holder.iconView.getTag() == shortcut) holder.iconView.setImageBitmap(icon);
+        });
 
         // Make sure the item can receive focus
         holder.itemView.setFocusable(true);
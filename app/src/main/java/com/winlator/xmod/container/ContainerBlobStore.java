@@ -0,0 +1,281 @@
+package com.winlator.xmod.container;
+
+import android.util.Log;
+
+import com.winlator.xmod.contents.Downloader;
+import com.winlator.xmod.core.Callback;
+import com.winlator.xmod.core.FileUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Content-addressed store for the system files shared by all containers. Identical files are kept
+ * once in the store, named after their SHA-256 hash, and containers get copy-on-write clones of
+ * them (FICLONE), so Wine can still write to its system files: the filesystem gives the written
+ * file its own blocks without touching the store or the other containers.
+ *
+ * The ext4 and f2fs filesystems used for app storage on most devices can't clone files, and a
+ * hardlink can't give the copy-on-write Wine needs, so there the store stays disabled and every
+ * container keeps its own copy. Callers check isEnabled() to skip it altogether.
+ *
+ * Each container records its shared files in RECORD_NAME (relative path -> hash, size and
+ * modification time), which tells which files are unchanged since they were shared and which
+ * blobs are still in use.
+ */
+public class ContainerBlobStore {
+    private static final String TAG = "ContainerBlobStore";
+    private static final String RECORD_NAME = ".blobs";
+    private static final int MIN_FILE_SIZE = 16 * 1024;
+    private static final String[] SHARED_DIRS = {".wine/drive_c/windows/system32", ".wine/drive_c/windows/syswow64"};
+    private static Boolean cloneSupported;
+    private final File storeDir;
+
+    static {
+        System.loadLibrary("winlator");
+    }
+
+    public ContainerBlobStore(File storeDir) {
+        this.storeDir = storeDir;
+    }
+
+    private static native boolean cloneFile(String srcPath, String dstPath);
+
+    /**
+     * Returns whether the store's filesystem supports cloning, checked once per process by cloning
+     * a small file. Nothing is shared when it doesn't.
+     */
+    public boolean isEnabled() {
+        synchronized (ContainerBlobStore.class) {
+            if (cloneSupported == null) cloneSupported = probeClone();
+            return cloneSupported;
+        }
+    }
+
+    private boolean probeClone() {
+        if (!storeDir.isDirectory() && !storeDir.mkdirs()) return false;
+
+        File probeFile = new File(storeDir, ".probe");
+        File cloneFile = new File(storeDir, ".probe-clone");
+        probeFile.delete();
+        cloneFile.delete();
+        boolean supported = false;
+        try (FileOutputStream outStream = new FileOutputStream(probeFile)) {
+            outStream.write(new byte[4096]);
+            outStream.flush();
+            supported = cloneFile(probeFile.getPath(), cloneFile.getPath());
+        }
+        catch (IOException e) {}
+        probeFile.delete();
+        cloneFile.delete();
+        Log.d(TAG, "File cloning " + (supported ? "supported" : "not supported, containers keep their own copies"));
+        return supported;
+    }
+
+    private static boolean isSharedPath(File rootDir, File file) {
+        String path = file.getAbsolutePath();
+        for (String sharedDir : SHARED_DIRS) {
+            if (path.startsWith(new File(rootDir, sharedDir).getAbsolutePath() + "/")) return true;
+        }
+        return false;
+    }
+
+    private static String getRelativePath(File rootDir, File file) {
+        return file.getAbsolutePath().substring(rootDir.getAbsolutePath().length() + 1);
+    }
+
+    private File getBlobFile(String hash) {
+        return new File(storeDir, hash.substring(0, 2) + "/" + hash);
+    }
+
+    private static JSONObject readRecord(File rootDir) {
+        File file = new File(rootDir, RECORD_NAME);
+        try {
+            String content = file.isFile() ? FileUtils.readString(file) : null;
+            return content != null && !content.isEmpty() ? new JSONObject(content) : new JSONObject();
+        }
+        catch (JSONException e) {
+            return new JSONObject();
+        }
+    }
+
+    private static void writeRecord(File rootDir, JSONObject record) {
+        FileUtils.writeString(new File(rootDir, RECORD_NAME), record.toString());
+    }
+
+    private static void putRecordEntry(JSONObject record, String path, String hash, File file) {
+        try {
+            JSONArray entry = new JSONArray();
+            entry.put(hash);
+            entry.put(file.length());
+            entry.put(file.lastModified());
+            record.put(path, entry);
+        }
+        catch (JSONException e) {}
+    }
+
+    /**
+     * Returns the hash of a recorded file if it wasn't modified since it was shared, or null.
+     */
+    private static String getSharedHash(JSONObject record, String path, File file) {
+        JSONArray entry = record.optJSONArray(path);
+        if (entry == null || entry.optLong(1) != file.length() || entry.optLong(2) != file.lastModified()) return null;
+        return entry.optString(0, null);
+    }
+
+    /**
+     * Replaces the shared system files of a container with clones of the store's blobs. Files that
+     * are recorded as shared and unchanged are skipped, so running it again only hashes new or
+     * replaced files. Returns the number of bytes this pass freed.
+     */
+    public long deduplicate(File rootDir) {
+        if (!isEnabled()) return 0;
+
+        JSONObject record = readRecord(rootDir);
+        long savedBytes = 0;
+        for (String sharedDir : SHARED_DIRS) savedBytes += deduplicateDir(rootDir, new File(rootDir, sharedDir), record);
+        writeRecord(rootDir, record);
+        Log.d(TAG, "Deduplicated " + rootDir.getName() + ": " + savedBytes + " bytes saved, " + getSharedBytes(rootDir) + " bytes shared");
+        return savedBytes;
+    }
+
+    private long deduplicateDir(File rootDir, File dir, JSONObject record) {
+        File[] files = dir.listFiles();
+        if (files == null) return 0;
+
+        long savedBytes = 0;
+        for (File file : files) {
+            if (FileUtils.isSymlink(file)) continue;
+            if (file.isDirectory()) {
+                savedBytes += deduplicateDir(rootDir, file, record);
+            }
+            else if (file.length() >= MIN_FILE_SIZE) {
+                String path = getRelativePath(rootDir, file);
+                if (getSharedHash(record, path, file) == null) savedBytes += deduplicateFile(file, path, record);
+            }
+        }
+        return savedBytes;
+    }
+
+    private long deduplicateFile(File file, String path, JSONObject record) {
+        String hash = Downloader.getSHA256(file);
+        if (hash == null) return 0;
+
+        File blobFile = getBlobFile(hash);
+        if (!blobFile.isFile()) {
+            File parent = blobFile.getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) return 0;
+            if (cloneFile(file.getPath(), blobFile.getPath())) putRecordEntry(record, path, hash, file);
+            return 0;
+        }
+
+        if (blobFile.length() != file.length()) return 0;
+
+        File tempFile = FileUtils.createTempFile(file.getParentFile(), file.getName());
+        if (!cloneFile(blobFile.getPath(), tempFile.getPath())) return 0;
+        FileUtils.chmod(tempFile, 0771);
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            return 0;
+        }
+        putRecordEntry(record, path, hash, file);
+        return blobFile.length();
+    }
+
+    /**
+     * Copies a container directory, cloning the files that are shared with the store instead of
+     * copying their data. Like FileUtils.copy(), symlinks are skipped, a file that fails to copy
+     * is logged and skipped, and the callback is called for every copied file and directory.
+     */
+    public boolean copyContainer(File srcDir, File dstDir, Callback<File> callback) {
+        if (!isEnabled()) return FileUtils.copy(srcDir, dstDir, callback);
+
+        JSONObject srcRecord = readRecord(srcDir);
+        JSONObject dstRecord = new JSONObject();
+        boolean success = copyContainer(srcDir, dstDir, srcDir, dstDir, srcRecord, dstRecord, callback);
+        if (dstRecord.length() > 0) writeRecord(dstDir, dstRecord);
+        return success;
+    }
+
+    private boolean copyContainer(File srcRootDir, File dstRootDir, File srcFile, File dstFile, JSONObject srcRecord, JSONObject dstRecord, Callback<File> callback) {
+        if (FileUtils.isSymlink(srcFile)) return true;
+        if (srcFile.isDirectory()) {
+            if (!dstFile.exists() && !dstFile.mkdirs()) return false;
+            if (callback != null) callback.call(dstFile);
+
+            String[] filenames = srcFile.list();
+            if (filenames != null) {
+                for (String filename : filenames) {
+                    if (srcFile.equals(srcRootDir) && filename.equals(RECORD_NAME)) continue;
+                    if (!copyContainer(srcRootDir, dstRootDir, new File(srcFile, filename), new File(dstFile, filename), srcRecord, dstRecord, callback)) {
+                        Log.e(TAG, "Failed to copy " + new File(srcFile, filename).getPath());
+                    }
+                }
+            }
+            return true;
+        }
+
+        String path = getRelativePath(srcRootDir, srcFile);
+        String hash = isSharedPath(srcRootDir, srcFile) ? getSharedHash(srcRecord, path, srcFile) : null;
+        if (hash != null) {
+            dstFile.delete();
+            if (cloneFile(srcFile.getPath(), dstFile.getPath())) {
+                if (callback != null) callback.call(dstFile);
+                putRecordEntry(dstRecord, path, hash, dstFile);
+                return true;
+            }
+        }
+        return FileUtils.copy(srcFile, dstFile, callback);
+    }
+
+    /**
+     * Returns the size of the files of a container that are still shared with the store, i.e. the
+     * space the container doesn't use on its own.
+     */
+    public static long getSharedBytes(File rootDir) {
+        JSONObject record = readRecord(rootDir);
+        long sharedBytes = 0;
+        for (Iterator<String> keys = record.keys(); keys.hasNext();) {
+            String path = keys.next();
+            File file = new File(rootDir, path);
+            if (getSharedHash(record, path, file) != null) sharedBytes += file.length();
+        }
+        return sharedBytes;
+    }
+
+    /**
+     * Removes the blobs that none of the given containers share anymore.
+     */
+    public int collectGarbage(List<File> rootDirs) {
+        HashSet<String> hashes = new HashSet<>();
+        for (File rootDir : rootDirs) {
+            JSONObject record = readRecord(rootDir);
+            for (Iterator<String> keys = record.keys(); keys.hasNext();) {
+                String path = keys.next();
+                String hash = getSharedHash(record, path, new File(rootDir, path));
+                if (hash != null) hashes.add(hash);
+            }
+        }
+
+        int removed = 0;
+        File[] dirs = storeDir.listFiles();
+        if (dirs == null) return 0;
+
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                if (!hashes.contains(file.getName()) && file.delete()) removed++;
+            }
+        }
+        return removed;
+    }
+}
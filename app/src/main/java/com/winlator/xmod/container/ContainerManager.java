@@ -37,6 +37,8 @@ public class ContainerManager {
     private int maxContainerId = 0;
     private final File homeDir;
     private final Context context;
+    private final ContainerBlobStore blobStore;
+    private final ShortcutCatalog shortcutCatalog;
 
     private boolean isInitialized = false; // New flag to track initialization
 
@@ -44,6 +46,8 @@ public class ContainerManager {
         this.context = context;
         File rootDir = ImageFs.find(context).getRootDir();
         homeDir = new File(rootDir, "home");
+        blobStore = new ContainerBlobStore(new File(context.getFilesDir(), "blobs"));
+        shortcutCatalog = new ShortcutCatalog(new File(context.getFilesDir(), "shortcuts.json"));
         loadContainers();
         isInitialized = true;
     }
@@ -237,6 +241,10 @@ public class ContainerManager {
             // Ensure default internal and external storage drives are present
             ensureStorageDrives(container);
 
+            if (blobStore.isEnabled()) {
+                blobStore.deduplicate(containerDir);
+                container.putExtra("sharedBytes", ContainerBlobStore.getSharedBytes(containerDir));
+            }
             container.saveData();
             maxContainerId++;
             containers.add(container);
@@ -254,8 +262,9 @@ public class ContainerManager {
         File dstDir = new File(homeDir, ImageFs.USER + "-" + id);
         if (!dstDir.mkdirs()) return;
 
-        // Use the refactored copy method that doesn't require a Context for File operations
-        if (!FileUtils.copy(srcContainer.getRootDir(), dstDir, file -> FileUtils.chmod(file, 0771))) {
+        // Share the system files through the blob store, then clone them instead of copying
+        blobStore.deduplicate(srcContainer.getRootDir());
+        if (!blobStore.copyContainer(srcContainer.getRootDir(), dstDir, file -> FileUtils.chmod(file, 0771))) {
             FileUtils.delete(dstDir);
             return;
         }
@@ -279,6 +288,7 @@ public class ContainerManager {
         dstContainer.setBox64Preset(srcContainer.getBox64Preset());
         dstContainer.setDesktopTheme(srcContainer.getDesktopTheme());
         dstContainer.setWineVersion(srcContainer.getWineVersion());
+        if (blobStore.isEnabled()) dstContainer.putExtra("sharedBytes", ContainerBlobStore.getSharedBytes(dstDir));
         dstContainer.saveData();
 
         maxContainerId++;
@@ -288,22 +298,14 @@ public class ContainerManager {
 
     private void removeContainer(Container container) {
         if (FileUtils.delete(container.getRootDir())) containers.remove(container);
+        if (!blobStore.isEnabled()) return;
+        ArrayList<File> rootDirs = new ArrayList<>();
+        for (Container remaining : containers) rootDirs.add(remaining.getRootDir());
+        blobStore.collectGarbage(rootDirs);
     }
 
     public ArrayList<Shortcut> loadShortcuts() {
-        ArrayList<Shortcut> shortcuts = new ArrayList<>();
-        for (Container container : containers) {
-            File desktopDir = container.getDesktopDir();
-            ArrayList<File> files = new ArrayList<>();
-            if (desktopDir.exists())
-                files.addAll(Arrays.asList(desktopDir.listFiles()));
-            if (files != null) {
-                for (File file : files) {
-                    if (file.getName().endsWith(".desktop")) shortcuts.add(new Shortcut(container, file));
-                }
-            }
-        }
-
+        ArrayList<Shortcut> shortcuts = shortcutCatalog.loadShortcuts(containers);
         shortcuts.sort(Comparator.comparing(a -> a.name));
         return shortcuts;
     }
@@ -1,9 +1,9 @@
     package com.winlator.xmod.container;
 
     import android.graphics.Bitmap;
-    import android.graphics.BitmapFactory;
     import android.util.Log;
 
+    import com.winlator.xmod.core.BitmapCache;
     import com.winlator.xmod.core.FileUtils;
     import com.winlator.xmod.core.StringUtils;
 
@@ -19,29 +19,63 @@ import java.nio.file.Files;
     import java.util.UUID;
 
     public class Shortcut {
+        public static final int ICON_SIZE = 64;
+        public static final int COVER_ART_SIZE = 256;
         public final Container container;
         public final String name;
         public final String path;
-        public final Bitmap icon;
         public final File file;
         public final File iconFile;
         public final String wmClass;
-        private final JSONObject extraData = new JSONObject();
+        private final JSONObject extraData;
         private Bitmap coverArt; // Changed to private to use getter method
         private String customCoverArtPath; // Path to custom cover art
 
         private static final String COVER_ART_DIR = "app_data/cover_arts/"; // Removed leading "/" to keep it relative
 
         public Shortcut(Container container, File file) {
+            this(container, file, readEntry(container, file));
+        }
+
+        /**
+         * Creates a shortcut from an entry made by readEntry(), as kept by ShortcutCatalog. Nothing
+         * is read from disk, the icon and cover art are decoded when they are first requested.
+         */
+        Shortcut(Container container, File file, JSONObject entry) {
             this.container = container;
             this.file = file;
+            this.name = FileUtils.getBasename(file.getPath());
+            this.path = entry.optString("path");
+            this.wmClass = entry.optString("wmClass");
+
+            String iconPath = entry.optString("iconPath");
+            this.iconFile = !iconPath.isEmpty() ? new File(iconPath) : null;
 
+            JSONObject extraData;
+            try {
+                JSONObject entryExtraData = entry.optJSONObject("extraData");
+                extraData = entryExtraData != null ? new JSONObject(entryExtraData.toString()) : new JSONObject();
+            }
+            catch (JSONException e) {
+                extraData = new JSONObject();
+            }
+            this.extraData = extraData;
+
+            this.customCoverArtPath = getExtra("customCoverArtPath");
+
+            Container.checkObsoleteOrMissingProperties(extraData);
+        }
+
+        /**
+         * Parses a .desktop file into the fields a shortcut is made of: the executable path, the
+         * window class, the icon name, the icon file it resolves to and the extra data.
+         */
+        static JSONObject readEntry(Container container, File file) {
             String execArgs = "";
-            Bitmap icon = null;
-            File iconFile = null;
+            String icon = "";
             String wmClass = "";
+            JSONObject extraData = new JSONObject();
 
-            File[] iconDirs = {container.getIconsDir(64), container.getIconsDir(48), container.getIconsDir(32), container.getIconsDir(16)};
             String section = "";
 
             int index;
@@ -59,15 +93,7 @@ import java.nio.file.Files;
 
                     if (section.equals("Desktop Entry")) {
                         if (key.equals("Exec")) execArgs = value;
-                        if (key.equals("Icon")) {
-                            for (File iconDir : iconDirs) {
-                                iconFile = new File(iconDir, value+".png");
-                                if (iconFile.isFile()){
-                                    icon = BitmapFactory.decodeFile(iconFile.getPath());
-                                    break;
-                                }
-                            }
-                        }
+                        if (key.equals("Icon")) icon = value;
                         if (key.equals("StartupWMClass")) wmClass = value;
                     }
                     else if (section.equals("Extra Data")) {
@@ -79,52 +105,77 @@ import java.nio.file.Files;
                 }
             }
 
-            this.name = FileUtils.getBasename(file.getPath());
-            this.icon = icon;
-            this.iconFile = iconFile;
-            
-            Log.d("Shortcut", "Processing shortcut: " + this.name);
-            Log.d("Shortcut", "Raw execArgs: '" + execArgs + "'");
-            
+            String path;
             if (execArgs.contains("wine ")) {
-                String extractedPath = StringUtils.unescape(execArgs.substring(execArgs.lastIndexOf("wine ") + 5));
-                Log.d("Shortcut", "Extracted path after 'wine ': '" + extractedPath + "'");
-                this.path = extractedPath;
+                path = StringUtils.unescape(execArgs.substring(execArgs.lastIndexOf("wine ") + 5));
             } else {
-                Log.w("Shortcut", "No 'wine ' found in execArgs, using full execArgs as path");
-                this.path = StringUtils.unescape(execArgs);
+                Log.w("Shortcut", "No 'wine ' found in execArgs of " + file.getName() + ", using full execArgs as path");
+                path = StringUtils.unescape(execArgs);
             }
-            
-            this.wmClass = wmClass;
 
-            this.customCoverArtPath = getExtra("customCoverArtPath");
+            JSONObject entry = new JSONObject();
+            try {
+                entry.put("path", path);
+                entry.put("wmClass", wmClass);
+                entry.put("icon", icon);
+                resolveIconPath(container, entry);
+                entry.put("extraData", extraData);
+            }
+            catch (JSONException e) {}
+            return entry;
+        }
 
-            // Load cover art if available
-            loadCoverArt();
+        /**
+         * Looks up the icon of an entry in the container's icon directories, largest size first, and
+         * stores the file found as its iconPath. Returns false if the entry names an icon that isn't
+         * there yet, since the icons can be extracted after the .desktop file is written.
+         */
+        static boolean resolveIconPath(Container container, JSONObject entry) throws JSONException {
+            String icon = entry.optString("icon");
+            entry.put("iconPath", "");
+            if (icon.isEmpty()) return true;
+
+            for (int size : new int[]{64, 48, 32, 16}) {
+                File iconFile = new File(container.getIconsDir(size), icon+".png");
+                if (iconFile.isFile()) {
+                    entry.put("iconPath", iconFile.getPath());
+                    return true;
+                }
+            }
+            return false;
+        }
 
-            Container.checkObsoleteOrMissingProperties(extraData);
+        public Bitmap getIcon() {
+            return iconFile != null ? BitmapCache.getInstance().get(iconFile, ICON_SIZE) : null;
         }
 
-        private void loadCoverArt() {
+        private File getCoverArtFile() {
             // Check for custom cover art first
             if (customCoverArtPath != null && !customCoverArtPath.isEmpty()) {
                 File customCoverArtFile = new File(customCoverArtPath);
-                if (customCoverArtFile.isFile()) {
-                    this.coverArt = BitmapFactory.decodeFile(customCoverArtFile.getPath());
-                    return; // Exit if custom cover art is loaded
-                }
+                if (customCoverArtFile.isFile()) return customCoverArtFile;
             }
 
             // Fallback to standard cover art location
-            File defaultCoverArtFile = new File(COVER_ART_DIR, this.name + ".png");
-            if (defaultCoverArtFile.isFile()) {
-                this.coverArt = BitmapFactory.decodeFile(defaultCoverArtFile.getPath());
-            }
+            return new File(COVER_ART_DIR, this.name + ".png");
         }
 
         // Getters and setters for coverArt and customCoverArtPath
+        /**
+         * Returns the cover art set with setCoverArt(), or a thumbnail of the cover art file.
+         */
         public Bitmap getCoverArt() {
-            return coverArt;
+            if (coverArt != null) return coverArt;
+            return BitmapCache.getInstance().get(getCoverArtFile(), COVER_ART_SIZE);
+        }
+
+        /**
+         * Returns the cover art, or the icon if there is none. Decodes them if they aren't cached, so
+         * list items should get it through BitmapCache.loadAsync().
+         */
+        public Bitmap getCoverArtOrIcon() {
+            Bitmap coverArt = getCoverArt();
+            return coverArt != null ? coverArt : getIcon();
         }
 
         public void setCoverArt(Bitmap coverArt) {
@@ -0,0 +1,83 @@
+package com.winlator.xmod.container;
+
+import com.winlator.xmod.core.FileUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisted index of the parsed .desktop files of all containers, so that listing the shortcuts
+ * only parses the files that were added or modified since the last listing. Entries are keyed by
+ * container id and file name, and are valid as long as the file's modification time and length
+ * are unchanged. Entries also keep the icon file resolved for them, which is only looked up again
+ * while the icon isn't there.
+ */
+public class ShortcutCatalog {
+    private final File indexFile;
+    private JSONObject index;
+
+    public ShortcutCatalog(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    private void loadIndex() {
+        if (index != null) return;
+        try {
+            String content = indexFile.isFile() ? FileUtils.readString(indexFile) : null;
+            index = content != null && !content.isEmpty() ? new JSONObject(content) : new JSONObject();
+        }
+        catch (JSONException e) {
+            index = new JSONObject();
+        }
+    }
+
+    public synchronized ArrayList<Shortcut> loadShortcuts(List<Container> containers) {
+        loadIndex();
+        ArrayList<Shortcut> shortcuts = new ArrayList<>();
+        JSONObject newIndex = new JSONObject();
+        boolean modified = false;
+
+        try {
+            for (Container container : containers) {
+                String containerKey = String.valueOf(container.id);
+                JSONObject oldEntries = index.optJSONObject(containerKey);
+                JSONObject entries = new JSONObject();
+
+                File[] files = container.getDesktopDir().listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.getName().endsWith(".desktop")) continue;
+
+                        JSONObject entry = oldEntries != null ? oldEntries.optJSONObject(file.getName()) : null;
+                        if (entry == null || entry.optLong("lastModified") != file.lastModified() || entry.optLong("length") != file.length()) {
+                            entry = Shortcut.readEntry(container, file);
+                            entry.put("lastModified", file.lastModified());
+                            entry.put("length", file.length());
+                            modified = true;
+                        }
+                        else if (entry.optString("iconPath").isEmpty() && !entry.optString("icon").isEmpty()) {
+                            if (Shortcut.resolveIconPath(container, entry)) modified = true;
+                        }
+
+                        entries.put(file.getName(), entry);
+                        shortcuts.add(new Shortcut(container, file, entry));
+                    }
+                }
+
+                if (oldEntries != null && oldEntries.length() != entries.length()) modified = true;
+                newIndex.put(containerKey, entries);
+            }
+
+            if (index.length() != newIndex.length()) modified = true;
+        }
+        catch (JSONException e) {}
+
+        index = newIndex;
+        if (modified) FileUtils.writeString(indexFile, index.toString());
+        return shortcuts;
+    }
+}
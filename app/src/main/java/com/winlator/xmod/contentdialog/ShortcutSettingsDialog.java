@@ -609,7 +609,7 @@ public class ShortcutSettingsDialog extends ContentDialog {
 
         fragment.loadShortcutsList();
         fragment.updateShortcutOnScreen(newName, newName, shortcut.container.id, newDesktopFile.getAbsolutePath(),
-                Icon.createWithBitmap(shortcut.icon), shortcut.getExtra("uuid"));
+                Icon.createWithBitmap(shortcut.getIcon()), shortcut.getExtra("uuid"));
     }
 
     // Method to ensure no old file remains
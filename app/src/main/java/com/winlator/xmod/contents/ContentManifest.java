@@ -0,0 +1,60 @@
+package com.winlator.xmod.contents;
+
+import com.winlator.xmod.core.FileUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+
+/**
+ * Records the files applyContent() placed in a container: for each target, the source it came
+ * from and the size and modification time of both. A target whose entry still matches the files
+ * on disk is identical to its source and doesn't need to be written again. The manifest is kept
+ * in the container's home directory, so each container has its own.
+ */
+class ContentManifest {
+    private final File file;
+    private JSONObject entries;
+    private boolean modified = false;
+
+    ContentManifest(File file) {
+        this.file = file;
+        try {
+            String content = file.isFile() ? FileUtils.readString(file) : null;
+            entries = content != null && !content.isEmpty() ? new JSONObject(content) : new JSONObject();
+        }
+        catch (JSONException e) {
+            entries = new JSONObject();
+        }
+    }
+
+    boolean isUpToDate(File targetFile, File sourceFile) {
+        JSONObject entry = entries.optJSONObject(targetFile.getPath());
+        return entry != null && targetFile.isFile() &&
+               entry.optString("source").equals(sourceFile.getPath()) &&
+               entry.optLong("sourceSize") == sourceFile.length() &&
+               entry.optLong("sourceModified") == sourceFile.lastModified() &&
+               entry.optLong("size") == targetFile.length() &&
+               entry.optLong("modified") == targetFile.lastModified();
+    }
+
+    void put(File targetFile, File sourceFile) {
+        try {
+            JSONObject entry = new JSONObject();
+            entry.put("source", sourceFile.getPath());
+            entry.put("sourceSize", sourceFile.length());
+            entry.put("sourceModified", sourceFile.lastModified());
+            entry.put("size", targetFile.length());
+            entry.put("modified", targetFile.lastModified());
+            entries.put(targetFile.getPath(), entry);
+            modified = true;
+        }
+        catch (JSONException e) {}
+    }
+
+    void save() {
+        if (modified) FileUtils.writeString(file, entries.toString());
+        modified = false;
+    }
+}
@@ -67,4 +67,5 @@ public class ContentProfile {
     public String protonBinPath;
     public String protonPrefixPack;
     public String remoteUrl;
+    public String remoteSha256;
 }
@@ -9,12 +9,16 @@ import androidx.annotation.NonNull;
 
 import com.winlator.xmod.core.FileUtils;
 import com.winlator.xmod.core.TarCompressorUtils;
+import com.winlator.xmod.xenvironment.ImageFs;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -24,6 +28,7 @@ import java.util.Map;
 
 public class ContentsManager {
     public static final String PROFILE_NAME = "profile.json";
+    public static final String MANIFEST_NAME = ".contents";
     public static final String REMOTE_PROFILES = "https://gitlab.com/winlator3/winlator-extra/-/raw/main/contents.json";
     public static final String[] DXVK_TRUST_FILES = {"${system32}/d3d8.dll", "${system32}/d3d9.dll", "${system32}/d3d10.dll", "${system32}/d3d10_1.dll",
             "${system32}/d3d10core.dll", "${system32}/d3d11.dll", "${system32}/dxgi.dll", "${syswow64}/d3d8.dll", "${syswow64}/d3d9.dll", "${syswow64}/d3d10.dll",
@@ -37,6 +42,16 @@ public class ContentsManager {
     private Map<ContentProfile.ContentType, List<String>> trustedFilesMap;
 
     private SharedPreferences preferences;
+    private ApplyStats lastApplyStats;
+
+    /**
+     * What the last applyContent() call did. Linked and unchanged files cost no writes.
+     */
+    public static class ApplyStats {
+        public int filesCopied = 0;
+        public int filesSkipped = 0;
+        public long bytesWritten = 0;
+    }
 
     public enum InstallFailedReason {
         ERROR_NOSPACE,
@@ -100,6 +115,7 @@ public class ContentsManager {
                     JSONObject object = content.getJSONObject(i);
                     ContentProfile remoteProfile = new ContentProfile();
                     remoteProfile.remoteUrl = object.getString("remoteUrl");
+                    remoteProfile.remoteSha256 = object.optString("sha256", null);
                     remoteProfile.type = ContentProfile.ContentType.getTypeByName(object.getString("type"));
                     remoteProfile.verName = object.getString("verName");
                     remoteProfile.verCode = object.getInt("verCode");
@@ -170,40 +186,50 @@ public class ContentsManager {
 
         File file = getTmpDir(context);
 
-        boolean ret;
-        ret = TarCompressorUtils.extract(TarCompressorUtils.Type.XZ, context, uri, file);
-        if (!ret)
-            ret = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context, uri, file);
-        if (!ret) {
-            callback.onFailed(InstallFailedReason.ERROR_BADTAR, null);
-            return;
-        }
+        // The profile is checked as soon as it comes out of the archive, so a bad package stops
+        // the extraction there instead of after the whole archive was written.
+        ContentProfile[] extractedProfile = {null};
+        InstallFailedReason[] failedReason = {null};
+        TarCompressorUtils.EntryValidator entryValidator = (name, data) -> {
+            if (!isSubPath(file.getAbsolutePath(), new File(file, name).getAbsolutePath())) {
+                failedReason[0] = InstallFailedReason.ERROR_UNTRUSTPROFILE;
+                return false;
+            }
+            if (!Paths.get(name).normalize().toString().equals(PROFILE_NAME)) return true;
 
-        File proFile = new File(file, PROFILE_NAME);
-        if (!proFile.exists()) {
-            callback.onFailed(InstallFailedReason.ERROR_NOPROFILE, null);
+            ContentProfile profile = data != null ? readProfile(new String(data, StandardCharsets.UTF_8)) : null;
+            if (profile == null) {
+                failedReason[0] = InstallFailedReason.ERROR_BADPROFILE;
+            }
+            else if (!hasTrustedTargets(profile)) {
+                failedReason[0] = InstallFailedReason.ERROR_UNTRUSTPROFILE;
+            }
+            extractedProfile[0] = profile;
+            return failedReason[0] == null;
+        };
+
+        // remote packages are extracted while they download instead of going through a cache file
+        String scheme = uri.getScheme();
+        boolean ret = "http".equals(scheme) || "https".equals(scheme) ?
+            Downloader.downloadAndExtract(uri.toString(), file, null, entryValidator) :
+            TarCompressorUtils.extract(context, uri, file, entryValidator);
+        if (!ret) {
+            callback.onFailed(failedReason[0] != null ? failedReason[0] : InstallFailedReason.ERROR_BADTAR, null);
             return;
         }
 
-        ContentProfile profile = readProfile(proFile);
+        ContentProfile profile = extractedProfile[0];
         if (profile == null) {
-            callback.onFailed(InstallFailedReason.ERROR_BADPROFILE, null);
+            callback.onFailed(InstallFailedReason.ERROR_NOPROFILE, null);
             return;
         }
 
-        String imagefsPath = context.getFilesDir().getAbsolutePath() + "/imagefs";
         for (ContentProfile.ContentFile contentFile : profile.fileList) {
             File tmpFile = new File(file, contentFile.source);
             if (!tmpFile.exists() || !tmpFile.isFile() || !isSubPath(file.getAbsolutePath(), tmpFile.getAbsolutePath())) {
                 callback.onFailed(InstallFailedReason.ERROR_MISSINGFILES, null);
                 return;
             }
-
-            String realPath = getPathFromTemplate(contentFile.target);
-            if (!isSubPath(imagefsPath, realPath) || isSubPath(ContentsManager.getContentDir(context).getAbsolutePath(), realPath) || realPath.contains("dosdevices")) {
-                callback.onFailed(InstallFailedReason.ERROR_UNTRUSTPROFILE, null);
-                return;
-            }
         }
 
         if (profile.type == ContentProfile.ContentType.CONTENT_TYPE_WINE) {
@@ -250,10 +276,23 @@ public class ContentsManager {
         callback.onSucceed(profile);
     }
 
+    private boolean hasTrustedTargets(ContentProfile profile) {
+        String imagefsPath = context.getFilesDir().getAbsolutePath() + "/imagefs";
+        for (ContentProfile.ContentFile contentFile : profile.fileList) {
+            String realPath = getPathFromTemplate(contentFile.target);
+            if (!isSubPath(imagefsPath, realPath) || isSubPath(ContentsManager.getContentDir(context).getAbsolutePath(), realPath) || realPath.contains("dosdevices")) return false;
+        }
+        return true;
+    }
+
     public ContentProfile readProfile(File file) {
+        return readProfile(FileUtils.readString(file));
+    }
+
+    public ContentProfile readProfile(String json) {
         try {
             ContentProfile profile = new ContentProfile();
-            JSONObject profileJSONObject = new JSONObject(FileUtils.readString(file));
+            JSONObject profileJSONObject = new JSONObject(json);
             String typeName = profileJSONObject.getString(ContentProfile.MARK_TYPE);
             String verName = profileJSONObject.getString(ContentProfile.MARK_VERSION_NAME);
             int verCode = profileJSONObject.getInt(ContentProfile.MARK_VERSION_CODE);
@@ -413,19 +452,54 @@ public class ContentsManager {
         return null;
     }
 
+    public ApplyStats getLastApplyStats() {
+        return lastApplyStats;
+    }
+
+    private static boolean isSameFile(File file1, File file2) {
+        try {
+            return file1.exists() && Files.isSameFile(file1.toPath(), file2.toPath());
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Places the files of the profile at their targets in the active container. Targets that are
+     * still identical to their source according to the container's manifest are left alone, the
+     * others are copied.
+     */
     public boolean applyContent(ContentProfile profile) {
+        ApplyStats stats = new ApplyStats();
+        lastApplyStats = stats;
+
         if (profile.type != ContentProfile.ContentType.CONTENT_TYPE_WINE && profile.type != ContentProfile.ContentType.CONTENT_TYPE_PROTON) {
+            String imagefsPath = context.getFilesDir().getAbsolutePath() + "/imagefs";
+            ContentManifest manifest = new ContentManifest(new File(imagefsPath + ImageFs.HOME_PATH, MANIFEST_NAME));
             for (ContentProfile.ContentFile contentFile : profile.fileList) {
                 File targetFile = new File(getPathFromTemplate(contentFile.target));
                 File sourceFile = new File(getInstallDir(context, profile), contentFile.source);
 
+                // a target left hardlinked to the installed content by an older version is copied
+                // again, later writes to it must not reach the installed content
+                if (manifest.isUpToDate(targetFile, sourceFile) && !isSameFile(targetFile, sourceFile)) {
+                    stats.filesSkipped++;
+                    continue;
+                }
+
                 targetFile.delete();
                 FileUtils.copy(sourceFile, targetFile);
+                stats.filesCopied++;
+                stats.bytesWritten += targetFile.length();
 
                 if (profile.type == ContentProfile.ContentType.CONTENT_TYPE_BOX64) {
                     FileUtils.chmod(targetFile, 0771);
                 }
+                manifest.put(targetFile, sourceFile);
             }
+            manifest.save();
+            Log.d("ContentsManager", "Applied " + getEntryName(profile) + ": " + stats.filesCopied + " copied (" + stats.bytesWritten + " bytes), " + stats.filesSkipped + " unchanged");
         } else {
             // TODO: do nothing?
         }
@@ -1,48 +1,428 @@
 package com.winlator.xmod.contents;
 
+import com.winlator.xmod.core.FileUtils;
+import com.winlator.xmod.core.StreamUtils;
+import com.winlator.xmod.core.TarCompressorUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Downloads files over HTTP. When the server supports range requests the file is split into
+ * chunks that are fetched in parallel, and the progress of each chunk is kept in a sidecar state
+ * file next to the partial download, so that an interrupted download resumes where it stopped.
+ * The state is discarded when the remote file's length or validator (ETag or Last-Modified)
+ * changed. A dropped connection is reopened from the current offset up to MAX_RETRIES times.
+ */
 public class Downloader {
+    public static final int MAX_CHUNKS = 4;
+    private static final long MIN_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final long STATE_SAVE_INTERVAL = 1024 * 1024;
+    private static final int MAX_RETRIES = 3;
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
 
-    public static boolean downloadFile(String address, File file) {
+    private static class RemoteInfo {
+        private long length = -1;
+        private boolean acceptRanges = false;
+        private String validator = "";
+    }
+
+    private static class Chunk {
+        private final long start;
+        private final long end;
+        private volatile long position;
+
+        private Chunk(long start, long end, long position) {
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+
+        private boolean isComplete() {
+            return position > end;
+        }
+    }
+
+    /**
+     * Progress of a ranged download, saved to the state file as the chunks advance.
+     */
+    private static class DownloadState {
+        private final File file;
+        private final String address;
+        private final RemoteInfo info;
+        private final ArrayList<Chunk> chunks = new ArrayList<>();
+
+        private DownloadState(File file, String address, RemoteInfo info) {
+            this.file = file;
+            this.address = address;
+            this.info = info;
+        }
+
+        private static DownloadState create(File file, String address, RemoteInfo info, int maxChunks) {
+            DownloadState state = new DownloadState(file, address, info);
+            int chunkCount = (int)Math.max(1, Math.min(maxChunks, info.length / MIN_CHUNK_SIZE));
+            long chunkSize = info.length / chunkCount;
+            for (int i = 0; i < chunkCount; i++) {
+                long start = i * chunkSize;
+                long end = i == chunkCount - 1 ? info.length - 1 : start + chunkSize - 1;
+                state.chunks.add(new Chunk(start, end, start));
+            }
+            return state;
+        }
+
+        /**
+         * Returns the saved state if it belongs to the same remote file, or null.
+         */
+        private static DownloadState load(File file, String address, RemoteInfo info) {
+            if (!file.isFile()) return null;
+            try {
+                JSONObject data = new JSONObject(FileUtils.readString(file));
+                if (!data.getString("address").equals(address) || data.getLong("length") != info.length || !data.getString("validator").equals(info.validator)) return null;
+
+                DownloadState state = new DownloadState(file, address, info);
+                JSONArray chunks = data.getJSONArray("chunks");
+                for (int i = 0; i < chunks.length(); i++) {
+                    JSONArray chunk = chunks.getJSONArray(i);
+                    state.chunks.add(new Chunk(chunk.getLong(0), chunk.getLong(1), chunk.getLong(2)));
+                }
+                return !state.chunks.isEmpty() ? state : null;
+            }
+            catch (JSONException | NullPointerException e) {
+                return null;
+            }
+        }
+
+        private synchronized void save() {
+            try {
+                JSONArray chunks = new JSONArray();
+                for (Chunk chunk : this.chunks) {
+                    JSONArray values = new JSONArray();
+                    values.put(chunk.start);
+                    values.put(chunk.end);
+                    values.put(chunk.position);
+                    chunks.put(values);
+                }
+
+                JSONObject data = new JSONObject();
+                data.put("address", address);
+                data.put("length", info.length);
+                data.put("validator", info.validator);
+                data.put("chunks", chunks);
+                FileUtils.writeString(file, data.toString());
+            }
+            catch (JSONException e) {}
+        }
+    }
+
+    /**
+     * Reads the body of a GET request from start to end (inclusive, negative if the length is
+     * unknown), and reopens the connection from the current offset with a range request when it
+     * drops.
+     */
+    private static class ResumingInputStream extends InputStream {
+        private final String address;
+        private final String validator;
+        private final long end;
+        private long position;
+        private HttpURLConnection connection;
+        private InputStream inStream;
+
+        private ResumingInputStream(String address, String validator, long start, long end) {
+            this.address = address;
+            this.validator = validator;
+            this.position = start;
+            this.end = end;
+        }
+
+        private void connect() throws IOException {
+            disconnect();
+            connection = openConnection(address);
+            if (position > 0 || end >= 0) {
+                connection.setRequestProperty("Range", "bytes=" + position + "-" + (end >= 0 ? end : ""));
+                if (!validator.isEmpty()) connection.setRequestProperty("If-Range", validator);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL && (responseCode != HttpURLConnection.HTTP_OK || position > 0)) {
+                throw new IOException("Unexpected response " + responseCode + " for " + address);
+            }
+            inStream = connection.getInputStream();
+        }
+
+        private void disconnect() {
+            if (inStream != null) {
+                try {
+                    inStream.close();
+                }
+                catch (IOException e) {}
+                inStream = null;
+            }
+            if (connection != null) {
+                connection.disconnect();
+                connection = null;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] data = new byte[1];
+            return read(data, 0, 1) == 1 ? data[0] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] data, int offset, int length) throws IOException {
+            if (end >= 0) {
+                if (position > end) return -1;
+                length = (int)Math.min(length, end - position + 1);
+            }
+
+            for (int retries = 0;; retries++) {
+                try {
+                    if (inStream == null) connect();
+                    int bytesRead = inStream.read(data, offset, length);
+                    if (bytesRead > 0) position += bytesRead;
+                    if (bytesRead == -1 && end >= 0 && position <= end) throw new IOException("Connection closed before the end of the range");
+                    return bytesRead;
+                }
+                catch (IOException e) {
+                    disconnect();
+                    if (retries >= MAX_RETRIES) throw e;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            disconnect();
+        }
+    }
+
+    private static HttpURLConnection openConnection(String address) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection)new URL(address).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    /**
+     * Requests the first byte of the file to find out its length and whether ranges are supported.
+     */
+    private static RemoteInfo probe(String address) {
+        HttpURLConnection connection = null;
         try {
-            URL url = new URL(address);
-            URLConnection connection = url.openConnection();
-            connection.connect();
+            connection = openConnection(address);
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int responseCode = connection.getResponseCode();
 
-            // download the file
-            InputStream input = url.openStream();
+            RemoteInfo info = new RemoteInfo();
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                int index = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+                if (index != -1 && !contentRange.endsWith("*")) {
+                    info.length = Long.parseLong(contentRange.substring(index + 1).trim());
+                    info.acceptRanges = true;
+                }
+            }
+            else if (responseCode == HttpURLConnection.HTTP_OK) {
+                info.length = connection.getContentLengthLong();
+            }
+            else return null;
+
+            String validator = connection.getHeaderField("ETag");
+            if (validator == null || validator.startsWith("W/")) validator = connection.getHeaderField("Last-Modified");
+            if (validator != null) info.validator = validator;
+            return info;
+        }
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+        finally {
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    public static boolean downloadFile(String address, File file) {
+        return downloadFile(address, file, null, MAX_CHUNKS);
+    }
 
-            // Output stream
-            OutputStream output = new FileOutputStream(file.getAbsolutePath());
+    public static boolean downloadFile(String address, File file, String sha256) {
+        return downloadFile(address, file, sha256, MAX_CHUNKS);
+    }
+
+    /**
+     * Downloads address into file using up to maxChunks parallel range requests. The data goes to
+     * a ".part" file that is renamed once complete and, if sha256 is not null, verified.
+     */
+    public static boolean downloadFile(String address, File file, String sha256, int maxChunks) {
+        File partFile = new File(file.getPath() + ".part");
+        File stateFile = new File(file.getPath() + ".part.json");
 
-            byte[] data = new byte[1024];
+        RemoteInfo info = probe(address);
+        if (info == null) return false;
 
-            int count;
-            while ((count = input.read(data)) != -1) {
-                output.write(data, 0, count);
+        boolean success;
+        if (info.acceptRanges && info.length > 0) {
+            DownloadState state = DownloadState.load(stateFile, address, info);
+            if (state == null || partFile.length() != info.length) {
+                state = DownloadState.create(stateFile, address, info, maxChunks);
+                partFile.delete();
+            }
+            success = downloadChunks(state, partFile);
+        }
+        else {
+            stateFile.delete();
+            try (InputStream inStream = new ResumingInputStream(address, info.validator, 0, info.length - 1);
+                 OutputStream outStream = new FileOutputStream(partFile)) {
+                success = StreamUtils.copy(inStream, outStream);
             }
+            catch (IOException e) {
+                success = false;
+            }
+        }
+        if (!success) return false;
 
-            // flushing output
-            output.flush();
+        stateFile.delete();
+        if (sha256 != null && !sha256.equalsIgnoreCase(getSHA256(partFile))) {
+            partFile.delete();
+            return false;
+        }
 
-            // closing streams
-            output.close();
-            input.close();
-            return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        file.delete();
+        return partFile.renameTo(file);
+    }
+
+    private static boolean downloadChunks(DownloadState state, File partFile) {
+        ExecutorService executor = Executors.newFixedThreadPool(state.chunks.size());
+        AtomicBoolean failed = new AtomicBoolean(false);
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(partFile, "rw")) {
+            randomAccessFile.setLength(state.info.length);
+            FileChannel channel = randomAccessFile.getChannel();
+            state.save();
+
+            ArrayList<Future<?>> futures = new ArrayList<>();
+            for (Chunk chunk : state.chunks) {
+                if (chunk.isComplete()) continue;
+                futures.add(executor.submit(() -> {
+                    if (!downloadChunk(state, chunk, channel, failed)) failed.set(true);
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+            state.save();
+            return !failed.get();
+        }
+        catch (Exception e) {
+            return false;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean downloadChunk(DownloadState state, Chunk chunk, FileChannel channel, AtomicBoolean failed) {
+        byte[] data = new byte[StreamUtils.BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long lastSavedPosition = chunk.position;
+
+        try (ResumingInputStream inStream = new ResumingInputStream(state.address, state.info.validator, chunk.position, chunk.end)) {
+            int bytesRead;
+            while (!failed.get() && (bytesRead = inStream.read(data, 0, data.length)) != -1) {
+                buffer.clear().limit(bytesRead);
+                long position = chunk.position;
+                while (buffer.hasRemaining()) position += channel.write(buffer, position);
+                chunk.position = position;
+
+                if (position - lastSavedPosition >= STATE_SAVE_INTERVAL) {
+                    state.save();
+                    lastSavedPosition = position;
+                }
+            }
+            return chunk.isComplete();
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Downloads address and extracts it into destination as it arrives, without storing the
+     * archive. The format is detected from the first bytes received and every entry goes through
+     * entryValidator. If sha256 is not null, returns false when the received data doesn't match
+     * it, in which case the extracted files must be discarded by the caller.
+     */
+    public static boolean downloadAndExtract(String address, File destination, String sha256, TarCompressorUtils.EntryValidator entryValidator) {
+        RemoteInfo info = probe(address);
+        if (info == null) return false;
+
+        try (InputStream source = new ResumingInputStream(address, info.validator, 0, info.length - 1)) {
+            MessageDigest digest = sha256 != null ? MessageDigest.getInstance("SHA-256") : null;
+            InputStream inStream = new BufferedInputStream(digest != null ? new DigestInputStream(source, digest) : source, StreamUtils.BUFFER_SIZE);
+            TarCompressorUtils.Type type = TarCompressorUtils.detectType(inStream);
+            if (type == null) return false;
+
+            // the extraction closes its stream, keep this one open to read what follows the archive
+            InputStream extractStream = new FilterInputStream(inStream) {
+                @Override
+                public void close() {}
+            };
+            if (!TarCompressorUtils.extract(type, extractStream, destination, entryValidator)) return false;
+            if (digest == null) return true;
+
+            byte[] data = new byte[StreamUtils.BUFFER_SIZE];
+            while (inStream.read(data) != -1);
+            return sha256.equalsIgnoreCase(toHexString(digest.digest()));
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
             return false;
         }
     }
 
+    public static String getSHA256(File file) {
+        try (InputStream inStream = new FileInputStream(file)) {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] data = new byte[StreamUtils.BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inStream.read(data)) != -1) digest.update(data, 0, bytesRead);
+            return toHexString(digest.digest());
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static String toHexString(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+
     public static String downloadString(String address) {
         try {
             URL url = new URL(address);
@@ -63,4 +443,4 @@ public class Downloader {
             return null;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,79 @@
+package com.winlator.xmod.core;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Process wide LRU cache of bitmaps decoded from files, bounded by their size in bytes. Entries
+ * are keyed by path, requested size and modification time, so a file that is replaced is decoded
+ * again and its stale bitmap ages out of the cache.
+ */
+public class BitmapCache {
+    private static final int LOADER_THREADS = 2;
+    private static BitmapCache instance;
+    private final LruCache<String, Bitmap> cache;
+    private final ExecutorService loader = Executors.newFixedThreadPool(LOADER_THREADS, (runnable) -> {
+        Thread thread = new Thread(runnable, "BitmapCacheLoader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private BitmapCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+    }
+
+    public static synchronized BitmapCache getInstance() {
+        if (instance == null) instance = new BitmapCache((int)Math.min(Runtime.getRuntime().maxMemory() / 8, Integer.MAX_VALUE));
+        return instance;
+    }
+
+    /**
+     * Returns the image of file downsampled to about maxSize, decoding it right away if it isn't
+     * cached. Returns null if the file doesn't exist or can't be decoded.
+     */
+    public Bitmap get(File file, int maxSize) {
+        long lastModified = file.lastModified();
+        if (lastModified == 0) return null;
+
+        String key = file.getPath() + ":" + maxSize + ":" + lastModified;
+        Bitmap bitmap = cache.get(key);
+        if (bitmap == null) {
+            bitmap = ImageUtils.getBitmapFromFile(file, maxSize);
+            if (bitmap != null) cache.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Runs decoder on a background thread and passes the bitmap it returns to callback on the main
+     * thread, so that list items don't decode while they are bound. The decoder should go through
+     * get() so the bitmap is cached for the next time.
+     */
+    public void loadAsync(Supplier<Bitmap> decoder, Callback<Bitmap> callback) {
+        loader.execute(() -> {
+            Bitmap bitmap = decoder.get();
+            handler.post(() -> callback.call(bitmap));
+        });
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+}
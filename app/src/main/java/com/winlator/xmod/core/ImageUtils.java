@@ -82,6 +82,21 @@ public abstract class ImageUtils {
         return getBitmapFromUri(context, uri, options);
     }
 
+    /**
+     * Decodes an image file, downsampled by a power of two so that its larger side is no more than
+     * twice maxSize. Returns null if the file can't be decoded.
+     */
+    public static Bitmap getBitmapFromFile(File file, int maxSize) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return null;
+
+        options.inSampleSize = calculateInSampleSize(options, maxSize);
+        options.inJustDecodeBounds = false;
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
     public static boolean save(Bitmap bitmap, File output, Bitmap.CompressFormat compressFormat, @IntRange(from = 0, to = 100) int quality) {
         FileOutputStream fos = null;
         try {
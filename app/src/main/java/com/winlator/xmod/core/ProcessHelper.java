@@ -5,15 +5,12 @@ import android.util.Log;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.concurrent.Executors;
 
 public abstract class ProcessHelper {
@@ -23,6 +20,7 @@ public abstract class ProcessHelper {
     private static final byte SIGSTOP = 19;
     private static final byte SIGTERM = 15;
     private static final byte SIGKILL = 9;
+    private static final ProcessTable processTable = new ProcessTable();
 
     public static void suspendProcess(int pid) {
         Process.sendSignal(pid, SIGSTOP);
@@ -44,22 +42,29 @@ public abstract class ProcessHelper {
         Log.d("ProcessHelper", "Process killed with pid: " + pid);
     }
 
+    public static ProcessTable getProcessTable() {
+        return processTable;
+    }
+
     public static void terminateAllWineProcesses() {
-        for (String process : listRunningWineProcesses()) {
-            terminateProcess(Integer.parseInt(process));
-        }
+        processTable.refresh();
+        for (int pid : processTable.getPids()) terminateProcess(pid);
     }
 
     public static void pauseAllWineProcesses() {
-        for (String process : listRunningWineProcesses()) {
-            suspendProcess(Integer.parseInt(process));
-        }
+        processTable.refresh();
+        for (int pid : processTable.getPids()) suspendProcess(pid);
     }
 
     public static void resumeAllWineProcesses() {
-        for (String process : listRunningWineProcesses()) {
-            resumeProcess(Integer.parseInt(process));
-        }
+        // stopped processes can't start new ones, so the known processes are all there is to resume
+        processTable.refreshKnown();
+        for (int pid : processTable.getPids()) resumeProcess(pid);
+    }
+
+    public static boolean hasRunningWineProcesses() {
+        processTable.refreshKnown();
+        return processTable.size() > 0;
     }
 
     public static int exec(String command) {
@@ -103,13 +108,14 @@ public abstract class ProcessHelper {
             pid = pidField.getInt(process);
             pidField.setAccessible(false);
             Log.d("ProcessHelper", "Process started with pid: " + pid);
+            processTable.register(pid);
 
             if (!debugCallbacks.isEmpty()) {
                 createDebugThread(process.getInputStream());
                 createDebugThread(process.getErrorStream());
             }
 
-            if (terminationCallback != null) createWaitForThread(process, terminationCallback);
+            if (terminationCallback != null) createWaitForThread(process, pid, terminationCallback);
 
         }
         catch (Exception e) {
@@ -137,12 +143,13 @@ public abstract class ProcessHelper {
         });
     }
 
-    private static void createWaitForThread(java.lang.Process process, final Callback<Integer> terminationCallback) {
+    private static void createWaitForThread(java.lang.Process process, int pid, final Callback<Integer> terminationCallback) {
         Executors.newSingleThreadExecutor().execute(new Runnable() {
             @Override
             public void run() {
                 try {
                     int status = process.waitFor();
+                    processTable.unregister(pid);
                     terminationCallback.call(status);
                 }
                 catch (InterruptedException e) {
@@ -256,31 +263,10 @@ public abstract class ProcessHelper {
         return affinityMask;
     }
 
-    public static ArrayList<String> listRunningWineProcesses(){
-        File proc = new File("/proc");
-        String[] filters = {"wine", "exe"};
-        String[] allPids;
-        ArrayList<String> filteredPids = new ArrayList<String>();
-        List<String> filterList = Arrays.asList(filters);
-        allPids = proc.list(new FilenameFilter(){
-            public boolean accept(File proc, String filename){
-                return new File(proc, filename).isDirectory() && filename.matches("[0-9]+");
-            }
-        });
-
-        for (int index = 0; index < allPids.length; index++){
-            String data = "";
-            try {
-                FileInputStream fr = new FileInputStream(proc + "/" + allPids[index] + "/stat");
-                BufferedReader br = new BufferedReader(new InputStreamReader(fr));
-                data = br.readLine();
-            }
-            catch (IOException e) {}
-            for (String filter : filterList) {
-                if (data.contains(filter))
-                    filteredPids.add(allPids[index]);
-            }
-        }
-        return filteredPids;
+    public static ArrayList<String> listRunningWineProcesses() {
+        processTable.refresh();
+        ArrayList<String> pids = new ArrayList<>();
+        for (int pid : processTable.getPids()) pids.add(String.valueOf(pid));
+        return pids;
     }
 }
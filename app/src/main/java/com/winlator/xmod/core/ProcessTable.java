@@ -0,0 +1,215 @@
+package com.winlator.xmod.core;
+
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructStat;
+import android.util.SparseArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Keeps track of the running Wine processes, so that they can be paused and resumed without
+ * reading the stat file of every process in /proc each time.
+ *
+ * Known processes are checked one by one, the other pids are classified by name. Processes that
+ * don't match are remembered as ignored along with the inode of their /proc/<pid> directory, which
+ * is created with the process, so a stat() is enough to tell that an ignored pid still belongs to
+ * the same process. Their name is only read again during the first seconds after they were seen,
+ * since box64 renames a process right after it starts. A pid whose inode changed is classified from
+ * scratch.
+ */
+public class ProcessTable {
+    private static final File PROC_DIR = new File("/proc");
+    private static final String[] NAME_FILTERS = {"wine", "exe"};
+    private static final long CLOCK_TICKS = Os.sysconf(OsConstants._SC_CLK_TCK);
+    private static final long PAGE_SIZE = Os.sysconf(OsConstants._SC_PAGESIZE);
+    private static final long RENAME_WINDOW = 10000;
+    private final SparseArray<ProcessInfo> processes = new SparseArray<>();
+    private SparseArray<IgnoredProcess> ignoredPids = new SparseArray<>();
+    private final byte[] buffer = new byte[1024];
+
+    private static class IgnoredProcess {
+        private final long inode;
+        private final long mtime;
+        private final long startTime;
+        private final long firstSeen;
+
+        private IgnoredProcess(StructStat stat, long startTime, long firstSeen) {
+            this.inode = stat.st_ino;
+            this.mtime = stat.st_mtime;
+            this.startTime = startTime;
+            this.firstSeen = firstSeen;
+        }
+    }
+
+    public static class ProcessInfo {
+        public final int pid;
+        private String name;
+        private long startTime;
+        private long cpuTicks;
+        private long rssPages;
+
+        private ProcessInfo(int pid) {
+            this.pid = pid;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** Time spent in user and kernel mode, in milliseconds. */
+        public long getCpuTime() {
+            return cpuTicks * 1000 / CLOCK_TICKS;
+        }
+
+        /** Resident set size, in bytes. */
+        public long getRss() {
+            return rssPages * PAGE_SIZE;
+        }
+    }
+
+    /**
+     * Adds a process started by this app, so that it is known without waiting for the next refresh.
+     */
+    public synchronized void register(int pid) {
+        if (pid <= 0 || processes.indexOfKey(pid) >= 0) return;
+        ignoredPids.delete(pid);
+        classify(pid, ignoredPids);
+    }
+
+    /**
+     * Removes a process that was reaped with waitFor().
+     */
+    public synchronized void unregister(int pid) {
+        processes.remove(pid);
+        ignoredPids.delete(pid);
+    }
+
+    /**
+     * Updates the known processes and drops the ones that have exited, without looking for new ones.
+     */
+    public synchronized void refreshKnown() {
+        for (int i = processes.size() - 1; i >= 0; i--) {
+            ProcessInfo info = processes.valueAt(i);
+            long startTime = info.startTime;
+            if (!readStat(info) || info.startTime != startTime) processes.removeAt(i);
+        }
+    }
+
+    /**
+     * Updates the known processes and adds the Wine processes started since the last refresh.
+     */
+    public synchronized void refresh() {
+        refreshKnown();
+
+        String[] filenames = PROC_DIR.list();
+        if (filenames == null) return;
+
+        SparseArray<IgnoredProcess> stillIgnored = new SparseArray<>();
+        for (String filename : filenames) {
+            int pid = parsePid(filename);
+            if (pid <= 0 || processes.indexOfKey(pid) >= 0) continue;
+            classify(pid, stillIgnored);
+        }
+        ignoredPids = stillIgnored;
+    }
+
+    public synchronized int size() {
+        return processes.size();
+    }
+
+    public synchronized int[] getPids() {
+        int[] pids = new int[processes.size()];
+        for (int i = 0; i < pids.length; i++) pids[i] = processes.keyAt(i);
+        return pids;
+    }
+
+    public synchronized ProcessInfo getProcess(int pid) {
+        return processes.get(pid);
+    }
+
+    private void classify(int pid, SparseArray<IgnoredProcess> stillIgnored) {
+        StructStat stat;
+        try {
+            stat = Os.stat("/proc/" + pid);
+        }
+        catch (ErrnoException e) {
+            return;
+        }
+
+        // Same process as last time and past the rename window, no need to read its stat file
+        long now = SystemClock.elapsedRealtime();
+        IgnoredProcess ignored = ignoredPids.get(pid);
+        if (ignored != null && ignored.inode == stat.st_ino && ignored.mtime == stat.st_mtime && now - ignored.firstSeen >= RENAME_WINDOW) {
+            stillIgnored.put(pid, ignored);
+            return;
+        }
+
+        ProcessInfo info = new ProcessInfo(pid);
+        if (!readStat(info)) return;
+
+        for (String filter : NAME_FILTERS) {
+            if (info.name.contains(filter)) {
+                processes.put(pid, info);
+                return;
+            }
+        }
+
+        // the inode can also change when the kernel drops it from its cache, the start time tells
+        boolean sameProcess = ignored != null && ignored.startTime == info.startTime;
+        stillIgnored.put(pid, new IgnoredProcess(stat, info.startTime, sameProcess ? ignored.firstSeen : now));
+    }
+
+    private static int parsePid(String filename) {
+        int pid = 0;
+        for (int i = 0, length = filename.length(); i < length; i++) {
+            char c = filename.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            pid = pid * 10 + (c - '0');
+        }
+        return pid;
+    }
+
+    /**
+     * Parses /proc/<pid>/stat into info, returns false if the process no longer exists or is a
+     * zombie.
+     */
+    private boolean readStat(ProcessInfo info) {
+        int length;
+        try (FileInputStream inStream = new FileInputStream("/proc/" + info.pid + "/stat")) {
+            length = inStream.read(buffer);
+        }
+        catch (IOException e) {
+            return false;
+        }
+        if (length <= 0) return false;
+
+        String line = new String(buffer, 0, length, StandardCharsets.US_ASCII);
+        int start = line.indexOf('(');
+        int end = line.lastIndexOf(')');
+        if (start == -1 || end == -1 || end + 2 >= line.length()) return false;
+
+        // fields after the name, starting with the state (field 3 in proc(5))
+        String[] fields = line.substring(end + 2).trim().split(" ");
+        if (fields.length < 22) return false;
+
+        char state = fields[0].charAt(0);
+        if (state == 'Z' || state == 'X') return false;
+
+        try {
+            info.name = line.substring(start + 1, end);
+            info.cpuTicks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]);
+            info.startTime = Long.parseLong(fields[19]);
+            info.rssPages = Long.parseLong(fields[21]);
+            return true;
+        }
+        catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.winlator.xmod.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Keeps a /proc or /sys file open and re-reads it from offset 0 (pread), so polling it neither
+ * opens a new descriptor nor allocates. Values are parsed straight from the read buffer.
+ */
+public class SysfsReader implements Closeable {
+    private final File file;
+    private final ByteBuffer buffer;
+    private final byte[] data;
+    private FileChannel channel;
+    private boolean failed = false;
+    private int length = 0;
+    private int parseEnd = 0;
+
+    public SysfsReader(File file) {
+        this(file, 256);
+    }
+
+    public SysfsReader(File file, int capacity) {
+        this.file = file;
+        data = new byte[capacity];
+        buffer = ByteBuffer.wrap(data);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads the file from the start, returns false if it can't be opened or read. A file that
+     * couldn't be opened isn't tried again until close() is called.
+     */
+    public boolean read() {
+        length = 0;
+        if (channel == null) {
+            if (failed) return false;
+            try {
+                channel = new RandomAccessFile(file, "r").getChannel();
+            }
+            catch (IOException | SecurityException e) {
+                failed = true;
+                return false;
+            }
+        }
+
+        buffer.clear();
+        try {
+            while (buffer.hasRemaining()) {
+                int bytesRead = channel.read(buffer, buffer.position());
+                if (bytesRead <= 0) break;
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+        length = buffer.position();
+        return length > 0;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Parses the integers of the last read in order into values, skipping anything that isn't a
+     * digit or a minus sign right before one. Returns how many were found.
+     */
+    public int getLongs(long[] values) {
+        int count = 0;
+        int i = 0;
+        while (count < values.length && (i = findNumber(i)) != -1) {
+            values[count++] = parseLong(i);
+            i = parseEnd;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the first integer of the last read, or defaultValue if there is none.
+     */
+    public long getLong(long defaultValue) {
+        int i = findNumber(0);
+        return i != -1 ? parseLong(i) : defaultValue;
+    }
+
+    /**
+     * Returns the first integer following a line that starts with key, as in /proc/meminfo.
+     */
+    public long getLong(String key, long defaultValue) {
+        int lineStart = 0;
+        while (lineStart < length) {
+            if (regionMatches(lineStart, key)) {
+                int i = findNumber(lineStart + key.length());
+                return i != -1 ? parseLong(i) : defaultValue;
+            }
+            while (lineStart < length && data[lineStart] != '\n') lineStart++;
+            lineStart++;
+        }
+        return defaultValue;
+    }
+
+    public boolean startsWith(String prefix) {
+        return regionMatches(0, prefix);
+    }
+
+    private boolean regionMatches(int offset, String value) {
+        if (offset + value.length() > length) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (data[offset + i] != value.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int findNumber(int start) {
+        for (int i = start; i < length; i++) {
+            byte b = data[i];
+            if (b >= '0' && b <= '9') return i > 0 && data[i - 1] == '-' ? i - 1 : i;
+        }
+        return -1;
+    }
+
+    private long parseLong(int start) {
+        int i = start;
+        boolean negative = data[i] == '-';
+        if (negative) i++;
+
+        long value = 0;
+        while (i < length && data[i] >= '0' && data[i] <= '9') value = value * 10 + (data[i++] - '0');
+        parseEnd = i;
+        return negative ? -value : value;
+    }
+
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            }
+            catch (IOException e) {}
+            channel = null;
+        }
+        failed = false;
+        length = 0;
+    }
+}
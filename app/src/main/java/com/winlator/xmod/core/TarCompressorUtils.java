@@ -10,10 +10,14 @@ import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipParameters;
 import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
 import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
 import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
 import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -24,9 +28,148 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class TarCompressorUtils {
-    public enum Type {XZ, ZSTD}
+    public enum Type {XZ, ZSTD, GZIP, TAR}
+    private static final byte[] XZ_MAGIC = {(byte)0xfd, '7', 'z', 'X', 'Z', 0};
+    private static final byte[] ZSTD_MAGIC = {0x28, (byte)0xb5, 0x2f, (byte)0xfd};
+    private static final byte[] GZIP_MAGIC = {0x1f, (byte)0x8b};
+    private static final byte[] TAR_MAGIC = {'u', 's', 't', 'a', 'r'};
+    private static final int TAR_MAGIC_OFFSET = 257;
+    private static final int MAX_WRITER_THREADS = 4;
+    private static final int MAX_QUEUED_BYTES = 32 * 1024 * 1024;
+    private static final int MAX_QUEUED_ENTRY_SIZE = 4 * 1024 * 1024;
+    private static final ExecutorService writerPool = createWriterPool();
+    private static volatile ExtractStats lastExtractStats;
+
+    /**
+     * Progress of an extraction. Counters are updated while the extraction runs and can be read
+     * from any thread.
+     */
+    public static class ExtractStats {
+        public final AtomicLong entries = new AtomicLong();
+        public final AtomicLong bytesWritten = new AtomicLong();
+        private final long startTime = System.currentTimeMillis();
+        private volatile long endTime = 0;
+
+        public long getElapsedTime() {
+            return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+        }
+
+        public long getBytesPerSecond() {
+            long elapsedTime = getElapsedTime();
+            return elapsedTime > 0 ? bytesWritten.get() * 1000 / elapsedTime : 0;
+        }
+
+        public boolean isFinished() {
+            return endTime > 0;
+        }
+    }
+
+    /**
+     * Writes buffered file entries on the shared writer pool while the caller keeps decompressing.
+     * Queued data is bounded by MAX_QUEUED_BYTES, and an entry whose path is still being written
+     * waits for the pending writes so that the result is the same as a sequential extraction.
+     */
+    private static class EntryWriter {
+        private final Semaphore queuedBytes = new Semaphore(MAX_QUEUED_BYTES);
+        private final HashSet<String> pendingPaths = new HashSet<>();
+        private final ExtractStats stats;
+        private int pendingWrites = 0;
+        private volatile boolean failed = false;
+        private volatile boolean cancelled = false;
+
+        private EntryWriter(ExtractStats stats) {
+            this.stats = stats;
+        }
+
+        private synchronized void awaitPath(File file) throws InterruptedException {
+            if (!pendingPaths.contains(file.getPath())) return;
+            while (!pendingPaths.isEmpty()) wait();
+        }
+
+        private void submit(File file, byte[] data) throws InterruptedException {
+            queuedBytes.acquire(data.length);
+            synchronized (this) {
+                pendingPaths.add(file.getPath());
+                pendingWrites++;
+            }
+
+            writerPool.execute(() -> {
+                try {
+                    if (!cancelled) write(file, data);
+                }
+                finally {
+                    queuedBytes.release(data.length);
+                    synchronized (this) {
+                        pendingPaths.remove(file.getPath());
+                        pendingWrites--;
+                        notifyAll();
+                    }
+                }
+            });
+        }
+
+        private void write(File file, byte[] data) {
+            try (FileOutputStream outStream = new FileOutputStream(file)) {
+                outStream.write(data);
+                FileUtils.chmod(file, 0771);
+                stats.bytesWritten.addAndGet(data.length);
+            }
+            catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        private boolean hasFailed() {
+            return failed;
+        }
+
+        private synchronized boolean finish() throws InterruptedException {
+            while (pendingWrites > 0) wait();
+            return !failed;
+        }
+
+        /**
+         * Drops the writes that haven't started and waits for the running ones, so that no file
+         * is written anymore once the extraction has returned.
+         */
+        private synchronized void cancel() {
+            cancelled = true;
+            boolean interrupted = false;
+            while (pendingWrites > 0) {
+                try {
+                    wait();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ExecutorService createWriterPool() {
+        int threadCount = Math.max(1, Math.min(MAX_WRITER_THREADS, Runtime.getRuntime().availableProcessors() - 1));
+        return Executors.newFixedThreadPool(threadCount, (runnable) -> {
+            Thread thread = new Thread(runnable, "TarEntryWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks each entry before it is written. data holds the content of regular files small enough
+     * to be buffered, and is null otherwise. Returning false stops the extraction.
+     */
+    public interface EntryValidator {
+        boolean validate(String name, byte[] data);
+    }
 
     // Interface to define the exclusion filter
     public interface ExclusionFilter {
@@ -139,6 +282,46 @@ public abstract class TarCompressorUtils {
         }
     }
 
+    /**
+     * Extracts source after detecting its format from the first bytes, returns false if the format
+     * is not recognized.
+     */
+    public static boolean extract(Context context, Uri source, File destination, EntryValidator entryValidator) {
+        if (source == null) return false;
+        try (InputStream inStream = new BufferedInputStream(source.toString().startsWith("/") ? new FileInputStream(source.toString()) : context.getContentResolver().openInputStream(source), StreamUtils.BUFFER_SIZE)) {
+            Type type = detectType(inStream);
+            return type != null && extract(type, inStream, destination, null, entryValidator);
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Identifies the format from the magic bytes at the start of inStream, which must support
+     * mark(), and leaves the stream where it was. Returns null if the format is not recognized.
+     */
+    public static Type detectType(InputStream inStream) throws IOException {
+        byte[] header = new byte[TAR_MAGIC_OFFSET + TAR_MAGIC.length];
+        inStream.mark(header.length);
+        int length = IOUtils.readFully(inStream, header);
+        inStream.reset();
+
+        if (startsWith(header, length, 0, XZ_MAGIC)) return Type.XZ;
+        if (startsWith(header, length, 0, ZSTD_MAGIC)) return Type.ZSTD;
+        if (startsWith(header, length, 0, GZIP_MAGIC)) return Type.GZIP;
+        if (startsWith(header, length, TAR_MAGIC_OFFSET, TAR_MAGIC)) return Type.TAR;
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int length, int offset, byte[] prefix) {
+        if (offset + prefix.length > length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
     public static boolean extract(Type type, File source, File destination) {
         return extract(type, source, destination, null);
     }
@@ -153,12 +336,32 @@ public abstract class TarCompressorUtils {
         }
     }
 
+    public static ExtractStats getLastExtractStats() {
+        return lastExtractStats;
+    }
+
     private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) {
+        return extract(type, source, destination, onExtractFileListener, null);
+    }
+
+    /**
+     * Extracts an archive that is read as it arrives, such as a download. source is closed.
+     */
+    public static boolean extract(Type type, InputStream source, File destination, EntryValidator entryValidator) {
+        return extract(type, source, destination, null, entryValidator);
+    }
+
+    private static boolean extract(Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener, EntryValidator entryValidator) {
         if (source == null) return false;
+        ExtractStats stats = new ExtractStats();
+        lastExtractStats = stats;
+        EntryWriter writer = new EntryWriter(stats);
+
         try (InputStream inStream = getCompressorInputStream(type, source);
              ArchiveInputStream tar = new TarArchiveInputStream(inStream)) {
             TarArchiveEntry entry;
             while ((entry = (TarArchiveEntry)tar.getNextEntry()) != null) {
+                if (writer.hasFailed()) return false;
                 if (!tar.canReadEntryData(entry)) continue;
                 File file = new File(destination, entry.getName());
 
@@ -167,6 +370,16 @@ public abstract class TarCompressorUtils {
                     if (file == null) continue;
                 }
 
+                byte[] data = null;
+                if (!entry.isDirectory() && !entry.isSymbolicLink() && entry.getSize() <= MAX_QUEUED_ENTRY_SIZE) {
+                    data = new byte[(int)entry.getSize()];
+                    if (IOUtils.readFully(tar, data) != data.length) return false;
+                }
+                if (entryValidator != null && !entryValidator.validate(entry.getName(), data)) return false;
+
+                writer.awaitPath(file);
+                stats.entries.incrementAndGet();
+
                 if (entry.isDirectory()) {
                     if (!file.isDirectory()) file.mkdirs();
                 }
@@ -174,21 +387,30 @@ public abstract class TarCompressorUtils {
                     if (entry.isSymbolicLink()) {
                         FileUtils.symlink(entry.getLinkName(), file.getAbsolutePath());
                     }
+                    else if (data != null) {
+                        writer.submit(file, data);
+                        continue;
+                    }
                     else {
                         try (BufferedOutputStream outStream = new BufferedOutputStream(new FileOutputStream(file), StreamUtils.BUFFER_SIZE)) {
                             if (!StreamUtils.copy(tar, outStream)) return false;
                         }
+                        stats.bytesWritten.addAndGet(entry.getSize());
                     }
                 }
 
                 FileUtils.chmod(file, 0771);
             }
-            return true;
+            return writer.finish();
         }
-        catch (IOException e) {
+        catch (IOException | InterruptedException e) {
             e.printStackTrace();
             return false;
         }
+        finally {
+            writer.cancel();
+            stats.endTime = System.currentTimeMillis();
+        }
     }
 
     private static InputStream getCompressorInputStream(Type type, InputStream source) throws IOException {
@@ -198,6 +420,12 @@ public abstract class TarCompressorUtils {
         else if (type == Type.ZSTD) {
             return new ZstdCompressorInputStream(source);
         }
+        else if (type == Type.GZIP) {
+            return new GzipCompressorInputStream(source);
+        }
+        else if (type == Type.TAR) {
+            return source;
+        }
         return null;
     }
 
@@ -208,6 +436,14 @@ public abstract class TarCompressorUtils {
         else if (type == Type.ZSTD) {
             return new ZstdCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(destination), StreamUtils.BUFFER_SIZE), level);
         }
+        else if (type == Type.GZIP) {
+            GzipParameters parameters = new GzipParameters();
+            parameters.setCompressionLevel(level);
+            return new GzipCompressorOutputStream(new BufferedOutputStream(new FileOutputStream(destination), StreamUtils.BUFFER_SIZE), parameters);
+        }
+        else if (type == Type.TAR) {
+            return new BufferedOutputStream(new FileOutputStream(destination), StreamUtils.BUFFER_SIZE);
+        }
         return null;
     }
 
@@ -0,0 +1,354 @@
+package com.winlator.xmod.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples CPU, GPU, memory and battery statistics for the performance HUD on a single background
+ * thread and publishes them as an immutable Snapshot, so every widget reads the same values instead
+ * of polling the files itself. The files are kept open (see SysfsReader) and are looked up relative
+ * to a root directory, so the sampler can run against a fake /proc and /sys tree.
+ *
+ * It also keeps the durations of the last FRAME_HISTORY_SIZE frames, reported with onFrame(), for
+ * the frame time statistics of the snapshot.
+ */
+public class TelemetrySampler {
+    public static final int SAMPLE_INTERVAL = 500;
+    private static final int FRAME_HISTORY_SIZE = 2048;
+    private static final String[] GPU_PERCENT_PATHS = {
+        "sys/class/kgsl/kgsl-3d0/gpu_busy_percentage",
+        "sys/devices/soc/soc:qcom,kgsl-3d0/devfreq/soc:qcom,kgsl-3d0/gpu_busy_percent",
+        "sys/kernel/gpu/gpu_busy",
+        "sys/class/misc/mali0/device/utilisation",
+        "proc/mali/utilization",
+        "sys/devices/platform/mali.0/utilization",
+        "sys/devices/platform/13000000.mali/utilization",
+        "sys/devices/platform/11400000.mali/utilization",
+        "sys/devices/platform/gpusysfs/utilization"
+    };
+    private static final String[] GPU_CUR_FREQ_PATHS = {
+        "sys/class/kgsl/kgsl-3d0/devfreq/cur_freq",
+        "sys/class/kgsl/kgsl-3d0/gpuclk",
+        "sys/class/devfreq/gpusysfs/cur_freq",
+        "sys/devices/platform/mali.0/clock"
+    };
+    private static final String[] GPU_MAX_FREQ_PATHS = {
+        "sys/class/kgsl/kgsl-3d0/devfreq/max_freq",
+        "sys/class/devfreq/gpusysfs/max_freq",
+        "sys/devices/platform/mali.0/max_clock",
+        "sys/class/kgsl/kgsl-3d0/max_gpuclk"
+    };
+    private static final String[] BATTERY_DIRS = {"battery", "BAT0", "BAT1"};
+    private static TelemetrySampler instance;
+    private final SysfsReader procStat;
+    private final SysfsReader memInfo;
+    private final SysfsReader gpuBusy;
+    private final SysfsReader gpuPercent;
+    private final SysfsReader gpuCurFreq;
+    private final long gpuMaxFreq;
+    private final SysfsReader[] cpuCurFreqs;
+    private final long[] cpuMaxFreqs;
+    private final SysfsReader batteryStatus;
+    private final SysfsReader batteryCurrent;
+    private final SysfsReader batteryVoltage;
+    private final long[] values = new long[7];
+    private long lastCpuTotal = -1;
+    private long lastCpuIdle = 0;
+    private long lastGpuBusy = -1;
+    private long lastGpuTotal = 0;
+    private long lastSampleTime = 0;
+    private final float[] frameTimes = new float[FRAME_HISTORY_SIZE];
+    private final float[] sortedFrameTimes = new float[FRAME_HISTORY_SIZE];
+    private int frameIndex = 0;
+    private int frameCount = 0;
+    private int framesSinceSample = 0;
+    private long lastFrameTime = 0;
+    private volatile Snapshot snapshot = new Snapshot();
+    private final ArrayList<Callback<Snapshot>> listeners = new ArrayList<>();
+    private ScheduledExecutorService executor;
+
+    /**
+     * Immutable set of values published by the sampler. Values that couldn't be read are -1.
+     */
+    public static class Snapshot {
+        public final long time;
+        public final float fps;
+        /** Mean and variance of the frame time, in milliseconds and squared milliseconds. */
+        public final float frameTimeMean;
+        public final float frameTimeVariance;
+        /** Frame rates at the 99th and 99.9th percentile of the frame times. */
+        public final float fps1PercentLow;
+        public final float fps01PercentLow;
+        /** Share of non-idle CPU time from /proc/stat, which most Android versions don't allow reading. */
+        public final int cpuUsage;
+        /** Average current to maximum clock speed ratio of the CPU cores. */
+        public final int cpuFrequencyLoad;
+        public final int gpuUsage;
+        public final long memTotal;
+        public final long memAvailable;
+        public final float powerWatts;
+        /** 1 if charging or full, 0 if discharging. */
+        public final int charging;
+
+        private Snapshot() {
+            this(0, 0, 0, 0, 0, 0, -1, -1, -1, -1, -1, -1, -1);
+        }
+
+        private Snapshot(long time, float fps, float frameTimeMean, float frameTimeVariance, float fps1PercentLow, float fps01PercentLow, int cpuUsage, int cpuFrequencyLoad, int gpuUsage, long memTotal, long memAvailable, float powerWatts, int charging) {
+            this.time = time;
+            this.fps = fps;
+            this.frameTimeMean = frameTimeMean;
+            this.frameTimeVariance = frameTimeVariance;
+            this.fps1PercentLow = fps1PercentLow;
+            this.fps01PercentLow = fps01PercentLow;
+            this.cpuUsage = cpuUsage;
+            this.cpuFrequencyLoad = cpuFrequencyLoad;
+            this.gpuUsage = gpuUsage;
+            this.memTotal = memTotal;
+            this.memAvailable = memAvailable;
+            this.powerWatts = powerWatts;
+            this.charging = charging;
+        }
+
+        public int getMemUsage() {
+            return memTotal > 0 && memAvailable >= 0 ? (int)((memTotal - memAvailable) * 100 / memTotal) : -1;
+        }
+    }
+
+    public TelemetrySampler(File rootDir, int numProcessors) {
+        procStat = new SysfsReader(new File(rootDir, "proc/stat"));
+        memInfo = new SysfsReader(new File(rootDir, "proc/meminfo"), 512);
+
+        cpuCurFreqs = new SysfsReader[numProcessors];
+        cpuMaxFreqs = new long[numProcessors];
+        for (int i = 0; i < numProcessors; i++) {
+            String cpuDir = "sys/devices/system/cpu/cpu"+i+"/cpufreq/";
+            cpuCurFreqs[i] = new SysfsReader(new File(rootDir, cpuDir+"scaling_cur_freq"));
+            cpuMaxFreqs[i] = readLong(new File(rootDir, cpuDir+"cpuinfo_max_freq"));
+        }
+
+        gpuBusy = openFirst(rootDir, "sys/class/kgsl/kgsl-3d0/gpubusy");
+        gpuPercent = gpuBusy == null ? openFirst(rootDir, GPU_PERCENT_PATHS) : null;
+        SysfsReader gpuMaxFreqReader = openFirst(rootDir, GPU_MAX_FREQ_PATHS);
+        gpuMaxFreq = gpuMaxFreqReader != null ? gpuMaxFreqReader.getLong(-1) : -1;
+        if (gpuMaxFreqReader != null) gpuMaxFreqReader.close();
+        gpuCurFreq = gpuBusy == null && gpuPercent == null && gpuMaxFreq > 0 ? openFirst(rootDir, GPU_CUR_FREQ_PATHS) : null;
+
+        SysfsReader batteryCurrent = null;
+        String batteryDir = BATTERY_DIRS[0];
+        for (String dir : BATTERY_DIRS) {
+            batteryCurrent = openFirst(rootDir, "sys/class/power_supply/"+dir+"/current_now");
+            if (batteryCurrent != null) {
+                batteryDir = dir;
+                break;
+            }
+        }
+        this.batteryCurrent = batteryCurrent;
+        batteryVoltage = new SysfsReader(new File(rootDir, "sys/class/power_supply/"+batteryDir+"/voltage_now"));
+        batteryStatus = new SysfsReader(new File(rootDir, "sys/class/power_supply/"+batteryDir+"/status"));
+    }
+
+    public static synchronized TelemetrySampler getInstance() {
+        if (instance == null) instance = new TelemetrySampler(new File("/"), Runtime.getRuntime().availableProcessors());
+        return instance;
+    }
+
+    private static SysfsReader openFirst(File rootDir, String... paths) {
+        for (String path : paths) {
+            SysfsReader reader = new SysfsReader(new File(rootDir, path));
+            if (reader.read() && reader.getLong(Long.MIN_VALUE) != Long.MIN_VALUE) return reader;
+            reader.close();
+        }
+        return null;
+    }
+
+    private static long readLong(File file) {
+        SysfsReader reader = new SysfsReader(file);
+        long value = reader.read() ? reader.getLong(-1) : -1;
+        reader.close();
+        return value;
+    }
+
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Starts sampling every SAMPLE_INTERVAL ms while there are listeners. Listeners are called on
+     * the sampler thread.
+     */
+    public void addListener(Callback<Snapshot> listener) {
+        synchronized (listeners) {
+            if (listeners.contains(listener)) return;
+            listeners.add(listener);
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor();
+                executor.scheduleAtFixedRate(this::sample, 0, SAMPLE_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public void removeListener(Callback<Snapshot> listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+            if (listeners.isEmpty() && executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    public void onFrame() {
+        onFrame(System.nanoTime());
+    }
+
+    public synchronized void onFrame(long time) {
+        if (lastFrameTime != 0 && time > lastFrameTime) {
+            frameTimes[frameIndex] = (time - lastFrameTime) / 1000000f;
+            frameIndex = (frameIndex + 1) % FRAME_HISTORY_SIZE;
+            if (frameCount < FRAME_HISTORY_SIZE) frameCount++;
+        }
+        lastFrameTime = time;
+        framesSinceSample++;
+    }
+
+    /**
+     * Forgets the frame history, e.g. when the measured window goes away, so that the pause
+     * doesn't count as a long frame.
+     */
+    public synchronized void resetFrameTimes() {
+        frameIndex = 0;
+        frameCount = 0;
+        framesSinceSample = 0;
+        lastFrameTime = 0;
+    }
+
+    /**
+     * Reads all sources once and publishes a new snapshot. Called by the sampler thread, or
+     * directly when sampling a fake tree.
+     */
+    public Snapshot sample() {
+        long time = System.nanoTime();
+
+        int frames;
+        int count;
+        synchronized (this) {
+            frames = framesSinceSample;
+            framesSinceSample = 0;
+            count = frameCount;
+            System.arraycopy(frameTimes, 0, sortedFrameTimes, 0, count);
+        }
+
+        float fps = lastSampleTime > 0 ? frames * 1000000000f / (time - lastSampleTime) : 0;
+        lastSampleTime = time;
+
+        float mean = 0;
+        float variance = 0;
+        float low1 = 0;
+        float low01 = 0;
+        if (count > 0) {
+            for (int i = 0; i < count; i++) mean += sortedFrameTimes[i];
+            mean /= count;
+            for (int i = 0; i < count; i++) variance += (sortedFrameTimes[i] - mean) * (sortedFrameTimes[i] - mean);
+            variance /= count;
+
+            Arrays.sort(sortedFrameTimes, 0, count);
+            low1 = 1000f / sortedFrameTimes[getPercentileIndex(count, 0.99f)];
+            low01 = 1000f / sortedFrameTimes[getPercentileIndex(count, 0.999f)];
+        }
+
+        long memTotal = -1;
+        long memAvailable = -1;
+        if (memInfo.read()) {
+            memTotal = memInfo.getLong("MemTotal:", -1) * 1024;
+            memAvailable = memInfo.getLong("MemAvailable:", -1) * 1024;
+        }
+
+        Snapshot snapshot = new Snapshot(time, fps, mean, variance, low1, low01, sampleCPUUsage(), sampleCPUFrequencyLoad(), sampleGPUUsage(), memTotal, memAvailable, samplePower(), sampleCharging());
+        this.snapshot = snapshot;
+
+        synchronized (listeners) {
+            for (Callback<Snapshot> listener : listeners) listener.call(snapshot);
+        }
+        return snapshot;
+    }
+
+    private static int getPercentileIndex(int count, float percentile) {
+        return Math.min(count - 1, (int)Math.ceil(count * percentile) - 1);
+    }
+
+    private int sampleCPUUsage() {
+        if (!procStat.read() || !procStat.startsWith("cpu ") || procStat.getLongs(values) < 7) return -1;
+
+        long idle = values[3] + values[4];
+        long total = 0;
+        for (long value : values) total += value;
+
+        int usage = -1;
+        if (lastCpuTotal >= 0 && total > lastCpuTotal) {
+            usage = (int)((total - lastCpuTotal - (idle - lastCpuIdle)) * 100 / (total - lastCpuTotal));
+        }
+        else if (total > 0) usage = (int)((total - idle) * 100 / total);
+
+        lastCpuTotal = total;
+        lastCpuIdle = idle;
+        return usage != -1 ? Math.max(0, Math.min(100, usage)) : -1;
+    }
+
+    private int sampleCPUFrequencyLoad() {
+        long sum = 0;
+        int cores = 0;
+        for (int i = 0; i < cpuCurFreqs.length; i++) {
+            if (cpuMaxFreqs[i] <= 0 || !cpuCurFreqs[i].read()) continue;
+            long curFreq = cpuCurFreqs[i].getLong(-1);
+            if (curFreq < 0) continue;
+            sum += Math.min(100, curFreq * 100 / cpuMaxFreqs[i]);
+            cores++;
+        }
+        return cores > 0 ? (int)(sum / cores) : -1;
+    }
+
+    private int sampleGPUUsage() {
+        if (gpuBusy != null) {
+            if (!gpuBusy.read() || gpuBusy.getLongs(values) < 2 || values[1] <= 0) return -1;
+            long busy = values[0];
+            long total = values[1];
+
+            long usage;
+            if (lastGpuBusy >= 0 && total > lastGpuTotal && busy >= lastGpuBusy) {
+                usage = (busy - lastGpuBusy) * 100 / (total - lastGpuTotal);
+            }
+            else usage = busy * 100 / total;
+
+            lastGpuBusy = busy;
+            lastGpuTotal = total;
+            return (int)Math.max(0, Math.min(100, usage));
+        }
+        else if (gpuPercent != null) {
+            long usage = gpuPercent.read() ? gpuPercent.getLong(-1) : -1;
+            return usage >= 0 && usage <= 100 ? (int)usage : -1;
+        }
+        else if (gpuCurFreq != null) {
+            long curFreq = gpuCurFreq.read() ? gpuCurFreq.getLong(-1) : -1;
+            return curFreq >= 0 ? (int)Math.min(100, curFreq * 100 / gpuMaxFreq) : -1;
+        }
+        return -1;
+    }
+
+    private float samplePower() {
+        if (batteryCurrent == null || !batteryCurrent.read() || !batteryVoltage.read()) return -1;
+        long current = Math.abs(batteryCurrent.getLong(0)); // µA
+        long voltage = batteryVoltage.getLong(0); // µV
+        float powerWatts = (current / 1000000f) * (voltage / 1000000f);
+        return powerWatts > 0.1f && powerWatts < 50 ? powerWatts : -1;
+    }
+
+    private int sampleCharging() {
+        if (!batteryStatus.read()) return -1;
+        return batteryStatus.startsWith("Charging") || batteryStatus.startsWith("Full") ? 1 : 0;
+    }
+}
@@ -6,51 +6,74 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 
+/**
+ * Edits a Wine .reg file in memory. The file is parsed once into a list of key blocks indexed by
+ * name, and written back on close() only if something changed. Lines that are not touched are
+ * written back exactly as they were read, including key timestamps and comments.
+ */
 public class WineRegistryEditor implements Closeable {
     private final File file;
-    private final File cloneFile;
+    private final ArrayList<String> headerLines = new ArrayList<>();
+    private final ArrayList<Key> keys = new ArrayList<>();
+    private final HashMap<String, Key> keyIndex = new HashMap<>();
+    private boolean endsWithNewline = true;
     private boolean modified = false;
     private boolean createKeyIfNotExist = true;
-    private int lastParentKeyPosition = 0;
-    private String lastParentKey = "";
-
-    public static class Location {
-        public final int offset;
-        public final int start;
-        public final int end;
-
-        public Location(int offset, int start, int end) {
-            this.offset = offset;
-            this.start = start;
-            this.end = end;
+
+    private static class Key {
+        private final String name;
+        private final String header;
+        private final ArrayList<Entry> entries = new ArrayList<>();
+
+        private Key(String name, String header) {
+            this.name = name;
+            this.header = header;
+        }
+
+        private Entry findValue(String prefix) {
+            for (Entry entry : entries) if (prefix.equals(entry.prefix)) return entry;
+            return null;
         }
 
-        public int length() {
-            return end - start;
+        private int getInsertIndex() {
+            int index = entries.size();
+            while (index > 0 && entries.get(index - 1).text.isEmpty()) index--;
+            return index;
+        }
+
+        private boolean endsWithEmptyLine() {
+            return !entries.isEmpty() && entries.get(entries.size() - 1).text.isEmpty();
+        }
+    }
+
+    /**
+     * A single line of a key block, or several lines for values that continue on the next lines.
+     * The prefix is the quoted value name followed by '=' and is null for other lines.
+     */
+    private static class Entry {
+        private final String prefix;
+        private String text;
+
+        private Entry(String prefix, String text) {
+            this.prefix = prefix;
+            this.text = text;
         }
     }
 
     public WineRegistryEditor(File file) {
         this.file = file;
-        cloneFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-        if (!file.isFile()) {
-            try {
-                cloneFile.createNewFile();
-            } catch (IOException e) {
-            }
-        } else FileUtils.copy(file, cloneFile);
+        if (file.isFile()) {
+            byte[] data = FileUtils.read(file);
+            if (data != null) parse(new String(data, StandardCharsets.UTF_8));
+        }
     }
 
     private static String escape(String str) {
@@ -61,79 +84,109 @@ public class WineRegistryEditor implements Closeable {
         return str.replace("\\\"", "\"").replace("\\\\", "\\");
     }
 
-    private static boolean lineHasName(String line) {
-        int index;
-        return (index = line.indexOf('"')) != -1 &&
-                (index = line.indexOf('"', index)) != -1 &&
-                (index = line.indexOf('=', index)) != -1;
+    private static String getValuePrefix(String name) {
+        return name != null ? "\"" + escape(name) + "\"=" : "@=";
     }
 
-    @Override
-    public void close() {
-        if (modified && cloneFile.exists()) {
-            cloneFile.renameTo(file);
-        } else cloneFile.delete();
-    }
+    private static String getLinePrefix(String line) {
+        if (line.startsWith("@=")) return "@=";
+        if (!line.startsWith("\"")) return null;
 
-    private void resetLastParentKeyPositionIfNeed(String newKey) {
-        int lastIndex = newKey.lastIndexOf("\\");
-        if (lastIndex == -1) {
-            lastParentKeyPosition = 0;
-            lastParentKey = "";
-            return;
+        for (int i = 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '"') return i + 1 < line.length() && line.charAt(i + 1) == '=' ? line.substring(0, i + 2) : null;
         }
-
-        String parentKey = newKey.substring(0, lastIndex);
-        if (!parentKey.equals(lastParentKey)) lastParentKeyPosition = 0;
-        lastParentKey = parentKey;
+        return null;
     }
 
-    public void setCreateKeyIfNotExist(boolean createKeyIfNotExist) {
-        this.createKeyIfNotExist = createKeyIfNotExist;
+    private void parse(String content) {
+        String[] lines = content.split("\n", -1);
+        int lineCount = lines.length;
+        endsWithNewline = lines[lineCount - 1].isEmpty();
+        if (endsWithNewline) lineCount--;
+
+        Key key = null;
+        Entry value = null;
+        for (int i = 0; i < lineCount; i++) {
+            String line = lines[i];
+            if (line.startsWith("[")) {
+                int end = line.lastIndexOf(']');
+                key = new Key(line.substring(1, end != -1 ? end : line.length()), line);
+                keys.add(key);
+                if (!keyIndex.containsKey(key.name)) keyIndex.put(key.name, key);
+                value = null;
+            }
+            else if (key == null) {
+                headerLines.add(line);
+            }
+            else if (value != null && !line.isEmpty() && getLinePrefix(line) == null) {
+                value.text += "\n" + line;
+            }
+            else {
+                Entry entry = new Entry(getLinePrefix(line), line);
+                key.entries.add(entry);
+                value = entry.prefix != null ? entry : null;
+            }
+        }
     }
 
-    private Location createKey(String key) {
-        lastParentKeyPosition = 0;
-        Location location = getParentKeyLocation(key);
-        boolean success = false;
-        int offset = 0;
-        int totalLength = 0;
+    private String serialize() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : headerLines) sb.append(line).append('\n');
+        for (Key key : keys) {
+            sb.append(key.header).append('\n');
+            for (Entry entry : key.entries) sb.append(entry.text).append('\n');
+        }
+        if (!endsWithNewline && sb.length() > 0) sb.setLength(sb.length() - 1);
+        return sb.toString();
+    }
 
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
+    @Override
+    public void close() {
+        if (!modified) return;
         File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
+        if (FileUtils.write(tempFile, serialize().getBytes(StandardCharsets.UTF_8))) {
+            tempFile.renameTo(file);
+        }
+        else tempFile.delete();
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
+    public void setCreateKeyIfNotExist(boolean createKeyIfNotExist) {
+        this.createKeyIfNotExist = createKeyIfNotExist;
+    }
 
-            int length;
-            for (int i = 0, end = location != null ? location.end + 1 : (int) cloneFile.length(); i < end; i += length) {
-                length = Math.min(buffer.length, end - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-                totalLength += length;
+    /**
+     * Adds an empty key right after its closest existing ancestor, or at the end of the file if
+     * there is none, with the current time as its timestamp.
+     */
+    private Key createKey(String key) {
+        String name = escape(key);
+        int index = keys.size();
+        String parentName = name;
+        int lastIndex;
+        while ((lastIndex = parentName.lastIndexOf("\\\\")) > 0) {
+            parentName = parentName.substring(0, lastIndex);
+            Key parent = keyIndex.get(parentName);
+            if (parent != null) {
+                index = keys.indexOf(parent) + 1;
+                break;
             }
-
-            offset = totalLength;
-            long ticks1601To1970 = 86400L * (369 * 365 + 89) * 10000000;
-            long currentTime = System.currentTimeMillis() + ticks1601To1970;
-            String content = "\n[" + escape(key) + "] " + ((currentTime - ticks1601To1970) / 1000) +
-                    String.format(Locale.ENGLISH, "\n#time=%x%08x", currentTime >> 32, (int) currentTime) + "\n";
-            writer.write(content);
-            totalLength += content.length() - 1;
-
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        } catch (IOException e) {
         }
 
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-            return new Location(offset, totalLength, totalLength);
-        } else {
-            tempFile.delete();
-            return null;
-        }
+        long ticks1601To1970 = 86400L * (369 * 365 + 89) * 10000000;
+        long currentTime = System.currentTimeMillis() + ticks1601To1970;
+        Key newKey = new Key(name, "[" + name + "] " + ((currentTime - ticks1601To1970) / 1000));
+        newKey.entries.add(new Entry(null, String.format(Locale.ENGLISH, "#time=%x%08x", currentTime >> 32, (int) currentTime)));
+
+        if (index > 0 && !keys.get(index - 1).endsWithEmptyLine()) keys.get(index - 1).entries.add(new Entry(null, ""));
+        else if (index == 0 && !headerLines.isEmpty() && !headerLines.get(headerLines.size() - 1).isEmpty()) headerLines.add("");
+        if (index < keys.size()) newKey.entries.add(new Entry(null, ""));
+
+        keys.add(index, newKey);
+        keyIndex.put(name, newKey);
+        modified = true;
+        return newKey;
     }
 
     public String getStringValue(String key, String name) {
@@ -184,75 +237,39 @@ public class WineRegistryEditor implements Closeable {
     }
 
     private String getRawValue(String key, String name) {
-        lastParentKeyPosition = 0;
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) return null;
-
-        Location valueLocation = getValueLocation(keyLocation, name);
-        if (valueLocation == null) return null;
-        boolean success = false;
-        char[] buffer = new char[valueLocation.length()];
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            reader.skip(valueLocation.start);
-            success = reader.read(buffer) == buffer.length;
-        } catch (IOException e) {
-        }
-        return success ? unescape(new String(buffer)) : null;
+        Key keyNode = keyIndex.get(escape(key));
+        if (keyNode == null) return null;
+
+        String prefix = getValuePrefix(name);
+        Entry entry = keyNode.findValue(prefix);
+        return entry != null ? unescape(entry.text.substring(prefix.length())) : null;
     }
 
     private void setRawValue(String key, String name, String value) {
-        resetLastParentKeyPositionIfNeed(key);
-
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) {
+        Key keyNode = keyIndex.get(escape(key));
+        if (keyNode == null) {
             if (createKeyIfNotExist) {
-                keyLocation = createKey(key);
+                keyNode = createKey(key);
             } else return;
         }
 
-        Location valueLocation = getValueLocation(keyLocation, name);
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        boolean success = false;
-
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
-
-            int length;
-            for (int i = 0, end = valueLocation != null ? valueLocation.start : keyLocation.end; i < end; i += length) {
-                length = Math.min(buffer.length, end - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-            }
-
-            if (valueLocation == null) {
-                writer.write("\n" + (name != null ? "\"" + escape(name) + "\"" : "@") + "=" + value);
-            } else {
-                writer.write(value);
-                reader.skip(valueLocation.length());
-            }
-
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        } catch (IOException e) {
+        String prefix = getValuePrefix(name);
+        Entry entry = keyNode.findValue(prefix);
+        if (entry != null) {
+            entry.text = prefix + value;
         }
-
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-        } else tempFile.delete();
+        else keyNode.entries.add(keyNode.getInsertIndex(), new Entry(prefix, prefix + value));
+        modified = true;
     }
 
     public void removeValue(String key, String name) {
-        lastParentKeyPosition = 0;
-        Location keyLocation = getKeyLocation(key);
-        if (keyLocation == null) return;
+        Key keyNode = keyIndex.get(escape(key));
+        if (keyNode == null) return;
 
-        Location valueLocation = getValueLocation(keyLocation, name);
-        if (valueLocation == null) return;
-        removeRegion(valueLocation);
+        Entry entry = keyNode.findValue(getValuePrefix(name));
+        if (entry == null) return;
+        keyNode.entries.remove(entry);
+        modified = true;
     }
 
     public boolean removeKey(String key) {
@@ -260,140 +277,38 @@ public class WineRegistryEditor implements Closeable {
     }
 
     public boolean removeKey(String key, boolean removeTree) {
-        lastParentKeyPosition = 0;
+        String name = escape(key);
         boolean removed = false;
         if (removeTree) {
-            Location location;
-            while ((location = getKeyLocation(key, true)) != null) {
-                if (removeRegion(location)) removed = true;
-            }
-        } else {
-            Location location = getKeyLocation(key, false);
-            if (location != null && removeRegion(location)) removed = true;
-        }
-        return removed;
-    }
-
-    private boolean removeRegion(Location location) {
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        boolean success = false;
-
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
-
-            int length = 0;
-            for (int i = 0; i < location.offset; i += length) {
-                length = Math.min(buffer.length, location.offset - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-            }
-
-            boolean skipLine = length > 1 && buffer[length - 1] == '\n';
-            reader.skip(location.end - location.offset + (skipLine ? 1 : 0));
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        } catch (IOException e) {
-        }
-
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-        } else tempFile.delete();
-        return success;
-    }
-
-    private Location getKeyLocation(String key) {
-        return getKeyLocation(key, false);
-    }
-
-    private Location getKeyLocation(String key, boolean keyAsPrefix) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            int lastIndex = key.lastIndexOf("\\");
-            String parentKey = lastParentKeyPosition == 0 && lastIndex != -1 ? "[" + escape(key.substring(0, lastIndex)) : null;
-
-            if (lastParentKeyPosition > 0) reader.skip(lastParentKeyPosition);
-            key = "[" + escape(key) + (!keyAsPrefix ? "]" : "");
-            int totalLength = lastParentKeyPosition;
-            int start = -1;
-            int end = -1;
-            int emptyLines = 0;
-            int offset = 0;
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                if (start == -1) {
-                    if (parentKey != null && line.startsWith(parentKey)) {
-                        lastParentKeyPosition = totalLength;
-                        parentKey = null;
-                    }
-
-                    if (parentKey == null && line.startsWith(key)) {
-                        offset = totalLength - 1;
-                        start = totalLength + line.length() + 1;
-                    }
-                } else {
-                    if (line.startsWith("[")) {
-                        end = Math.max(-1, totalLength - emptyLines - 1);
-                        break;
-                    } else emptyLines = line.isEmpty() ? emptyLines + 1 : 0;
+            String subkeyPrefix = name + "\\\\";
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                Key keyNode = keys.get(i);
+                if (keyNode.name.equals(name) || keyNode.name.startsWith(subkeyPrefix)) {
+                    removeKey(i);
+                    removed = true;
                 }
-                totalLength += line.length() + 1;
             }
-
-            if (end == -1) end = totalLength - 1;
-            return start != -1 ? new Location(offset, start, end) : null;
-        } catch (IOException e) {
-            return null;
         }
-    }
-
-    private Location getParentKeyLocation(String key) {
-        String[] parts = key.split("\\\\");
-        ArrayList<String> stack = new ArrayList<>(Arrays.asList(parts).subList(0, parts.length - 1));
-
-        while (!stack.isEmpty()) {
-            String currentKey = String.join("\\", stack);
-            Location location = getKeyLocation(currentKey, true);
-            if (location != null) return location;
-            stack.remove(stack.size() - 1);
+        else {
+            Key keyNode = keyIndex.get(name);
+            if (keyNode != null) {
+                removeKey(keys.indexOf(keyNode));
+                removed = true;
+            }
         }
-
-        return null;
+        return removed;
     }
 
-    private Location getValueLocation(Location keyLocation, String name) {
-        if (keyLocation.start == keyLocation.end) return null;
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            reader.skip(keyLocation.start);
-            name = name != null ? "\"" + escape(name) + "\"=" : "@=";
-            int totalLength = 0;
-            int start = -1;
-            int end = -1;
-            int offset = 0;
-
-            String line;
-            while ((line = reader.readLine()) != null && totalLength < keyLocation.length()) {
-                if (start == -1) {
-                    if (line.startsWith(name)) {
-                        offset = totalLength - 1;
-                        start = totalLength + name.length();
-                    }
-                } else {
-                    if (line.isEmpty() || lineHasName(line)) {
-                        end = totalLength - 1;
-                        break;
-                    }
-                }
-                totalLength += line.length() + 1;
-            }
+    private void removeKey(int index) {
+        Key keyNode = keys.remove(index);
+        if (keyIndex.get(keyNode.name) == keyNode) keyIndex.remove(keyNode.name);
 
-            if (end == -1) end = totalLength - 1;
-            return start != -1 ? new Location(keyLocation.start + offset, keyLocation.start + start, keyLocation.start + end) : null;
-        } catch (IOException e) {
-            return null;
+        // Don't leave the blank separator line of the previous key dangling at the end of the file
+        if (index == keys.size() && index > 0 && !keyNode.endsWithEmptyLine()) {
+            ArrayList<Entry> entries = keys.get(index - 1).entries;
+            while (!entries.isEmpty() && entries.get(entries.size() - 1).text.isEmpty()) entries.remove(entries.size() - 1);
         }
+        modified = true;
     }
 
     public void importReg(String regFile) {
@@ -0,0 +1,134 @@
+package com.winlator.xmod.math;
+
+/**
+ * A set of at most maxBoxes rectangles covering the damaged area of an image. Rectangles that
+ * overlap or touch are merged, and once the limit is reached the two boxes whose union grows the
+ * least are merged, so the region may cover more than what was actually damaged but never less.
+ */
+public class DamageRegion {
+    private final int maxBoxes;
+    private final int[] x0;
+    private final int[] y0;
+    private final int[] x1;
+    private final int[] y1;
+    private int size = 0;
+
+    public DamageRegion(int maxBoxes) {
+        this.maxBoxes = maxBoxes;
+        // one slot for a box over the limit and one spare slot used by union()
+        x0 = new int[maxBoxes + 2];
+        y0 = new int[maxBoxes + 2];
+        x1 = new int[maxBoxes + 2];
+        y1 = new int[maxBoxes + 2];
+    }
+
+    public void add(int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) return;
+        int index = size++;
+        x0[index] = x;
+        y0[index] = y;
+        x1[index] = x + width;
+        y1[index] = y + height;
+
+        while (mergeTouching(index)) index = size - 1;
+        if (size > maxBoxes) mergeCheapestPair();
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getX(int index) {
+        return x0[index];
+    }
+
+    public int getY(int index) {
+        return y0[index];
+    }
+
+    public int getWidth(int index) {
+        return x1[index] - x0[index];
+    }
+
+    public int getHeight(int index) {
+        return y1[index] - y0[index];
+    }
+
+    public long getArea() {
+        long area = 0;
+        for (int i = 0; i < size; i++) area += (long)getWidth(i) * getHeight(i);
+        return area;
+    }
+
+    /**
+     * Merges the box at index with the first box it overlaps or touches. The merged box is moved
+     * to the end of the list so that it can be checked again against the remaining boxes.
+     */
+    private boolean mergeTouching(int index) {
+        for (int i = 0; i < size; i++) {
+            if (i == index) continue;
+            if (x0[i] <= x1[index] && x0[index] <= x1[i] && y0[i] <= y1[index] && y0[index] <= y1[i]) {
+                union(i, index);
+                remove(Math.max(i, index));
+                remove(Math.min(i, index));
+                size++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void mergeCheapestPair() {
+        int bestI = 0, bestJ = 1;
+        long bestCost = Long.MAX_VALUE;
+
+        for (int i = 0; i < size; i++) {
+            long areaI = (long)getWidth(i) * getHeight(i);
+            for (int j = i + 1; j < size; j++) {
+                long width = Math.max(x1[i], x1[j]) - Math.min(x0[i], x0[j]);
+                long height = Math.max(y1[i], y1[j]) - Math.min(y0[i], y0[j]);
+                long cost = width * height - areaI - (long)getWidth(j) * getHeight(j);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestI = i;
+                    bestJ = j;
+                }
+            }
+        }
+
+        union(bestI, bestJ);
+        x0[bestI] = x0[size];
+        y0[bestI] = y0[size];
+        x1[bestI] = x1[size];
+        y1[bestI] = y1[size];
+        remove(bestJ);
+    }
+
+    /**
+     * Stores the union of boxes i and j in the spare slot right after the last box.
+     */
+    private void union(int i, int j) {
+        x0[size] = Math.min(x0[i], x0[j]);
+        y0[size] = Math.min(y0[i], y0[j]);
+        x1[size] = Math.max(x1[i], x1[j]);
+        y1[size] = Math.max(y1[i], y1[j]);
+    }
+
+    private void remove(int index) {
+        for (int i = index; i < size; i++) {
+            x0[i] = x0[i + 1];
+            y0[i] = y0[i + 1];
+            x1[i] = x1[i + 1];
+            y1[i] = y1[i + 1];
+        }
+        size--;
+    }
+}
@@ -52,6 +52,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     public int surfaceWidth;
     public int surfaceHeight;
     private final EffectComposer effectComposer;
+    private long frameUploadedBytes = 0;
 
     public GLRenderer(XServerView xServerView, XServer xServer) {
         this.xServerView = xServerView;
@@ -115,6 +116,7 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
     }
 
     public void drawFrame() {
+        long uploadedBytes = Texture.getUploadedBytes();
         boolean xrFrame = false;
         boolean xrImmersive = false;
         if (XrActivity.isEnabled(null)) {
@@ -192,6 +194,15 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
             XrActivity.updateControllers();
             xServerView.requestRender();
         }
+
+        frameUploadedBytes = Texture.getUploadedBytes() - uploadedBytes;
+    }
+
+    /**
+     * Number of texture bytes uploaded while drawing the last frame.
+     */
+    public long getFrameUploadedBytes() {
+        return frameUploadedBytes;
     }
 
 
@@ -240,7 +251,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     private void renderDrawable(Drawable drawable, int x, int y, ShaderMaterial material) {
         if (drawable == null) return;
-        synchronized (drawable.renderLock) {
+        try (XLock lock = drawable.lockForRead()) {
+            if (!drawable.isAlive()) return;
             Texture texture = drawable.getTexture();
             texture.updateFromDrawable(drawable);
 
@@ -262,10 +274,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         GLES20.glUniform2f(windowMaterial.getUniformLocation("viewSize"), xServer.screenInfo.width, xServer.screenInfo.height);
         quadVertices.bind(windowMaterial.programId);
 
-        try (XLock lock = xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
-            for (RenderableWindow window : renderableWindows) {
-                renderDrawable(window.content, window.rootX, window.rootY, windowMaterial);
-            }
+        for (RenderableWindow window : renderableWindows) {
+            renderDrawable(window.content, window.rootX, window.rootY, windowMaterial);
         }
 
         quadVertices.disable();
@@ -418,7 +428,8 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     private void renderWindowEffect(Drawable drawable, int x, int y, ShaderMaterial material) {
         // Implement the rendering effect logic here
-        synchronized (drawable.renderLock) {
+        try (XLock lock = drawable.lockForRead()) {
+            if (!drawable.isAlive()) return;
             Texture texture = drawable.getTexture();
             texture.updateFromDrawable(drawable);
 
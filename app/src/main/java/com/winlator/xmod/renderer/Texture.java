@@ -2,13 +2,16 @@ package com.winlator.xmod.renderer;
 
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
 import com.winlator.xmod.XrActivity;
+import com.winlator.xmod.math.DamageRegion;
 import com.winlator.xmod.xserver.Drawable;
 
 import java.nio.ByteBuffer;
 
 public class Texture {
+    private static long uploadedBytes = 0;
     protected int textureId = 0;
     private int wrapS = GLES20.GL_CLAMP_TO_EDGE;
     private int wrapT = GLES20.GL_CLAMP_TO_EDGE;
@@ -92,17 +95,52 @@ public class Texture {
         ByteBuffer data = drawable.getData();
         if (data == null) return;
 
+        DamageRegion damage = drawable.getDamage();
+        long fullSize = drawable.width * drawable.height * 4L;
+
         if (!isAllocated()) {
             allocateTexture(drawable.width, drawable.height, data);
+            uploadedBytes += fullSize;
+            damage.clear();
+            needsUpdate = false;
         }
         else if (needsUpdate) {
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+
+            // Boxes covering most of the drawable are cheaper to send in a single call
+            if (damage.isEmpty() || damage.getArea() * 4 >= fullSize * 3 / 4) {
+                GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
+                uploadedBytes += fullSize;
+            }
+            else {
+                // Work on a duplicate since readers holding the same lock may rewind the buffer
+                ByteBuffer boxData = data.duplicate();
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, drawable.width);
+                for (int i = 0; i < damage.size(); i++) {
+                    int x = damage.getX(i);
+                    int y = damage.getY(i);
+                    int width = damage.getWidth(i);
+                    int height = damage.getHeight(i);
+                    boxData.position((y * drawable.width + x) * 4);
+                    GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, x, y, width, height, format, GLES20.GL_UNSIGNED_BYTE, boxData);
+                    uploadedBytes += width * height * 4L;
+                }
+                GLES20.glPixelStorei(GLES30.GL_UNPACK_ROW_LENGTH, 0);
+            }
+
             GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+            damage.clear();
             needsUpdate = false;
         }
     }
 
+    /**
+     * Total number of pixel bytes sent to the GPU by updateFromDrawable, only updated on the GL thread.
+     */
+    public static long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
     public boolean isAllocated() {
         return textureId > 0;
     }
@@ -17,5 +17,7 @@ public class SysVSHMConnectionHandler implements ConnectionHandler {
     }
 
     @Override
-    public void handleConnectionShutdown(Client client) {}
+    public void handleConnectionShutdown(Client client) {
+        sysVSharedMemory.reapOrphans();
+    }
 }
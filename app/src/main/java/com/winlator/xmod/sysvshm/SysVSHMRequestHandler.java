@@ -21,7 +21,7 @@ public class SysVSHMRequestHandler implements RequestHandler {
         switch (requestCode) {
             case RequestCodes.SHMGET: {
                 long size = inputStream.readUnsignedInt();
-                int shmid = sysVSharedMemory.get(size);
+                int shmid = sysVSharedMemory.get(size, client.clientSocket.getPeerPid());
 
                 try (XStreamLock lock = outputStream.lock()) {
                     outputStream.writeInt(shmid);
@@ -1,18 +1,40 @@
 package com.winlator.xmod.sysvshm;
 
 import android.os.SharedMemory;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 import com.winlator.xmod.xconnector.XConnectorEpoll;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
-
+import java.util.IdentityHashMap;
+
+/**
+ * Registry of the System V shared memory segments created by the guest through android_sysvshm.
+ *
+ * Segments are indexed by id for the guest requests and by their mapping for MIT-SHM detach, and
+ * every X attachment of a segment shares one mapping that is unmapped on the last detach. Like
+ * IPC_RMID, deleting a segment only removes its id, an attached segment stays mapped until it is
+ * detached.
+ *
+ * android_sysvshm opens a new connection for every request, so the owner of a segment is the pid
+ * of the guest process that created it. reapOrphans() deletes the segments whose owner has exited
+ * without removing them.
+ */
 public class SysVSharedMemory {
+    private static final int REAP_INTERVAL = 5000;
     private final SparseArray<SHMemory> shmemories = new SparseArray<>();
+    private final IdentityHashMap<ByteBuffer, SHMemory> attachedSHMemories = new IdentityHashMap<>();
     private int maxSHMemoryId = 0;
+    private int regionIndex = 0;
+    private long mappedBytes = 0;
+    private int reapedCount = 0;
+    private long lastReapTime = 0;
 
     static {
         System.loadLibrary("winlator");
@@ -21,7 +43,26 @@ public class SysVSharedMemory {
     private static class SHMemory {
         private int fd;
         private long size;
+        private int ownerPid;
         private ByteBuffer data;
+        private int attachCount;
+    }
+
+    public static class Stats {
+        public final int segmentCount;
+        public final int attachedCount;
+        public final long allocatedBytes;
+        public final long mappedBytes;
+        /** Segments deleted by reapOrphans() since the registry was created. */
+        public final int reapedCount;
+
+        private Stats(int segmentCount, int attachedCount, long allocatedBytes, long mappedBytes, int reapedCount) {
+            this.segmentCount = segmentCount;
+            this.attachedCount = attachedCount;
+            this.allocatedBytes = allocatedBytes;
+            this.mappedBytes = mappedBytes;
+            this.reapedCount = reapedCount;
+        }
     }
 
     public int getFd(int shmid) {
@@ -32,8 +73,12 @@ public class SysVSharedMemory {
     }
 
     public int get(long size) {
+        return get(size, -1);
+    }
+
+    public int get(long size, int ownerPid) {
         synchronized (shmemories) {
-            int index = shmemories.size();
+            int index = regionIndex++;
             int fd = ashmemCreateRegion(index, size);
             if (fd < 0) fd = createSharedMemory("sysvshm-"+index, (int)size);
             if (fd < 0) return -1;
@@ -42,55 +87,103 @@ public class SysVSharedMemory {
             int id = ++maxSHMemoryId;
             shmemory.fd = fd;
             shmemory.size = size;
+            shmemory.ownerPid = ownerPid;
             shmemories.put(id, shmemory);
             return id;
         }
     }
 
     public void delete(int shmid) {
-        SHMemory shmemory = shmemories.get(shmid);
-        if (shmemory != null) {
-            if (shmemory.fd != -1) {
-                XConnectorEpoll.closeFd(shmemory.fd);
-                shmemory.fd = -1;
-            }
-            shmemories.remove(shmid);
+        synchronized (shmemories) {
+            int index = shmemories.indexOfKey(shmid);
+            if (index >= 0) deleteAt(index);
+        }
+    }
+
+    private void deleteAt(int index) {
+        SHMemory shmemory = shmemories.valueAt(index);
+        if (shmemory.fd != -1) {
+            XConnectorEpoll.closeFd(shmemory.fd);
+            shmemory.fd = -1;
         }
+        shmemories.removeAt(index);
     }
 
     public void deleteAll() {
         synchronized (shmemories) {
-            for (int i = shmemories.size() - 1; i >= 0; i--) delete(shmemories.keyAt(i));
+            for (int i = shmemories.size() - 1; i >= 0; i--) deleteAt(i);
         }
     }
 
     public ByteBuffer attach(int shmid) {
         synchronized (shmemories) {
             SHMemory shmemory = shmemories.get(shmid);
-            if (shmemory != null) {
-                if (shmemory.data == null) shmemory.data = mapSHMSegment(shmemory.fd, shmemory.size, 0, false);
+            if (shmemory == null) return null;
 
-                return shmemory.data;
+            if (shmemory.data == null) {
+                shmemory.data = mapSHMSegment(shmemory.fd, shmemory.size, 0, false);
+                if (shmemory.data == null) return null;
+                attachedSHMemories.put(shmemory.data, shmemory);
+                mappedBytes += shmemory.size;
             }
-            else return null;
+            shmemory.attachCount++;
+            return shmemory.data;
         }
     }
 
     public void detach(ByteBuffer data) {
         synchronized (shmemories) {
-            for (int i = 0; i < shmemories.size(); i++) {
-                SHMemory shmemory = shmemories.valueAt(i);
-                if (shmemory.data == data) {
-                    if (shmemory.data != null) {
-                        unmapSHMSegment(shmemory.data, shmemory.size);
-                        shmemory.data = null;
-                    }
-                    break;
+            SHMemory shmemory = attachedSHMemories.get(data);
+            if (shmemory == null || --shmemory.attachCount > 0) return;
+
+            attachedSHMemories.remove(data);
+            unmapSHMSegment(shmemory.data, shmemory.size);
+            mappedBytes -= shmemory.size;
+            shmemory.data = null;
+        }
+    }
+
+    /**
+     * Deletes the segments whose owner process has exited, at most once every REAP_INTERVAL.
+     * Segments that are still attached are unmapped once the X server detaches them.
+     */
+    public void reapOrphans() {
+        synchronized (shmemories) {
+            long now = SystemClock.elapsedRealtime();
+            if (now - lastReapTime < REAP_INTERVAL) return;
+            lastReapTime = now;
+
+            SparseBooleanArray alivePids = new SparseBooleanArray();
+            for (int i = shmemories.size() - 1; i >= 0; i--) {
+                int ownerPid = shmemories.valueAt(i).ownerPid;
+                if (ownerPid <= 0) continue;
+
+                int index = alivePids.indexOfKey(ownerPid);
+                boolean alive;
+                if (index >= 0) {
+                    alive = alivePids.valueAt(index);
+                }
+                else {
+                    alive = new File("/proc/"+ownerPid).exists();
+                    alivePids.put(ownerPid, alive);
+                }
+
+                if (!alive) {
+                    deleteAt(i);
+                    reapedCount++;
                 }
             }
         }
     }
 
+    public Stats getStats() {
+        synchronized (shmemories) {
+            long allocatedBytes = 0;
+            for (int i = 0; i < shmemories.size(); i++) allocatedBytes += shmemories.valueAt(i).size;
+            return new Stats(shmemories.size(), attachedSHMemories.size(), allocatedBytes, mappedBytes, reapedCount);
+        }
+    }
+
     private static int createSharedMemory(String name, int size) {
         try {
             if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.O_MR1) {
@@ -114,4 +207,9 @@ public class SysVSharedMemory {
     public static native ByteBuffer mapSHMSegment(int fd, long size, int offset, boolean readonly);
 
     public static native void unmapSHMSegment(ByteBuffer data, long size);
+
+    /**
+     * Full memory fence, for publishing data to a segment that is read by another process.
+     */
+    public static native void memoryBarrier();
 }
\ No newline at end of file
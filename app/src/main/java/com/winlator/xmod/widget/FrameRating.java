@@ -20,9 +20,10 @@ import com.winlator.xmod.R;
 
 import com.winlator.xmod.container.Container;
 import com.winlator.xmod.container.Shortcut;
+import com.winlator.xmod.core.Callback;
 import com.winlator.xmod.core.GPUInformation;
 import com.winlator.xmod.core.StringUtils;
-import com.winlator.xmod.core.CPUStatus;
+import com.winlator.xmod.core.TelemetrySampler;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -32,9 +33,12 @@ import java.util.Locale;
 
 public class FrameRating extends FrameLayout implements Runnable {
     private Context context;
-    private long lastTime = 0;
-    private int frameCount = 0;
-    private float lastFPS = 0;
+    private final TelemetrySampler sampler = TelemetrySampler.getInstance();
+    private volatile boolean active = false;
+    private final Callback<TelemetrySampler.Snapshot> snapshotListener = (snapshot) -> {
+        if (active) post(this);
+    };
+    private String gpuLabel = null;
     private String totalRAM = null;
     private final TextView tvFPS;
     private final TextView tvRenderer;
@@ -102,7 +106,8 @@ public class FrameRating extends FrameLayout implements Runnable {
         return totalRAM;
     }
     
-    private String getRAMUsagePercentage() {
+    private String getRAMUsagePercentage(TelemetrySampler.Snapshot snapshot) {
+        if (snapshot.getMemUsage() != -1) return snapshot.getMemUsage() + "%";
         try {
             ActivityManager activityManager = (ActivityManager)context.getSystemService(Context.ACTIVITY_SERVICE);
             ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
@@ -116,96 +121,26 @@ public class FrameRating extends FrameLayout implements Runnable {
         }
     }
 
-    // CPU usage calculation with proper delta
-    private long lastCpuTotal = 0;
-    private long lastCpuIdle = 0;
-    private long lastCpuTime = 0;
     private int lastCpuUsage = 0; // Keep track of last known good value
 
-    private String getCPUUsagePercentageProcStat() {
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader("/proc/stat"));
-            String line = reader.readLine();
-            reader.close();
-
-            if (line != null && line.startsWith("cpu ")) {
-                String[] tokens = line.split("\\s+");
-                if (tokens.length >= 8) {
-                    long user = Long.parseLong(tokens[1]);
-                    long nice = Long.parseLong(tokens[2]);
-                    long system = Long.parseLong(tokens[3]);
-                    long idle = Long.parseLong(tokens[4]);
-                    long iowait = Long.parseLong(tokens[5]);
-                    long irq = Long.parseLong(tokens[6]);
-                    long softirq = Long.parseLong(tokens[7]);
-
-                    long currentIdle = idle + iowait;
-                    long currentTotal = user + nice + system + idle + iowait + irq + softirq;
-                    long currentTime = SystemClock.elapsedRealtime();
-
-                    if (lastCpuTime > 0 && currentTime > lastCpuTime) {
-                        long deltaTotal = currentTotal - lastCpuTotal;
-                        long deltaIdle = currentIdle - lastCpuIdle;
-                        if (deltaTotal > 0) {
-                            int usage = (int) ((deltaTotal - deltaIdle) * 100L / deltaTotal);
-                            usage = Math.max(0, Math.min(100, usage));
-                            // Smooth with EMA to reduce jitter
-                            int smoothed = (int) (0.3f * usage + 0.7f * lastCpuUsage);
-                            lastCpuUsage = Math.max(0, Math.min(100, smoothed));
-                        }
-                    } else {
-                        // First sample: approximate overall usage
-                        if (currentTotal > 0) {
-                            int usage = (int) ((currentTotal - currentIdle) * 100L / currentTotal);
-                            lastCpuUsage = Math.max(0, Math.min(100, usage));
-                        }
-                    }
-
-                    lastCpuTotal = currentTotal;
-                    lastCpuIdle = currentIdle;
-                    lastCpuTime = currentTime;
-
-                    return lastCpuUsage + "%";
-                }
-            }
-        } catch (Exception e) {
-            Log.e("FrameRating", "Error calculating CPU usage", e);
+    private String getCPUUsagePercentage(TelemetrySampler.Snapshot snapshot) {
+        if (snapshot.cpuFrequencyLoad != -1) {
+            // DVFS (Task Manager logic): average current freq vs max freq, smoothed with EMA
+            lastCpuUsage = (int)(0.4f * snapshot.cpuFrequencyLoad + 0.6f * lastCpuUsage);
         }
-
-        // Fallbacks: prefer last known good value, otherwise 0%
-        return (lastCpuUsage > 0 ? lastCpuUsage : 0) + "%";
+        else if (snapshot.cpuUsage != -1) {
+            // Fallback to /proc/stat, smoothed with EMA to reduce jitter
+            lastCpuUsage = (int)(0.3f * snapshot.cpuUsage + 0.7f * lastCpuUsage);
+        }
+        return lastCpuUsage + "%";
     }
 
-    // CPU usage using DVFS (Task Manager logic): average current freq vs max freq
-    private String getCPUUsagePercentageDVFS() {
-        try {
-            short[] current = CPUStatus.getCurrentClockSpeeds();
-            if (current != null && current.length > 0) {
-                long sumPct = 0;
-                int cores = 0;
-                for (int i = 0; i < current.length; i++) {
-                    short max = CPUStatus.getMaxClockSpeed(i);
-                    if (max > 0) {
-                        int pct = Math.min(100, Math.max(0, (current[i] * 100) / max));
-                        sumPct += pct;
-                        cores++;
-                    }
-                }
-                if (cores > 0) {
-                    int usage = (int)(sumPct / cores);
-                    // Smooth with EMA against lastCpuUsage
-                    int smoothed = (int)(0.4f * usage + 0.6f * lastCpuUsage);
-                    lastCpuUsage = smoothed;
-                    return smoothed + "%";
-                }
-            }
-        } catch (Exception ignored) {}
-        // Fallback to /proc/stat method
-        return getCPUUsagePercentageProcStat();
-    }
 
+    private String getPowerStatus(TelemetrySampler.Snapshot snapshot) {
+        if (snapshot.charging != -1 && snapshot.powerWatts != -1) {
+            return (snapshot.charging == 1 ? "PWR CHG " : "PWR BAT ") + String.format("%.1fW", snapshot.powerWatts);
+        }
 
-    private String getPowerStatus() {
         try {
             IntentFilter filter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
             Intent batteryStatus = context.registerReceiver(null, filter);
@@ -215,7 +150,7 @@ public class FrameRating extends FrameLayout implements Runnable {
                                    status == BatteryManager.BATTERY_STATUS_FULL;
                 
                 // Calculate TDP (power consumption)
-                String tdp = calculateTDP(batteryStatus);
+                String tdp = calculateTDP(batteryStatus, snapshot);
                 
                 if (isCharging) {
                     return "PWR CHG " + tdp;
@@ -229,7 +164,7 @@ public class FrameRating extends FrameLayout implements Runnable {
         return "PWR BAT 0.0W";
     }
 
-    private String calculateTDP(Intent batteryStatus) {
+    private String calculateTDP(Intent batteryStatus, TelemetrySampler.Snapshot snapshot) {
         try {
             // Get battery voltage and current
             int voltage = batteryStatus.getIntExtra(BatteryManager.EXTRA_VOLTAGE, -1); // in mV
@@ -261,38 +196,13 @@ public class FrameRating extends FrameLayout implements Runnable {
                 }
             }
             
-            // Method 3: Try to read from /sys files directly
-            String[] powerFiles = {
-                "/sys/class/power_supply/battery/current_now",
-                "/sys/class/power_supply/BAT0/current_now",
-                "/sys/class/power_supply/BAT1/current_now"
-            };
-            
-            for (String powerFile : powerFiles) {
-                try {
-                    File file = new File(powerFile);
-                    if (file.exists()) {
-                        String currentStr = readFirstLine(file);
-                        if (currentStr != null && !currentStr.trim().isEmpty()) {
-                            long current = Math.abs(Long.parseLong(currentStr.trim())); // in µA
-                            if (current > 0 && voltage > 0) {
-                                double powerWatts = (voltage / 1000.0) * (current / 1000000.0);
-                                if (powerWatts > 0.1 && powerWatts < 50) { // Sanity check
-                                    return String.format("%.1fW", powerWatts);
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.d("FrameRating", "Could not read power from " + powerFile, e);
-                }
-            }
+            // Method 3: power_supply files, read by the sampler
+            if (snapshot.powerWatts != -1) return String.format("%.1fW", snapshot.powerWatts);
             
             // Method 4: Enhanced estimation based on CPU usage and device type
             if (voltage > 0) {
                 try {
-                    String cpuUsage = getCPUUsagePercentageDVFS();
-                    int cpu = Integer.parseInt(cpuUsage.replace("%", ""));
+                    int cpu = lastCpuUsage;
                     
                     // Base power consumption based on device characteristics
                     String model = android.os.Build.MODEL.toLowerCase();
@@ -351,40 +261,37 @@ public class FrameRating extends FrameLayout implements Runnable {
 
     public void setGpuName(String gpuName) {
         if (gpuName != null && !gpuName.isEmpty()) {
-            // Extract GPU information and calculate usage
-            String gpuInfo = getSimpleGPUInformation(gpuName);
-            tvGPU.setText(gpuInfo);
-        } else {
-            // Try to detect GPU automatically
-            String detectedGPU = detectGPUAutomatically();
-            tvGPU.setText(detectedGPU);
+            // Extract the GPU brand from the name
+            gpuLabel = getSimpleGPUInformation(gpuName);
         }
+        tvGPU.setText(getGPULabel() + " " + getGPUUsage(sampler.getSnapshot()));
     }
 
     private String getSimpleGPUInformation(String gpuName) {
-        try {
-            // Extract GPU name and try to get usage
-            String cleanName = gpuName.trim();
-            
-            // Detect GPU brand and model
-            if (cleanName.toLowerCase().contains("adreno")) {
-                return "Adreno " + getGPUUsage();
-            } else if (cleanName.toLowerCase().contains("mali")) {
-                return "Mali " + getGPUUsage();
-            } else if (cleanName.toLowerCase().contains("powervr")) {
-                return "PowerVR " + getGPUUsage();
-            } else if (cleanName.toLowerCase().contains("nvidia")) {
-                return "Nvidia " + getGPUUsage();
-            } else if (cleanName.toLowerCase().contains("intel")) {
-                return "Intel " + getGPUUsage();
-            } else {
-                return "GPU " + getGPUUsage();
-            }
-        } catch (Exception e) {
-            return "GPU " + getGPUUsage();
+        String cleanName = gpuName.trim().toLowerCase();
+        
+        // Detect GPU brand and model
+        if (cleanName.contains("adreno")) {
+            return "Adreno";
+        } else if (cleanName.contains("mali")) {
+            return "Mali";
+        } else if (cleanName.contains("powervr")) {
+            return "PowerVR";
+        } else if (cleanName.contains("nvidia")) {
+            return "Nvidia";
+        } else if (cleanName.contains("intel")) {
+            return "Intel";
+        } else {
+            return "GPU";
         }
     }
 
+    private String getGPULabel() {
+        // The GPU doesn't change, so it is only detected once
+        if (gpuLabel == null) gpuLabel = detectGPUAutomatically();
+        return gpuLabel;
+    }
+
     private String detectGPUAutomatically() {
         try {
             // Try alternative methods to detect GPU without SystemProperties
@@ -392,21 +299,21 @@ public class FrameRating extends FrameLayout implements Runnable {
             // Method 1: Try to read from /proc/cpuinfo for GPU hints
             String cpuInfo = getCPUInfo();
             if (cpuInfo.toLowerCase().contains("adreno")) {
-                return "Adreno " + getGPUUsage();
+                return "Adreno";
             } else if (cpuInfo.toLowerCase().contains("mali")) {
-                return "Mali " + getGPUUsage();
+                return "Mali";
             }
             
             // Method 2: Try to read from system files
             String gpuInfo = getGPUFromSystemFiles();
             if (!gpuInfo.isEmpty()) {
-                return gpuInfo + " " + getGPUUsage();
+                return gpuInfo;
             }
             
             // Method 3: Use Build information as fallback
             String buildInfo = getBuildGPUInfo();
             if (!buildInfo.isEmpty()) {
-                return buildInfo + " " + getGPUUsage();
+                return buildInfo;
             }
             
         } catch (Exception e) {
@@ -414,7 +321,7 @@ public class FrameRating extends FrameLayout implements Runnable {
         }
         
         // Fallback
-        return "GPU " + getGPUUsage();
+        return "GPU";
     }
 
     private String getGPUFromSystemFiles() {
@@ -479,137 +386,14 @@ public class FrameRating extends FrameLayout implements Runnable {
 
     private int lastGpuUsage = 0; // Keep track of last known good GPU value
     private long lastGpuTime = 0; // Track time for GPU calculations
-    private long lastGpuBusy = -1; // For delta-based Adreno gpubusy
-    private long lastGpuTotal = -1;
 
-    private String getGPUUsage() {
+    private String getGPUUsage(TelemetrySampler.Snapshot snapshot) {
         long currentTime = SystemClock.elapsedRealtime();
 
-        try {
-            // 1) Adreno: /sys/class/kgsl/kgsl-3d0/gpubusy -> "busy total" (delta since last read on many devices)
-            File adrenoGpuBusy = new File("/sys/class/kgsl/kgsl-3d0/gpubusy");
-            if (adrenoGpuBusy.exists()) {
-                String data = readFirstLine(adrenoGpuBusy);
-                if (data != null) {
-                    String[] parts = data.trim().split("\\s+");
-                    if (parts.length >= 2) {
-                        long busy = Long.parseLong(parts[0]);
-                        long total = Long.parseLong(parts[1]);
-                        if (total > 0) {
-                            int usage;
-                            if (lastGpuBusy >= 0 && lastGpuTotal >= 0 && total > lastGpuTotal && busy >= lastGpuBusy) {
-                                long deltaBusy = busy - lastGpuBusy;
-                                long deltaTotal = total - lastGpuTotal;
-                                usage = deltaTotal > 0 ? (int)Math.max(0, Math.min(100, (deltaBusy * 100L) / deltaTotal)) : 0;
-                            } else {
-                                usage = (int) Math.max(0, Math.min(100, (busy * 100L) / total));
-                            }
-                            usage = (int) (0.4f * usage + 0.6f * lastGpuUsage);
-                            lastGpuUsage = usage;
-                            lastGpuTime = currentTime;
-                            lastGpuBusy = busy;
-                            lastGpuTotal = total;
-                            return usage + "%";
-                        }
-                    }
-                }
-            }
-
-            // 2) Alternate Adreno percentage nodes
-            String[] adrenoPercent = {
-                "/sys/class/kgsl/kgsl-3d0/gpu_busy_percentage",
-                "/sys/devices/soc/soc:qcom,kgsl-3d0/devfreq/soc:qcom,kgsl-3d0/gpu_busy_percent",
-                "/sys/kernel/gpu/gpu_busy"
-            };
-            for (String p : adrenoPercent) {
-                File f = new File(p);
-                if (f.exists()) {
-                    String content = readFirstLine(f);
-                    if (content != null) {
-                        java.util.regex.Matcher m = java.util.regex.Pattern.compile("(\\d{1,3})").matcher(content);
-                        if (m.find()) {
-                            int usage = Integer.parseInt(m.group(1));
-                            if (usage >= 0 && usage <= 100) {
-                                usage = (int) (0.4f * usage + 0.6f * lastGpuUsage);
-                                lastGpuUsage = usage;
-                                lastGpuTime = currentTime;
-                                return usage + "%";
-                            }
-                        }
-                    }
-                }
-            }
-
-            // 3) Mali utilisation nodes
-            String[] maliPaths = {
-                "/sys/class/misc/mali0/device/utilisation",
-                "/proc/mali/utilization",
-                "/sys/devices/platform/mali.0/utilization",
-                "/sys/devices/platform/13000000.mali/utilization",
-                "/sys/devices/platform/11400000.mali/utilization",
-                "/sys/devices/platform/gpusysfs/utilization"
-            };
-            for (String p : maliPaths) {
-                File f = new File(p);
-                if (f.exists()) {
-                    String content = readFirstLine(f);
-                    if (content != null) {
-                        java.util.regex.Matcher m = java.util.regex.Pattern.compile("(\\d{1,3})%?").matcher(content);
-                        if (m.find()) {
-                            int usage = Integer.parseInt(m.group(1));
-                            if (usage >= 0 && usage <= 100) {
-                                usage = (int) (0.4f * usage + 0.6f * lastGpuUsage);
-                                lastGpuUsage = usage;
-                                lastGpuTime = currentTime;
-                                return usage + "%";
-                            }
-                        }
-                    }
-                }
-            }
-
-            // 4) Frequency-based fallback: cur_freq / max_freq
-            String[] curFreqPaths = {
-                "/sys/class/kgsl/kgsl-3d0/devfreq/cur_freq",
-                "/sys/class/kgsl/kgsl-3d0/gpuclk",
-                "/sys/class/devfreq/gpusysfs/cur_freq",
-                "/sys/devices/platform/mali.0/clock"
-            };
-            String[] maxFreqPaths = {
-                "/sys/class/kgsl/kgsl-3d0/devfreq/max_freq",
-                "/sys/class/devfreq/gpusysfs/max_freq",
-                "/sys/devices/platform/mali.0/max_clock",
-                "/sys/class/kgsl/kgsl-3d0/max_gpuclk"
-            };
-
-            Long cur = null, max = null;
-            for (String p : curFreqPaths) {
-                File f = new File(p);
-                if (f.exists()) {
-                    String s = readFirstLine(f);
-                    if (s != null && s.trim().length() > 0) {
-                        try { cur = Long.parseLong(s.trim()); break; } catch (NumberFormatException ignore) {}
-                    }
-                }
-            }
-            for (String p : maxFreqPaths) {
-                File f = new File(p);
-                if (f.exists()) {
-                    String s = readFirstLine(f);
-                    if (s != null && s.trim().length() > 0) {
-                        try { max = Long.parseLong(s.trim()); break; } catch (NumberFormatException ignore) {}
-                    }
-                }
-            }
-            if (cur != null && max != null && max > 0) {
-                int usage = (int) Math.max(0, Math.min(100, (cur * 100L) / max));
-                usage = (int) (0.4f * usage + 0.6f * lastGpuUsage);
-                lastGpuUsage = usage;
-                lastGpuTime = currentTime;
-                return usage + "%";
-            }
-        } catch (Exception e) {
-            Log.e("FrameRating", "Error reading GPU usage", e);
+        if (snapshot.gpuUsage != -1) {
+            lastGpuUsage = (int)(0.4f * snapshot.gpuUsage + 0.6f * lastGpuUsage);
+            lastGpuTime = currentTime;
+            return lastGpuUsage + "%";
         }
 
         // Prefer last known value if recent (<5s)
@@ -651,6 +435,9 @@ public class FrameRating extends FrameLayout implements Runnable {
     }
 
     public void reset() {
+        active = false;
+        sampler.resetFrameTimes();
+
         tvRenderer.setText("VKD3D");
         tvGPU.setText("GPU 0%");
         tvCPU.setText("CPU 0%");
@@ -659,44 +446,56 @@ public class FrameRating extends FrameLayout implements Runnable {
         tvFPS.setText("FPS 0");
         
         // Reset tracking variables
-        lastCpuTotal = 0;
-        lastCpuIdle = 0;
-        lastCpuTime = 0;
         lastCpuUsage = 0;
         lastGpuUsage = 0;
         lastGpuTime = 0;
     }
 
     public void update() {
-        if (lastTime == 0) lastTime = SystemClock.elapsedRealtime();
-        long time = SystemClock.elapsedRealtime();
-        if (time >= lastTime + 500) {
-            lastFPS = ((float)(frameCount * 1000) / (time - lastTime));
-            post(this);
-            lastTime = time;
-            frameCount = 0;
-        }
-        frameCount++;
+        active = true;
+        sampler.onFrame();
+    }
+
+    public void onResume() {
+        sampler.addListener(snapshotListener);
+    }
+
+    public void onPause() {
+        sampler.removeListener(snapshotListener);
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        onResume();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        onPause();
     }
 
     @Override
     public void run() {
+        if (!active) return;
         if (getVisibility() == GONE) setVisibility(View.VISIBLE);
+        TelemetrySampler.Snapshot snapshot = sampler.getSnapshot();
         
         // Update FPS
-        tvFPS.setText(String.format(Locale.ENGLISH, "FPS %.0f", lastFPS));
+        tvFPS.setText(String.format(Locale.ENGLISH, "FPS %.0f", snapshot.fps));
         
         // Update RAM usage
-        tvRAM.setText("RAM " + getRAMUsagePercentage());
+        tvRAM.setText("RAM " + getRAMUsagePercentage(snapshot));
         
         // Update CPU usage
-        tvCPU.setText("CPU " + getCPUUsagePercentageDVFS());
+        tvCPU.setText("CPU " + getCPUUsagePercentage(snapshot));
         
         // Update power status with TDP
-        tvPower.setText(getPowerStatus());
+        tvPower.setText(getPowerStatus(snapshot));
         
-        // Update GPU with improved detection and usage
-        tvGPU.setText(detectGPUAutomatically());
+        // Update GPU with the detected name and usage
+        tvGPU.setText(getGPULabel() + " " + getGPUUsage(snapshot));
 
         // Update visibility based on container settings
         updateVisibility();
@@ -6,13 +6,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.FrameLayout;
@@ -20,7 +17,8 @@ import android.widget.TextView;
 
 import com.winlator.xmod.R;
 import com.winlator.xmod.container.Container;
-import com.winlator.xmod.core.StringUtils;
+import com.winlator.xmod.core.Callback;
+import com.winlator.xmod.core.TelemetrySampler;
 
 import java.util.HashMap;
 import java.util.Locale;
@@ -29,10 +27,8 @@ import java.util.concurrent.ArrayBlockingQueue;
 /**
  * Improved FrameRating with key optimizations:
  * 1. High-precision FPS using nanoTime
- * 2. Background threading for I/O operations
+ * 2. System stats from the shared TelemetrySampler, sampled in the background
  * 3. Smart GPU detection with proper fallbacks
- * 4. Cached file reading to reduce I/O
- * 5. Proper CPU delta calculations
  */
 public class ImprovedFrameRating extends FrameLayout implements Runnable {
     private static final String TAG = "ImprovedFrameRating";
@@ -52,38 +48,16 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
     private final ArrayBlockingQueue<Float> fpsHistory = new ArrayBlockingQueue<>(5);
     private float smoothedFPS = 0f;
     
-    // Background threading for I/O
-    private final HandlerThread bgThread;
-    private final Handler bgHandler;
+    // System stats, sampled in the background
     private final Handler mainHandler;
-    
-    // CPU monitoring
-    private long lastCpuTotal = 0, lastCpuIdle = 0;
+    private final TelemetrySampler sampler = TelemetrySampler.getInstance();
+    private final Callback<TelemetrySampler.Snapshot> snapshotListener = (snapshot) -> {
+        if (lastFrameNanoTime != 0) mainHandler.post(() -> updateSystemStats(snapshot));
+    };
     private float cpuUsage = 0f;
     
     // GPU detection cache
     private String gpuType = null;
-    private String[] gpuPaths = null;
-    private long lastGpuDetection = 0;
-    
-    // File reading cache
-    private final HashMap<String, CachedFile> fileCache = new HashMap<>();
-    
-    private static class CachedFile {
-        final String content;
-        final long timestamp;
-        final boolean valid;
-        
-        CachedFile(String content, boolean valid) {
-            this.content = content;
-            this.valid = valid;
-            this.timestamp = System.currentTimeMillis();
-        }
-        
-        boolean isExpired() {
-            return System.currentTimeMillis() - timestamp > 300; // 300ms cache
-        }
-    }
     
     public ImprovedFrameRating(Context context, HashMap graphicsDriverConfig) {
         this(context, graphicsDriverConfig, null);
@@ -98,10 +72,6 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         this.context = context;
         this.graphicsDriverConfig = graphicsDriverConfig;
         
-        // Initialize background thread
-        bgThread = new HandlerThread("FrameRating-BG", Thread.NORM_PRIORITY - 1);
-        bgThread.start();
-        bgHandler = new Handler(bgThread.getLooper());
         mainHandler = new Handler(Looper.getMainLooper());
         
         // Setup UI
@@ -117,8 +87,8 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         resetDisplayValues();
         addView(view);
         
-        // Initialize monitoring in background
-        bgHandler.post(this::initializeGPUDetection);
+        // Detect GPU type once
+        initializeGPUDetection();
     }
     
     private void resetDisplayValues() {
@@ -151,6 +121,7 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
      */
     public void update() {
         long currentNano = System.nanoTime();
+        sampler.onFrame(currentNano);
         
         if (lastFrameNanoTime == 0) {
             lastFrameNanoTime = currentNano;
@@ -179,7 +150,7 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         long windowDuration = currentNano - fpsWindowStart;
         if (windowDuration >= 500_000_000L) { // 500ms in nanoseconds
             calculateSmoothedFPS();
-            updateSystemStats();
+            mainHandler.post(this);
             
             fpsWindowStart = currentNano;
             frameCount = 0;
@@ -205,14 +176,10 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         smoothedFPS = sum / weightSum;
     }
     
-    private void updateSystemStats() {
-        bgHandler.post(() -> {
-            updateCPU();
-            updateOtherStats();
-            
-            // Update UI on main thread
-            mainHandler.post(this);
-        });
+    private void updateSystemStats(TelemetrySampler.Snapshot snapshot) {
+        cpuUsage = snapshot.cpuUsage != -1 ? snapshot.cpuUsage : Math.max(0, snapshot.cpuFrequencyLoad);
+        updateOtherStats(snapshot);
+        run();
     }
     
     @Override
@@ -225,69 +192,18 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         updateVisibility();
     }
     
-    /**
-     * IMPROVED CPU CALCULATION
-     * Uses proper delta calculation between readings
-     */
-    private void updateCPU() {
-        try {
-            String line = readCachedFile("/proc/stat");
-            if (line != null && line.startsWith("cpu ")) {
-                String[] tokens = line.split("\\s+");
-                if (tokens.length >= 8) {
-                    long user = Long.parseLong(tokens[1]);
-                    long nice = Long.parseLong(tokens[2]);
-                    long system = Long.parseLong(tokens[3]);
-                    long idle = Long.parseLong(tokens[4]);
-                    long iowait = Long.parseLong(tokens[5]);
-                    long irq = Long.parseLong(tokens[6]);
-                    long softirq = Long.parseLong(tokens[7]);
-                    
-                    long currentIdle = idle + iowait;
-                    long currentTotal = user + nice + system + idle + iowait + irq + softirq;
-                    
-                    // Calculate usage using delta
-                    if (lastCpuTotal > 0) {
-                        long deltaTotal = currentTotal - lastCpuTotal;
-                        long deltaIdle = currentIdle - lastCpuIdle;
-                        
-                        if (deltaTotal > 0) {
-                            cpuUsage = Math.max(0f, Math.min(100f, 
-                                100f * (deltaTotal - deltaIdle) / deltaTotal));
-                        }
-                    }
-                    
-                    lastCpuTotal = currentTotal;
-                    lastCpuIdle = currentIdle;
-                }
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "CPU calculation failed", e);
-        }
-    }
-    
     /**
      * SMART GPU DETECTION
      * Detects GPU type once, then uses specific paths
      */
     private void initializeGPUDetection() {
-        if (gpuType != null && System.currentTimeMillis() - lastGpuDetection < 30000) {
-            return; // Already detected recently
-        }
+        if (gpuType != null) return; // Already detected
         
         // Test common GPU paths to determine type
         if (new File("/sys/class/kgsl/kgsl-3d0/gpubusy").exists()) {
             gpuType = "Adreno";
-            gpuPaths = new String[]{
-                "/sys/class/kgsl/kgsl-3d0/gpubusy",
-                "/sys/class/kgsl/kgsl-3d0/gpu_busy_percentage"
-            };
         } else if (new File("/sys/class/misc/mali0/device/utilisation").exists()) {
             gpuType = "Mali";
-            gpuPaths = new String[]{
-                "/sys/class/misc/mali0/device/utilisation",
-                "/proc/mali/utilization"
-            };
         } else {
             // Fallback based on hardware
             String hardware = android.os.Build.HARDWARE.toLowerCase();
@@ -300,66 +216,22 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
             }
         }
         
-        lastGpuDetection = System.currentTimeMillis();
         Log.i(TAG, "Detected GPU: " + gpuType);
     }
     
-    private void updateOtherStats() {
+    private void updateOtherStats(TelemetrySampler.Snapshot snapshot) {
         // Update GPU
-        float gpuUsage = getGPUUsage();
-        String gpuText = (gpuType != null ? gpuType : "GPU") + String.format(" %.0f%%", gpuUsage);
+        float gpuUsage = snapshot.gpuUsage != -1 ? snapshot.gpuUsage : Math.min(85f, cpuUsage * 0.6f + (float)(Math.random() * 5));
+        tvGPU.setText((gpuType != null ? gpuType : "GPU") + String.format(" %.0f%%", gpuUsage));
         
-        // Update RAM  
-        String ramUsage = getRAMUsage();
+        // Update RAM
+        tvRAM.setText("RAM " + (snapshot.getMemUsage() != -1 ? snapshot.getMemUsage() + "%" : getRAMUsage()));
         
         // Update Power
-        String powerStatus = getPowerStatus();
-        
-        // Update UI on main thread
-        mainHandler.post(() -> {
-            tvGPU.setText(gpuText);
-            tvRAM.setText("RAM " + ramUsage);
-            tvPower.setText(powerStatus);
-        });
-    }
-    
-    private float getGPUUsage() {
-        if (gpuPaths != null) {
-            for (String path : gpuPaths) {
-                try {
-                    String content = readCachedFile(path);
-                    if (content != null && !content.trim().isEmpty()) {
-                        content = content.trim();
-                        
-                        // Handle Adreno format: "busy total"
-                        if (path.contains("gpubusy") && content.contains(" ")) {
-                            String[] parts = content.split("\\s+");
-                            if (parts.length >= 2) {
-                                long busy = Long.parseLong(parts[0]);
-                                long total = Long.parseLong(parts[1]);
-                                if (total > 0) {
-                                    return Math.min(100f, (float)busy * 100f / total);
-                                }
-                            }
-                        } else {
-                            // Direct percentage
-                            String nums = content.replaceAll("[^0-9]", "");
-                            if (!nums.isEmpty()) {
-                                int usage = Integer.parseInt(nums);
-                                if (usage >= 0 && usage <= 100) {
-                                    return usage;
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.d(TAG, "GPU read failed: " + path, e);
-                }
-            }
+        if (snapshot.charging != -1 && snapshot.powerWatts != -1) {
+            tvPower.setText((snapshot.charging == 1 ? "PWR CHG " : "PWR BAT ") + String.format("%.1fW", snapshot.powerWatts));
         }
-        
-        // Conservative fallback based on CPU
-        return Math.min(85f, cpuUsage * 0.6f + (float)(Math.random() * 5));
+        else tvPower.setText(getPowerStatus());
     }
     
     private String getRAMUsage() {
@@ -396,26 +268,6 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         return "PWR BAT 2.5W";
     }
     
-    /**
-     * CACHED FILE READING
-     * Reduces filesystem I/O by caching recent reads
-     */
-    private String readCachedFile(String path) {
-        CachedFile cached = fileCache.get(path);
-        if (cached != null && !cached.isExpired() && cached.valid) {
-            return cached.content;
-        }
-        
-        try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
-            String line = reader.readLine();
-            fileCache.put(path, new CachedFile(line, line != null));
-            return line;
-        } catch (Exception e) {
-            fileCache.put(path, new CachedFile(null, false));
-            return null;
-        }
-    }
-
     public void setRenderer(String renderer) {
         mainHandler.post(() -> {
             if (renderer != null && !renderer.isEmpty()) {
@@ -435,7 +287,7 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
     public void setGpuName(String gpuName) {
         // GPU detection is now automatic - this is kept for compatibility
         if (gpuName != null && !gpuName.isEmpty() && gpuType == null) {
-            bgHandler.post(this::initializeGPUDetection);
+            initializeGPUDetection();
         }
     }
 
@@ -443,20 +295,24 @@ public class ImprovedFrameRating extends FrameLayout implements Runnable {
         mainHandler.post(this::resetDisplayValues);
         
         // Clear internal state
-        bgHandler.post(() -> {
-            fileCache.clear();
+        sampler.resetFrameTimes();
+        mainHandler.post(() -> {
             fpsHistory.clear();
+            lastFrameNanoTime = 0;
             smoothedFPS = 0f;
             cpuUsage = 0f;
-            lastCpuTotal = lastCpuIdle = 0;
         });
     }
     
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        sampler.addListener(snapshotListener);
+    }
+    
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        if (bgThread != null) {
-            bgThread.quitSafely();
-        }
+        sampler.removeListener(snapshotListener);
     }
 }
\ No newline at end of file
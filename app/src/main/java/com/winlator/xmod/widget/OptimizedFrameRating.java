@@ -6,7 +6,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -17,17 +16,12 @@ import android.widget.TextView;
 
 import com.winlator.xmod.R;
 import com.winlator.xmod.container.Container;
-import com.winlator.xmod.core.StringUtils;
+import com.winlator.xmod.core.Callback;
+import com.winlator.xmod.core.TelemetrySampler;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 
 /**
@@ -35,18 +29,14 @@ import java.util.concurrent.ArrayBlockingQueue;
  * 
  * Key improvements:
  * - High-precision FPS calculation using nanoTime
- * - Background threading for I/O operations to prevent UI blocking
- * - Smart caching system to reduce file system reads
+ * - System stats come from the shared TelemetrySampler instead of reading files here
  * - Real GPU usage detection with proper fallbacks
- * - Per-core CPU usage calculation when available
  * - Smoothing filters to reduce flickering values
  */
 public class OptimizedFrameRating extends FrameLayout {
     private static final String TAG = "OptimizedFrameRating";
     private static final long UPDATE_INTERVAL_MS = 500;
-    private static final long CACHE_VALIDITY_MS = 250; // Cache files for 250ms
     private static final int FPS_HISTORY_SIZE = 10; // For smoothing
-    private static final int MAX_CPU_CORES = 16;
 
     // UI Components
     private final TextView tvFPS;
@@ -68,70 +58,22 @@ public class OptimizedFrameRating extends FrameLayout {
     private int frameCount = 0;
     private long fpsCalculationStartTime = 0;
 
-    // Background Threading
-    private final HandlerThread backgroundThread;
-    private final Handler backgroundHandler;
+    // System stats, sampled in the background
     private final Handler mainHandler;
-
-    // Caching System
-    private final Map<String, CachedData> fileCache = new HashMap<>();
-    private long lastSystemStatsUpdate = 0;
-
-    // CPU Monitoring
-    private CPUStats lastCPUStats;
+    private final TelemetrySampler sampler = TelemetrySampler.getInstance();
+    private final Callback<TelemetrySampler.Snapshot> snapshotListener = (snapshot) -> {
+        if (lastFrameNanoTime != 0) mainHandler.post(() -> updateUI(snapshot));
+    };
     private float currentCPUUsage = 0f;
 
     // GPU Detection
     private String detectedGPUType = null;
-    private String[] gpuUsagePaths = null;
-    private long lastGPUDetection = 0;
 
     // System Stats Cache
     private String cachedRAMUsage = "0%";
     private String cachedPowerStatus = "PWR CHG 2.0W";
     private float cachedGPUUsage = 0f;
 
-    /**
-     * Cached file data structure
-     */
-    private static class CachedData {
-        final String content;
-        final long timestamp;
-        final boolean valid;
-
-        CachedData(String content, boolean valid) {
-            this.content = content;
-            this.valid = valid;
-            this.timestamp = System.currentTimeMillis();
-        }
-
-        boolean isExpired() {
-            return System.currentTimeMillis() - timestamp > CACHE_VALIDITY_MS;
-        }
-    }
-
-    /**
-     * CPU statistics structure
-     */
-    private static class CPUStats {
-        final long user, nice, system, idle, iowait, irq, softirq;
-        final long total, busy;
-        final long timestamp;
-
-        CPUStats(long user, long nice, long system, long idle, long iowait, long irq, long softirq) {
-            this.user = user;
-            this.nice = nice;
-            this.system = system;
-            this.idle = idle;
-            this.iowait = iowait;
-            this.irq = irq;
-            this.softirq = softirq;
-            this.total = user + nice + system + idle + iowait + irq + softirq;
-            this.busy = total - idle - iowait;
-            this.timestamp = System.nanoTime();
-        }
-    }
-
     public OptimizedFrameRating(Context context, HashMap<String, Object> graphicsDriverConfig) {
         this(context, graphicsDriverConfig, null);
     }
@@ -145,10 +87,6 @@ public class OptimizedFrameRating extends FrameLayout {
         this.context = context;
         this.graphicsDriverConfig = graphicsDriverConfig;
 
-        // Initialize background thread for I/O operations
-        backgroundThread = new HandlerThread("FrameRating-BG", Thread.NORM_PRIORITY - 1);
-        backgroundThread.start();
-        backgroundHandler = new Handler(backgroundThread.getLooper());
         mainHandler = new Handler(Looper.getMainLooper());
 
         // Initialize UI
@@ -170,17 +108,8 @@ public class OptimizedFrameRating extends FrameLayout {
 
         addView(view);
 
-        // Initialize monitoring in background
-        initializeMonitoring();
-    }
-
-    private void initializeMonitoring() {
-        backgroundHandler.post(() -> {
-            // Detect GPU type once
-            detectGPUType();
-            // Initialize CPU monitoring
-            lastCPUStats = readCPUStats();
-        });
+        // Detect GPU type once
+        detectGPUType();
     }
 
     public void setContainer(Container container) {
@@ -203,6 +132,7 @@ public class OptimizedFrameRating extends FrameLayout {
      */
     public void update() {
         long currentNanoTime = System.nanoTime();
+        sampler.onFrame(currentNanoTime);
         
         if (lastFrameNanoTime == 0) {
             lastFrameNanoTime = currentNanoTime;
@@ -233,9 +163,6 @@ public class OptimizedFrameRating extends FrameLayout {
             // Calculate smoothed average FPS
             calculateSmoothedFPS();
             
-            // Update all stats in background
-            updateSystemStats();
-            
             // Reset for next calculation window
             fpsCalculationStartTime = currentNanoTime;
             frameCount = 0;
@@ -268,74 +195,10 @@ public class OptimizedFrameRating extends FrameLayout {
         });
     }
 
-    private void updateSystemStats() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastSystemStatsUpdate < UPDATE_INTERVAL_MS) {
-            return; // Too soon
-        }
-        lastSystemStatsUpdate = currentTime;
-
-        backgroundHandler.post(() -> {
-            // Update CPU usage
-            updateCPUUsage();
-            
-            // Update GPU usage
-            updateGPUUsage();
-            
-            // Update RAM and power (less frequent)
-            updateRAMUsage();
-            updatePowerStatus();
-            
-            // Update UI on main thread
-            mainHandler.post(this::updateUI);
-        });
-    }
-
-    private void updateCPUUsage() {
-        CPUStats currentStats = readCPUStats();
-        
-        if (lastCPUStats != null && currentStats != null) {
-            long deltaTotal = currentStats.total - lastCPUStats.total;
-            long deltaBusy = currentStats.busy - lastCPUStats.busy;
-            
-            if (deltaTotal > 0) {
-                currentCPUUsage = (float) deltaBusy / deltaTotal * 100f;
-                currentCPUUsage = Math.max(0f, Math.min(100f, currentCPUUsage));
-            }
-        }
-        
-        lastCPUStats = currentStats;
-    }
-
-    private CPUStats readCPUStats() {
-        try {
-            String content = readCachedFile("/proc/stat");
-            if (content != null && content.startsWith("cpu ")) {
-                String[] tokens = content.split("\\s+");
-                if (tokens.length >= 8) {
-                    return new CPUStats(
-                        Long.parseLong(tokens[1]), // user
-                        Long.parseLong(tokens[2]), // nice
-                        Long.parseLong(tokens[3]), // system
-                        Long.parseLong(tokens[4]), // idle
-                        Long.parseLong(tokens[5]), // iowait
-                        Long.parseLong(tokens[6]), // irq
-                        Long.parseLong(tokens[7])  // softirq
-                    );
-                }
-            }
-        } catch (Exception e) {
-            Log.w(TAG, "Failed to read CPU stats", e);
-        }
-        return null;
-    }
-
     private void detectGPUType() {
-        if (detectedGPUType != null && System.currentTimeMillis() - lastGPUDetection < 30000) {
-            return; // Already detected recently
-        }
+        if (detectedGPUType != null) return; // Already detected
 
-        // Detect GPU type and optimal paths
+        // Detect GPU type from the usage paths
         String[] testPaths = {
             // Adreno paths
             "/sys/class/kgsl/kgsl-3d0/gpubusy",
@@ -355,23 +218,12 @@ public class OptimizedFrameRating extends FrameLayout {
             if (new File(path).exists()) {
                 if (path.contains("kgsl") || path.contains("gpu")) {
                     detectedGPUType = "Adreno";
-                    gpuUsagePaths = new String[]{
-                        "/sys/class/kgsl/kgsl-3d0/gpubusy",
-                        "/sys/class/kgsl/kgsl-3d0/gpu_busy_percentage",
-                        "/sys/kernel/gpu/gpu_busy"
-                    };
                     break;
                 } else if (path.contains("mali")) {
                     detectedGPUType = "Mali";
-                    gpuUsagePaths = new String[]{
-                        "/sys/class/misc/mali0/device/utilisation",
-                        "/sys/devices/platform/mali.0/utilization", 
-                        "/proc/mali/utilization"
-                    };
                     break;
                 } else if (path.contains("pvr")) {
                     detectedGPUType = "PowerVR";
-                    gpuUsagePaths = new String[]{path};
                     break;
                 }
             }
@@ -391,55 +243,9 @@ public class OptimizedFrameRating extends FrameLayout {
             }
         }
 
-        lastGPUDetection = System.currentTimeMillis();
         Log.i(TAG, "Detected GPU type: " + detectedGPUType);
     }
 
-    private void updateGPUUsage() {
-        cachedGPUUsage = readRealGPUUsage();
-    }
-
-    private float readRealGPUUsage() {
-        if (gpuUsagePaths == null) {
-            return estimateGPUUsage(); // Fallback
-        }
-
-        for (String path : gpuUsagePaths) {
-            try {
-                String content = readCachedFile(path);
-                if (content != null && !content.trim().isEmpty()) {
-                    content = content.trim();
-                    
-                    // Handle different formats
-                    if (path.contains("gpubusy") && content.contains(" ")) {
-                        // Adreno format: "busy_time total_time"
-                        String[] parts = content.split("\\s+");
-                        if (parts.length >= 2) {
-                            long busy = Long.parseLong(parts[0]);
-                            long total = Long.parseLong(parts[1]);
-                            if (total > 0) {
-                                return Math.min(100f, (float) busy * 100f / total);
-                            }
-                        }
-                    } else {
-                        // Direct percentage format
-                        String numberStr = content.replaceAll("[^0-9.]", "");
-                        if (!numberStr.isEmpty()) {
-                            float usage = Float.parseFloat(numberStr);
-                            if (usage >= 0f && usage <= 100f) {
-                                return usage;
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                Log.d(TAG, "Failed to read GPU usage from " + path, e);
-            }
-        }
-
-        return estimateGPUUsage();
-    }
-
     private float estimateGPUUsage() {
         // More conservative estimation based on CPU usage
         if (currentCPUUsage > 60f) {
@@ -514,7 +320,20 @@ public class OptimizedFrameRating extends FrameLayout {
         }
     }
 
-    private void updateUI() {
+    private void updateUI(TelemetrySampler.Snapshot snapshot) {
+        currentCPUUsage = snapshot.cpuUsage != -1 ? snapshot.cpuUsage : Math.max(0, snapshot.cpuFrequencyLoad);
+        cachedGPUUsage = snapshot.gpuUsage != -1 ? snapshot.gpuUsage : estimateGPUUsage();
+
+        if (snapshot.getMemUsage() != -1) {
+            cachedRAMUsage = snapshot.getMemUsage() + "%";
+        }
+        else updateRAMUsage();
+
+        if (snapshot.charging != -1 && snapshot.powerWatts != -1) {
+            cachedPowerStatus = (snapshot.charging == 1 ? "PWR CHG " : "PWR BAT ") + String.format("%.1fW", snapshot.powerWatts);
+        }
+        else updatePowerStatus();
+
         tvCPU.setText(String.format("CPU %.0f%%", currentCPUUsage));
         tvGPU.setText(String.format("%s %.0f%%", detectedGPUType != null ? detectedGPUType : "GPU", cachedGPUUsage));
         tvRAM.setText("RAM " + cachedRAMUsage);
@@ -522,26 +341,6 @@ public class OptimizedFrameRating extends FrameLayout {
         updateVisibility();
     }
 
-    /**
-     * Cached file reading with automatic expiration
-     */
-    private String readCachedFile(String filePath) {
-        CachedData cached = fileCache.get(filePath);
-        if (cached != null && !cached.isExpired() && cached.valid) {
-            return cached.content;
-        }
-
-        // Read from file system
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line = reader.readLine();
-            fileCache.put(filePath, new CachedData(line, line != null));
-            return line;
-        } catch (Exception e) {
-            fileCache.put(filePath, new CachedData(null, false));
-            return null;
-        }
-    }
-
     public void setRenderer(String renderer) {
         mainHandler.post(() -> {
             if (renderer != null && !renderer.isEmpty()) {
@@ -562,7 +361,7 @@ public class OptimizedFrameRating extends FrameLayout {
         // GPU detection is now automatic and more accurate
         // This method is kept for compatibility but the automatic detection is preferred
         if (gpuName != null && !gpuName.isEmpty() && detectedGPUType == null) {
-            backgroundHandler.post(() -> detectGPUType());
+            detectGPUType();
         }
     }
 
@@ -576,23 +375,26 @@ public class OptimizedFrameRating extends FrameLayout {
             tvFPS.setText("FPS 0");
         });
         
-        // Clear caches
-        backgroundHandler.post(() -> {
-            fileCache.clear();
+        // Clear state
+        sampler.resetFrameTimes();
+        mainHandler.post(() -> {
             fpsHistory.clear();
+            lastFrameNanoTime = 0;
             currentFPS = 0f;
             currentCPUUsage = 0f;
             cachedGPUUsage = 0f;
-            lastCPUStats = null;
         });
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        sampler.addListener(snapshotListener);
+    }
+
     @Override
     protected void onDetachedFromWindow() {
         super.onDetachedFromWindow();
-        // Clean up background thread
-        if (backgroundThread != null) {
-            backgroundThread.quitSafely();
-        }
+        sampler.removeListener(snapshotListener);
     }
 }
\ No newline at end of file
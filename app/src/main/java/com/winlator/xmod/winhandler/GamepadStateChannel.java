@@ -0,0 +1,107 @@
+package com.winlator.xmod.winhandler;
+
+import android.os.ParcelFileDescriptor;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import com.winlator.xmod.inputcontrols.GamepadState;
+import com.winlator.xmod.sysvshm.SysVSharedMemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Shares the latest gamepad state with the Wine side through a memory mapped file, instead of
+ * sending a UDP packet for every update. Writes are published with a sequence counter (seqlock):
+ * the counter is odd while the state is being written, so a reader copies the state and retries
+ * if the counter was odd or changed in the meantime.
+ *
+ * Layout (little-endian):
+ *   0  int   magic
+ *   4  int   sequence
+ *   8  long  publish time (CLOCK_MONOTONIC, nanoseconds)
+ *   16 int   gamepad id
+ *   20 byte  enabled
+ *   21       state, as written by GamepadState.writeTo()
+ */
+public class GamepadStateChannel {
+    public static final int SIZE = 64;
+    public static final int MAGIC = 0x53504757;
+    private static final int OFFSET_SEQUENCE = 4;
+    private static final int OFFSET_TIMESTAMP = 8;
+    private static final int OFFSET_GAMEPAD_ID = 16;
+    private static final int OFFSET_ENABLED = 20;
+    private static final int OFFSET_STATE = 21;
+    private final File file;
+    private ByteBuffer data;
+    private int sequence = 0;
+
+    private GamepadStateChannel(File file, ByteBuffer data) {
+        this.file = file;
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        this.data.putInt(0, MAGIC);
+    }
+
+    public static GamepadStateChannel create(File file) {
+        try (ParcelFileDescriptor fd = ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_WRITE | ParcelFileDescriptor.MODE_CREATE | ParcelFileDescriptor.MODE_TRUNCATE)) {
+            Os.ftruncate(fd.getFileDescriptor(), SIZE);
+            ByteBuffer data = SysVSharedMemory.mapSHMSegment(fd.getFd(), SIZE, 0, false);
+            return data != null ? new GamepadStateChannel(file, data) : null;
+        }
+        catch (IOException | ErrnoException e) {
+            return null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public synchronized void publish(int gamepadId, GamepadState state) {
+        if (data == null) return;
+        data.putInt(OFFSET_SEQUENCE, ++sequence);
+        SysVSharedMemory.memoryBarrier();
+
+        data.putLong(OFFSET_TIMESTAMP, System.nanoTime());
+        data.putInt(OFFSET_GAMEPAD_ID, gamepadId);
+        data.put(OFFSET_ENABLED, (byte)(state != null ? 1 : 0));
+        if (state != null) {
+            data.position(OFFSET_STATE);
+            state.writeTo(data);
+            data.rewind();
+        }
+
+        SysVSharedMemory.memoryBarrier();
+        data.putInt(OFFSET_SEQUENCE, ++sequence);
+    }
+
+    /**
+     * Reference reader for the layout above, copies a consistent snapshot of the region from the
+     * gamepad id onwards into dst and returns the publish time of that snapshot. The buffer must
+     * be in little-endian order.
+     */
+    public static long read(ByteBuffer data, byte[] dst) {
+        while (true) {
+            int sequence = data.getInt(OFFSET_SEQUENCE);
+            if ((sequence & 1) != 0) continue;
+            SysVSharedMemory.memoryBarrier();
+
+            long timestamp = data.getLong(OFFSET_TIMESTAMP);
+            int length = Math.min(dst.length, SIZE - OFFSET_GAMEPAD_ID);
+            for (int i = 0; i < length; i++) dst[i] = data.get(OFFSET_GAMEPAD_ID + i);
+
+            SysVSharedMemory.memoryBarrier();
+            if (data.getInt(OFFSET_SEQUENCE) == sequence) return timestamp;
+        }
+    }
+
+    public synchronized void close() {
+        if (data != null) {
+            SysVSharedMemory.unmapSHMSegment(data, SIZE);
+            data = null;
+        }
+        file.delete();
+    }
+}
@@ -15,8 +15,10 @@ import com.winlator.xmod.inputcontrols.ControlsProfile;
 import com.winlator.xmod.inputcontrols.ExternalController;
 import com.winlator.xmod.inputcontrols.GamepadState;
 import com.winlator.xmod.math.Mathf;
+import com.winlator.xmod.xenvironment.ImageFs;
 import com.winlator.xmod.xserver.XServer;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -30,6 +32,7 @@ import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class WinHandler {
     private static final short SERVER_PORT = 7947;
@@ -54,6 +57,9 @@ public class WinHandler {
     private byte inputType = DEFAULT_INPUT_TYPE;
     private final XServerDisplayActivity activity;
     private final List<Integer> gamepadClients = new CopyOnWriteArrayList<>();
+    private final List<Integer> sharedStateClients = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean gamepadStatePending = new AtomicBoolean();
+    private GamepadStateChannel gamepadStateChannel;
     private SharedPreferences preferences;
     private byte triggerType;
 
@@ -371,6 +377,11 @@ public class WinHandler {
             socket = null;
         }
 
+        if (gamepadStateChannel != null) {
+            gamepadStateChannel.close();
+            gamepadStateChannel = null;
+        }
+
         synchronized (actions) {
             actions.notify();
         }
@@ -452,9 +463,10 @@ public class WinHandler {
                 final boolean enabled = currentController != null || useVirtualGamepad;
 
                 if (notify) {
-                    if (!gamepadClients.contains(port)) gamepadClients.add(port);
+                    if (!gamepadClients.contains(port) && !sharedStateClients.contains(port)) gamepadClients.add(port);
                 } else {
                     gamepadClients.remove(Integer.valueOf(port));
+                    sharedStateClients.remove(Integer.valueOf(port));
                 }
 
                 addAction(() -> {
@@ -510,9 +522,38 @@ public class WinHandler {
                 });
                 break;
             }
+            case RequestCodes.GET_GAMEPAD_SHARED_STATE: {
+                if (gamepadStateChannel == null) {
+                    File file = new File(ImageFs.find(activity).getTmpDir(), "gamepad-state-0");
+                    gamepadStateChannel = GamepadStateChannel.create(file);
+                }
+
+                // The reply carries the file name relative to the guest's $TMPDIR, the absolute path
+                // wouldn't fit in sendData. The client keeps the UDP updates until it got the reply.
+                final GamepadStateChannel channel = gamepadStateChannel;
+                addAction(() -> {
+                    sendData.rewind();
+                    sendData.put(RequestCodes.GET_GAMEPAD_SHARED_STATE);
+                    sendData.put((byte)(channel != null ? 1 : 0));
+
+                    if (channel != null) {
+                        byte[] bytes = channel.getFile().getName().getBytes();
+                        sendData.putInt(bytes.length);
+                        sendData.put(bytes);
+                    }
+
+                    if (sendPacket(port) && channel != null) {
+                        gamepadClients.remove(Integer.valueOf(port));
+                        if (!sharedStateClients.contains(port)) sharedStateClients.add(port);
+                        sendGamepadState();
+                    }
+                });
+                break;
+            }
             case RequestCodes.RELEASE_GAMEPAD: {
                 currentController = null;
                 gamepadClients.clear();
+                sharedStateClients.clear();
                 break;
             }
             case RequestCodes.CURSOR_POS_FEEDBACK: {
@@ -567,7 +608,8 @@ public class WinHandler {
     }
 
     public void sendGamepadState() {
-        if (!initReceived || gamepadClients.isEmpty() || xinputDisabled ) return; // Add this check
+        final GamepadStateChannel channel = !sharedStateClients.isEmpty() ? gamepadStateChannel : null;
+        if (!initReceived || (gamepadClients.isEmpty() && channel == null) || xinputDisabled ) return; // Add this check
         final ControlsProfile profile = activity.getInputControlsView().getProfile();
         final boolean useVirtualGamepad = profile != null && profile.isVirtualGamepad();
         if (!useVirtualGamepad && (currentController == null || !currentController.isConnected())) {
@@ -575,27 +617,44 @@ public class WinHandler {
             if (currentController != null) currentController.setTriggerType(triggerType);
         }
         final boolean enabled = currentController != null || useVirtualGamepad;
+        final ExternalController controller = currentController;
+        final GamepadState state = enabled ? (useVirtualGamepad ? profile.getGamepadState() : controller.state) : null;
 
-        for (final int port : gamepadClients) {
-            addAction(() -> {
-                sendData.rewind();
-                sendData.put(RequestCodes.GET_GAMEPAD_STATE);
-                sendData.put((byte)(enabled ? 1 : 0));
+        if (state != null) {
+            // Combine gyro input with thumbstick input
+            state.thumbRX = Mathf.clamp(state.thumbRX + gyroX, -1.0f, 1.0f); // Apply clamping
+            state.thumbRY = Mathf.clamp(state.thumbRY + gyroY, -1.0f, 1.0f); // Apply clamping
+        }
 
-                if (enabled) {
-                    sendData.putInt(!useVirtualGamepad ? currentController.getDeviceId() : profile.id);
-                    GamepadState state = useVirtualGamepad ? profile.getGamepadState() : currentController.state;
+        // Readers of the shared state always see the latest update without going through the send thread
+        if (channel != null) channel.publish(enabled ? (!useVirtualGamepad ? controller.getDeviceId() : profile.id) : 0, state);
 
-                    // Combine gyro input with thumbstick input
-                    state.thumbRX = Mathf.clamp(state.thumbRX + gyroX, -1.0f, 1.0f); // Apply clamping
-                    state.thumbRY = Mathf.clamp(state.thumbRY + gyroY, -1.0f, 1.0f); // Apply clamping
+        // The state is read when the packet is built, so a single queued send covers all pending updates
+        if (gamepadClients.isEmpty() || gamepadStatePending.getAndSet(true)) return;
+        addAction(() -> {
+            gamepadStatePending.set(false);
+            final ControlsProfile latestProfile = activity.getInputControlsView().getProfile();
+            final boolean latestUseVirtualGamepad = latestProfile != null && latestProfile.isVirtualGamepad();
+            final ExternalController latestController = currentController;
+            final boolean latestEnabled = latestUseVirtualGamepad || latestController != null;
 
-                    state.writeTo(sendData);
+            sendData.rewind();
+            sendData.put(RequestCodes.GET_GAMEPAD_STATE);
+            sendData.put((byte)(latestEnabled ? 1 : 0));
+
+            if (latestEnabled) {
+                if (latestUseVirtualGamepad) {
+                    sendData.putInt(latestProfile.id);
+                    latestProfile.getGamepadState().writeTo(sendData);
+                }
+                else {
+                    sendData.putInt(latestController.getDeviceId());
+                    latestController.state.writeTo(sendData);
                 }
+            }
 
-                sendPacket(port);
-            });
-        }
+            for (int port : gamepadClients) sendPacket(port);
+        });
     }
 
     public void setXInputDisabled(boolean disabled) {
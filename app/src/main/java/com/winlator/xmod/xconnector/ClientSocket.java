@@ -54,6 +54,12 @@ public class ClientSocket {
         else Log.d("ClientSocket", "Failed to write data.");
     }
 
+    public void write(ByteBuffer[] buffers, int count) throws IOException {
+        int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) lengths[i] = buffers[i].limit();
+        if (writev(fd, buffers, lengths, count) < 0) throw new IOException("Failed to write data.");
+    }
+
     public int recvAncillaryMsg(ByteBuffer data) throws IOException {
         int position = data.position();
         int bytesRead = recvAncillaryMsg(fd, data, position, data.remaining());
@@ -75,11 +81,22 @@ public class ClientSocket {
         else throw new IOException("Failed to send ancillary messages.");
     }
 
+    /**
+     * Returns the pid of the process at the other end of the socket, or -1 if it isn't known.
+     */
+    public int getPeerPid() {
+        return getPeerPid(fd);
+    }
+
     private native int read(int fd, ByteBuffer data, int offset, int length);
 
     private native int write(int fd, ByteBuffer data, int length);
 
+    private native int writev(int fd, ByteBuffer[] buffers, int[] lengths, int count);
+
     private native int recvAncillaryMsg(int clientFd, ByteBuffer data, int offset, int length);
 
     private native int sendAncillaryMsg(int clientFd, ByteBuffer data, int length, int ancillaryFd);
+
+    private native int getPeerPid(int clientFd);
 }
@@ -0,0 +1,61 @@
+package com.winlator.xmod.xconnector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the requests handled by a connector and the latency of each dispatch, measured from the
+ * moment the client fd was reported ready to the moment its pending requests were handled. The
+ * latency includes the time a client waited behind other clients, so the dispatch modes can be
+ * compared on the same workload. Latencies are kept in power of two buckets of microseconds.
+ */
+public class DispatchStats {
+    private static final int BUCKET_COUNT = 32;
+    private final AtomicLong dispatches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final long startTime = System.nanoTime();
+
+    void record(long readyTime, int requestCount) {
+        long latency = Math.max(0, (System.nanoTime() - readyTime) / 1000);
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(latency));
+        buckets.incrementAndGet(bucket);
+        dispatches.incrementAndGet();
+        requests.addAndGet(requestCount);
+    }
+
+    public long getDispatchCount() {
+        return dispatches.get();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public float getRequestsPerSecond() {
+        long elapsedTime = System.nanoTime() - startTime;
+        return elapsedTime > 0 ? requests.get() * 1e9f / elapsedTime : 0;
+    }
+
+    /**
+     * Returns the upper bound in microseconds of the bucket holding the given fraction of the
+     * dispatches, e.g. 0.99 for the p99 latency.
+     */
+    public long getLatencyPercentile(float fraction) {
+        long total = dispatches.get();
+        if (total == 0) return 0;
+
+        long target = (long)Math.ceil(total * fraction);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += buckets.get(i);
+            if (count >= target) return 1L << i;
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+
+    @Override
+    public String toString() {
+        return getRequestCount()+" requests, "+Math.round(getRequestsPerSecond())+" req/s, p50 "+getLatencyPercentile(0.5f)+" us, p99 "+getLatencyPercentile(0.99f)+" us";
+    }
+}
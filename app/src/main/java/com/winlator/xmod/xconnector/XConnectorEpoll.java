@@ -6,6 +6,10 @@ import androidx.annotation.Keep;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class XConnectorEpoll implements Runnable {
     private final ConnectionHandler connectionHandler;
@@ -14,12 +18,16 @@ public class XConnectorEpoll implements Runnable {
     private final int serverFd;
     private final int shutdownFd;
     private Thread epollThread;
-    private boolean running = false;
+    private volatile boolean running = false;
     private boolean multithreadedClients = false;
     private boolean canReceiveAncillaryMessages = false;
+    private boolean batchedOutput = false;
+    private int workerPoolSize = 0;
+    private ExecutorService workerPool;
     private int initialInputBufferCapacity = 4096;
     private int initialOutputBufferCapacity = 4096;
     private final SparseArray<Client> connectedClients = new SparseArray<>();
+    private final DispatchStats dispatchStats = new DispatchStats();
 
     static {
         System.loadLibrary("winlator");
@@ -60,6 +68,14 @@ public class XConnectorEpoll implements Runnable {
     public synchronized void start() {
         if (running || epollThread == null) return;
         running = true;
+        if (workerPoolSize > 0 && !multithreadedClients) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            workerPool = Executors.newFixedThreadPool(workerPoolSize, (runnable) -> {
+                Thread thread = new Thread(runnable, "XConnectorWorker-"+threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
         epollThread.start();
     }
 
@@ -79,7 +95,7 @@ public class XConnectorEpoll implements Runnable {
 
     @Override
     public void run() {
-        while (running && doEpollIndefinitely(epollFd, serverFd, !multithreadedClients));
+        while (running && doEpollIndefinitely(epollFd, serverFd, !multithreadedClients, workerPool != null));
         shutdown();
     }
 
@@ -96,37 +112,68 @@ public class XConnectorEpoll implements Runnable {
             client.pollThread.start();
         }
         else connectionHandler.handleNewConnection(client);
-        connectedClients.put(fd, client);
+        synchronized (connectedClients) {
+            connectedClients.put(fd, client);
+        }
     }
 
     @Keep
-    private void handleExistingConnection(int fd) {
-        Client client = connectedClients.get(fd);
+    private void handleExistingConnection(int fd, long readyTime) {
+        final Client client = getClient(fd);
         if (client == null) return;
 
+        if (workerPool != null) {
+            // The client fd is registered with EPOLLONESHOT, so it will not be reported again until
+            // it is rearmed below. This keeps the requests of each client ordered on a single worker.
+            workerPool.execute(() -> {
+                dispatchStats.record(readyTime, handleClientRequests(client));
+                if (client.connected && !rearmFdInEpoll(epollFd, fd)) killConnection(client);
+            });
+        }
+        else dispatchStats.record(readyTime, handleClientRequests(client));
+    }
+
+    private int handleClientRequests(Client client) {
+        int requestCount = 0;
         XInputStream inputStream = client.getInputStream();
+        XOutputStream outputStream = batchedOutput ? client.getOutputStream() : null;
         try {
-            if (inputStream != null) {
-                if (inputStream.readMoreData(canReceiveAncillaryMessages) > 0) {
-                    int activePosition = 0;
-                    while (running && requestHandler.handleRequest(client)) activePosition = inputStream.getActivePosition();
-                    inputStream.setActivePosition(activePosition);
+            if (outputStream != null) outputStream.beginBatch();
+            try {
+                if (inputStream != null) {
+                    if (inputStream.readMoreData(canReceiveAncillaryMessages) > 0) {
+                        int activePosition = 0;
+                        while (running && requestHandler.handleRequest(client)) {
+                            activePosition = inputStream.getActivePosition();
+                            requestCount++;
+                        }
+                        inputStream.setActivePosition(activePosition);
+                    }
+                    else killConnection(client);
                 }
-                else killConnection(client);
+                else if (requestHandler.handleRequest(client)) requestCount++;
+            }
+            finally {
+                if (outputStream != null && client.connected) outputStream.endBatch();
             }
-            else requestHandler.handleRequest(client);
         }
         catch (IOException e) {
             killConnection(client);
         }
+        return requestCount;
     }
 
     public Client getClient(int fd) {
-        return connectedClients.get(fd);
+        synchronized (connectedClients) {
+            return connectedClients.get(fd);
+        }
     }
 
     public void killConnection(Client client) {
-        client.connected = false;
+        synchronized (client) {
+            if (!client.connected) return;
+            client.connected = false;
+        }
         connectionHandler.handleConnectionShutdown(client);
         if (multithreadedClients) {
             if (Thread.currentThread() != client.pollThread) {
@@ -144,14 +191,34 @@ public class XConnectorEpoll implements Runnable {
             closeFd(client.shutdownFd);
         }
         else removeFdFromEpoll(epollFd, client.clientSocket.fd);
+        synchronized (connectedClients) {
+            connectedClients.remove(client.clientSocket.fd);
+        }
         closeFd(client.clientSocket.fd);
-        connectedClients.remove(client.clientSocket.fd);
     }
 
     private void shutdown() {
-        while (connectedClients.size() > 0) {
-            Client client = connectedClients.valueAt(connectedClients.size()-1);
-            killConnection(client);
+        if (workerPool != null) {
+            workerPool.shutdown();
+            try {
+                workerPool.awaitTermination(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {}
+            workerPool = null;
+        }
+
+        while (true) {
+            Client client;
+            synchronized (connectedClients) {
+                if (connectedClients.size() == 0) break;
+                client = connectedClients.valueAt(connectedClients.size()-1);
+            }
+            if (client.connected) {
+                killConnection(client);
+            }
+            else synchronized (connectedClients) {
+                connectedClients.remove(client.clientSocket.fd);
+            }
         }
 
         removeFdFromEpoll(epollFd, serverFd);
@@ -161,6 +228,10 @@ public class XConnectorEpoll implements Runnable {
         closeFd(epollFd);
     }
 
+    public DispatchStats getDispatchStats() {
+        return dispatchStats;
+    }
+
     public int getInitialInputBufferCapacity() {
         return initialInputBufferCapacity;
     }
@@ -185,6 +256,31 @@ public class XConnectorEpoll implements Runnable {
         this.multithreadedClients = multithreadedClients;
     }
 
+    public boolean isBatchedOutput() {
+        return batchedOutput;
+    }
+
+    /**
+     * Coalesces the replies and events produced while handling the pending requests of a client
+     * into a single gather write at the end, instead of one write per reply.
+     */
+    public void setBatchedOutput(boolean batchedOutput) {
+        this.batchedOutput = batchedOutput;
+    }
+
+    public int getWorkerPoolSize() {
+        return workerPoolSize;
+    }
+
+    /**
+     * Dispatches ready clients from the epoll thread to a fixed pool of worker threads. Each client is
+     * served by at most one worker at a time, so requests of the same client stay ordered.
+     * Has no effect when multithreaded clients are enabled. Must be called before start().
+     */
+    public void setWorkerPoolSize(int workerPoolSize) {
+        this.workerPoolSize = workerPoolSize;
+    }
+
     public boolean isCanReceiveAncillaryMessages() {
         return canReceiveAncillaryMessages;
     }
@@ -208,10 +304,12 @@ public class XConnectorEpoll implements Runnable {
 
     private native int createEventFd();
 
-    private native boolean doEpollIndefinitely(int epollFd, int serverFd, boolean addClientToEpoll);
+    private native boolean doEpollIndefinitely(int epollFd, int serverFd, boolean addClientToEpoll, boolean oneShotClients);
 
     private native boolean addFdToEpoll(int epollFd, int fd);
 
+    private native boolean rearmFdInEpoll(int epollFd, int fd);
+
     private native void removeFdFromEpoll(int epollFd, int fd);
 
     private native boolean waitForSocketRead(int clientFd, int shutdownFd);
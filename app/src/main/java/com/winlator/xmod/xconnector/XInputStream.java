@@ -7,9 +7,13 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class XInputStream {
+    private static final long SHRINK_DELAY = 5000;
     private ByteBuffer activeBuffer;
     private ByteBuffer buffer;
     public final ClientSocket clientSocket;
+    private final int initialCapacity;
+    private int pendingLength = 0;
+    private long lastLargeReadTime = 0;
 
     public XInputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -17,6 +21,7 @@ public class XInputStream {
 
     public XInputStream(ClientSocket clientSocket, int initialCapacity) {
         this.clientSocket = clientSocket;
+        this.initialCapacity = initialCapacity;
         this.buffer = ByteBuffer.allocateDirect(initialCapacity);
     }
 
@@ -24,6 +29,7 @@ public class XInputStream {
         if (activeBuffer != null) {
             if (!activeBuffer.hasRemaining()) {
                 buffer.clear();
+                shrinkInputBufferIfIdle();
             }
             else if (activeBuffer.position() > 0) {
                 int newLimit = buffer.position();
@@ -38,6 +44,7 @@ public class XInputStream {
 
         if (bytesRead > 0) {
             int position = buffer.position();
+            if (position > initialCapacity) lastLargeReadTime = System.currentTimeMillis();
             buffer.flip();
             activeBuffer = buffer.slice().order(buffer.order());
             buffer.limit(buffer.capacity()).position(position);
@@ -49,12 +56,33 @@ public class XInputStream {
         return clientSocket.getAncillaryFd();
     }
 
+    /**
+     * Tells the stream how many bytes the incomplete message at the active position needs in total,
+     * so the next read can grow the buffer once instead of doubling it after every full read.
+     */
+    public void setPendingLength(int pendingLength) {
+        this.pendingLength = pendingLength;
+    }
+
     private void growInputBufferIfNecessary() {
-        if (buffer.position() == buffer.capacity()) {
-            ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() * 2).order(buffer.order());
-            buffer.rewind();
-            newBuffer.put(buffer);
-            buffer = newBuffer;
+        int position = buffer.position();
+        int capacity = buffer.capacity();
+        int freeSpace = capacity - position;
+        if (freeSpace >= capacity / 4 && pendingLength <= capacity) return;
+
+        int newCapacity = capacity * 2;
+        while (newCapacity < pendingLength) newCapacity *= 2;
+        pendingLength = 0;
+
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(newCapacity).order(buffer.order());
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+    }
+
+    private void shrinkInputBufferIfIdle() {
+        if (buffer.capacity() > initialCapacity && (System.currentTimeMillis() - lastLargeReadTime) >= SHRINK_DELAY) {
+            buffer = ByteBuffer.allocateDirect(initialCapacity).order(buffer.order());
         }
     }
 
@@ -9,10 +9,17 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class XOutputStream {
     private static final byte[] ZERO = new byte[64];
+    private static final int RING_SIZE = 8;
     public ByteBuffer buffer;
     public final ClientSocket clientSocket;
     private final ReentrantLock lock = new ReentrantLock();
     private int ancillaryFd = -1;
+    private ByteBuffer[] ring;
+    private int ringIndex = 0;
+    private int batchDepth = 0;
+    private IOException pendingException;
+    private long flushCount = 0;
+    private long bytesFlushed = 0;
 
     public XOutputStream(int initialCapacity) {
         this(null, initialCapacity);
@@ -25,6 +32,9 @@ public class XOutputStream {
 
     public void setByteOrder(ByteOrder byteOrder) {
         buffer.order(byteOrder);
+        if (ring != null) {
+            for (ByteBuffer segment : ring) segment.order(byteOrder);
+        }
     }
 
     public void setAncillaryFd(int ancillaryFd) {
@@ -78,8 +88,30 @@ public class XOutputStream {
     }
 
     private void flush() throws IOException {
+        if (ringIndex > 0) {
+            // Everything except the active segment goes out in a single gather write
+            int length = 0;
+            for (int i = 0; i < ringIndex; i++) {
+                ring[i].flip();
+                length += ring[i].limit();
+            }
+
+            try {
+                clientSocket.write(ring, ringIndex);
+                flushCount++;
+                bytesFlushed += length;
+            }
+            finally {
+                for (int i = 0; i < ringIndex; i++) ring[i].clear();
+                ring[ringIndex] = ring[0];
+                ring[0] = buffer;
+                ringIndex = 0;
+            }
+        }
+
         if (buffer.position() != 0) {
             buffer.flip();
+            int length = buffer.limit();
 
             if (ancillaryFd != -1) {
                 clientSocket.sendAncillaryMsg(buffer, ancillaryFd);
@@ -87,6 +119,8 @@ public class XOutputStream {
             }
             else clientSocket.write(buffer);
 
+            flushCount++;
+            bytesFlushed += length;
             buffer.clear();
         }
     }
@@ -95,13 +129,79 @@ public class XOutputStream {
         return new OutputStreamLock();
     }
 
+    /**
+     * Starts a batch: replies and events written until the matching endBatch() call are kept in a
+     * ring of direct buffers and sent together, instead of issuing one write per locked section.
+     * Messages that carry a file descriptor are still sent immediately.
+     */
+    public void beginBatch() {
+        lock.lock();
+        try {
+            if (ring == null) {
+                ring = new ByteBuffer[RING_SIZE];
+                ring[0] = buffer;
+                for (int i = 1; i < RING_SIZE; i++) ring[i] = ByteBuffer.allocateDirect(buffer.capacity()).order(buffer.order());
+            }
+            batchDepth++;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void endBatch() throws IOException {
+        lock.lock();
+        try {
+            if (batchDepth > 0 && --batchDepth == 0) flushPending();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public long getFlushCount() {
+        return flushCount;
+    }
+
+    public long getBytesFlushed() {
+        return bytesFlushed;
+    }
+
+    private void flushPending() throws IOException {
+        if (pendingException != null) {
+            IOException e = pendingException;
+            pendingException = null;
+            throw e;
+        }
+        flush();
+    }
+
     private void ensureSpaceIsAvailable(int length) {
         int position = buffer.position();
         if ((buffer.capacity() - position) >= length) return;
+
+        if (batchDepth > 0 && position > 0) {
+            if (ringIndex == RING_SIZE - 1) {
+                try {
+                    flush();
+                }
+                catch (IOException e) {
+                    if (pendingException == null) pendingException = e;
+                }
+                if ((buffer.capacity() - buffer.position()) >= length) return;
+            }
+            else if (ring[ringIndex + 1].capacity() >= length) {
+                buffer = ring[++ringIndex];
+                return;
+            }
+            position = buffer.position();
+        }
+
         ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer.capacity() + length).order(buffer.order());
         buffer.rewind();
         newBuffer.put(buffer).position(position);
         buffer = newBuffer;
+        if (ring != null) ring[ringIndex] = buffer;
     }
 
     private class OutputStreamLock implements XStreamLock {
@@ -112,7 +212,7 @@ public class XOutputStream {
         @Override
         public void close() throws IOException {
             try {
-                flush();
+                if (batchDepth == 0 || ancillaryFd != -1) flushPending();
             }
             finally {
                 lock.unlock();
@@ -1,9 +1,31 @@
 package com.winlator.xmod.xenvironment;
 
+import java.util.Collections;
+import java.util.List;
+
 public abstract class EnvironmentComponent {
     protected XEnvironment environment;
 
+    /**
+     * Work that doesn't need any other component, like extracting files. It runs as soon as the
+     * environment starts, concurrently with the other components.
+     */
+    public void prepare() {}
+
     public abstract void start();
 
     public abstract void stop();
+
+    /**
+     * Components that must be started before this one. Classes that aren't part of the environment
+     * are ignored.
+     */
+    public List<Class<? extends EnvironmentComponent>> getDependencies() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Called after start(), blocks until the component can serve the components depending on it.
+     */
+    public void awaitReady() {}
 }
\ No newline at end of file
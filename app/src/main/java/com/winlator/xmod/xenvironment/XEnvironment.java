@@ -1,18 +1,48 @@
 package com.winlator.xmod.xenvironment;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.winlator.xmod.core.FileUtils;
 import com.winlator.xmod.xenvironment.components.GuestProgramLauncherComponent;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class XEnvironment implements Iterable<EnvironmentComponent> {
+    private static final String TAG = "XEnvironment";
     private final Context context;
     private final ImageFs imageFs;
     private final ArrayList<EnvironmentComponent> components = new ArrayList<>();
+    private final ArrayList<StartupTiming> startupTimeline = new ArrayList<>();
+
+    /**
+     * When each phase of a component ran, in milliseconds since startEnvironmentComponents() was
+     * called.
+     */
+    public static class StartupTiming {
+        public final String name;
+        public long prepareStart;
+        public long prepareEnd;
+        public long startBegin;
+        public long readyTime;
+
+        private StartupTiming(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name+": prepare "+prepareStart+"-"+prepareEnd+"ms, start "+startBegin+"-"+readyTime+"ms";
+        }
+    }
 
     public XEnvironment(Context context, ImageFs imageFs) {
         this.context = context;
@@ -53,9 +83,70 @@ public class XEnvironment implements Iterable<EnvironmentComponent> {
         return tmpDir;
     }
 
+    /**
+     * Starts every component as soon as the components it depends on are ready, so independent
+     * components start concurrently. Returns once all of them are ready.
+     */
     public void startEnvironmentComponents() {
         FileUtils.clear(getTmpDir());
-        for (EnvironmentComponent environmentComponent : this) environmentComponent.start();
+
+        long startTime = System.nanoTime();
+        startupTimeline.clear();
+        for (EnvironmentComponent component : components) startupTimeline.add(new StartupTiming(component.getClass().getSimpleName()));
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        HashMap<EnvironmentComponent, CompletableFuture<Void>> futures = new HashMap<>();
+        try {
+            for (EnvironmentComponent component : components) startComponent(component, futures, executor, startTime, new ArrayList<>());
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture[0])).join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException)e.getCause();
+            throw e;
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        for (StartupTiming timing : startupTimeline) Log.d(TAG, timing.toString());
+    }
+
+    private CompletableFuture<Void> startComponent(EnvironmentComponent component, HashMap<EnvironmentComponent, CompletableFuture<Void>> futures, Executor executor, long startTime, ArrayList<EnvironmentComponent> path) {
+        CompletableFuture<Void> future = futures.get(component);
+        if (future != null) return future;
+        if (path.contains(component)) throw new IllegalStateException("Dependency cycle at "+component.getClass().getSimpleName());
+        path.add(component);
+
+        StartupTiming timing = startupTimeline.get(components.indexOf(component));
+        ArrayList<CompletableFuture<Void>> prerequisites = new ArrayList<>();
+        prerequisites.add(CompletableFuture.runAsync(() -> {
+            timing.prepareStart = getElapsedTime(startTime);
+            component.prepare();
+            timing.prepareEnd = getElapsedTime(startTime);
+        }, executor));
+
+        for (Class<? extends EnvironmentComponent> dependencyClass : component.getDependencies()) {
+            EnvironmentComponent dependency = getComponent(dependencyClass);
+            if (dependency != null) prerequisites.add(startComponent(dependency, futures, executor, startTime, path));
+        }
+        path.remove(component);
+
+        future = CompletableFuture.allOf(prerequisites.toArray(new CompletableFuture[0])).thenRunAsync(() -> {
+            timing.startBegin = getElapsedTime(startTime);
+            component.start();
+            component.awaitReady();
+            timing.readyTime = getElapsedTime(startTime);
+        }, executor);
+        futures.put(component, future);
+        return future;
+    }
+
+    private static long getElapsedTime(long startTime) {
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    public ArrayList<StartupTiming> getStartupTimeline() {
+        return new ArrayList<>(startupTimeline);
     }
 
     public void stopEnvironmentComponents() {
@@ -1,5 +1,8 @@
 package com.winlator.xmod.xenvironment.components;
 
+import android.util.Log;
+
+import com.winlator.xmod.alsaserver.ALSAClient;
 import com.winlator.xmod.alsaserver.ALSAClientConnectionHandler;
 import com.winlator.xmod.alsaserver.ALSARequestHandler;
 import com.winlator.xmod.xconnector.UnixSocketConfig;
@@ -8,6 +11,7 @@ import com.winlator.xmod.xenvironment.EnvironmentComponent;
 
 public class ALSAServerComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
+    private ALSAClientConnectionHandler connectionHandler;
     private final UnixSocketConfig socketConfig;
 
     public ALSAServerComponent(UnixSocketConfig socketConfig) {
@@ -17,7 +21,8 @@ public class ALSAServerComponent extends EnvironmentComponent {
     @Override
     public void start() {
         if (connector != null) return;
-        connector = new XConnectorEpoll(socketConfig, new ALSAClientConnectionHandler(), new ALSARequestHandler());
+        connectionHandler = new ALSAClientConnectionHandler();
+        connector = new XConnectorEpoll(socketConfig, connectionHandler, new ALSARequestHandler());
         connector.setMultithreadedClients(true);
         connector.start();
     }
@@ -25,8 +30,54 @@ public class ALSAServerComponent extends EnvironmentComponent {
     @Override
     public void stop() {
         if (connector != null) {
+            Log.d("ALSAServerComponent", "Audio stats: " + getQueuedFrames() + " frames queued, " + getUnderruns() + " underruns, " + getOverruns() + " overruns, " + getPlaybackLatencyMillis() + " ms latency");
             connector.stop();
             connector = null;
+            connectionHandler = null;
+        }
+    }
+
+    /**
+     * Returns the frames written by the clients that are still waiting in the rings of their streams.
+     */
+    public int getQueuedFrames() {
+        int queuedFrames = 0;
+        if (connectionHandler != null) {
+            for (ALSAClient alsaClient : connectionHandler.getClients()) queuedFrames += alsaClient.getQueuedFrames();
+        }
+        return queuedFrames;
+    }
+
+    /**
+     * Returns the number of times the output of a stream ran dry, as counted by AAudio.
+     */
+    public int getUnderruns() {
+        int underruns = 0;
+        if (connectionHandler != null) {
+            for (ALSAClient alsaClient : connectionHandler.getClients()) underruns += alsaClient.getUnderruns();
+        }
+        return underruns;
+    }
+
+    /**
+     * Returns the number of writes that didn't fit in the ring of their stream.
+     */
+    public int getOverruns() {
+        int overruns = 0;
+        if (connectionHandler != null) {
+            for (ALSAClient alsaClient : connectionHandler.getClients()) overruns += alsaClient.getOverruns();
+        }
+        return overruns;
+    }
+
+    /**
+     * Returns the playback latency of the stream that is the furthest behind.
+     */
+    public int getPlaybackLatencyMillis() {
+        int latency = 0;
+        if (connectionHandler != null) {
+            for (ALSAClient alsaClient : connectionHandler.getClients()) latency = Math.max(latency, alsaClient.getPlaybackLatencyMillis());
         }
+        return latency;
     }
 }
@@ -30,6 +30,8 @@ import java.io.File;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class GuestProgramLauncherComponent extends EnvironmentComponent {
     private String guestExecutable;
@@ -134,17 +136,29 @@ public class GuestProgramLauncherComponent extends EnvironmentComponent {
     }
 
     @Override
-    public void start() {
+    public void prepare() {
         synchronized (lock) {
             if (wineInfo.isArm64EC())
                 extractEmulatorsDlls();
             else
                 extractBox64Files();
-            checkDependencies();
+        }
+        // only logged, so it doesn't need to delay the launch
+        new Thread(this::checkDependencies).start();
+    }
+
+    @Override
+    public void start() {
+        synchronized (lock) {
             pid = execGuestProgram();
         }
     }
 
+    @Override
+    public List<Class<? extends EnvironmentComponent>> getDependencies() {
+        return Arrays.asList(SysVSharedMemoryComponent.class, XServerComponent.class, ALSAServerComponent.class, PulseAudioComponent.class, VirGLRendererComponent.class);
+    }
+
 
     private String checkDependencies() {
         String curlPath = environment.getImageFs().getRootDir().getPath() + "/usr/lib/libXau.so";
@@ -23,6 +23,7 @@ public class PulseAudioComponent extends EnvironmentComponent {
     private final UnixSocketConfig socketConfig;
     private static int pid = -1;
     private static final Object lock = new Object();
+    private static final int READY_TIMEOUT = 1000;
 
     public PulseAudioComponent(UnixSocketConfig socketConfig) {
         this.socketConfig = socketConfig;
@@ -36,6 +37,20 @@ public class PulseAudioComponent extends EnvironmentComponent {
         }
     }
 
+    @Override
+    public void awaitReady() {
+        File socketFile = new File(socketConfig.path);
+        long deadline = System.currentTimeMillis() + READY_TIMEOUT;
+        while (!socketFile.exists() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
     @Override
     public void stop() {
         synchronized (lock) {
@@ -39,4 +39,8 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
 
         sysVSharedMemory.deleteAll();
     }
+
+    public SysVSharedMemory.Stats getStats() {
+        return sysVSharedMemory != null ? sysVSharedMemory.getStats() : null;
+    }
 }
@@ -13,6 +13,7 @@ import com.winlator.xmod.xconnector.UnixSocketConfig;
 import com.winlator.xmod.xconnector.XConnectorEpoll;
 import com.winlator.xmod.xenvironment.EnvironmentComponent;
 import com.winlator.xmod.xserver.Drawable;
+import com.winlator.xmod.xserver.XLock;
 import com.winlator.xmod.xserver.XServer;
 
 import java.io.IOException;
@@ -103,7 +104,7 @@ public class VirGLRendererComponent extends EnvironmentComponent implements Conn
             return;
         }
 
-        synchronized (drawable.renderLock) {
+        try (XLock lock = drawable.lockForWrite()) {
             if (framebuffer == 0) {
                 Log.e("VirGLRendererComponent", "Framebuffer is invalid for drawableId=" + drawableId);
                 return;
@@ -1,5 +1,7 @@
 package com.winlator.xmod.xenvironment.components;
 
+import android.util.Log;
+
 import com.winlator.xmod.xenvironment.EnvironmentComponent;
 import com.winlator.xmod.xconnector.XConnectorEpoll;
 import com.winlator.xmod.xconnector.UnixSocketConfig;
@@ -23,6 +25,8 @@ public class XServerComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
+        connector.setBatchedOutput(true);
+        connector.setWorkerPoolSize(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
         connector.start();
     }
 
@@ -30,6 +34,7 @@ public class XServerComponent extends EnvironmentComponent {
     public void stop() {
         if (connector != null) {
             connector.stop();
+            Log.d("XServerComponent", "Dispatch stats: " + connector.getDispatchStats());
             connector = null;
         }
     }
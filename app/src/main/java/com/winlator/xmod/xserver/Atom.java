@@ -1,31 +1,66 @@
 package com.winlator.xmod.xserver;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Atom table. Lookups are lock-free: names are mapped to ids by a concurrent hash map and ids to
+ * names by an append-only array, only interning a new name takes the lock.
+ */
 public abstract class Atom {
-    private static final ArrayList<String> atoms = new ArrayList<>(Arrays.asList(null, "PRIMARY", "SECONDARY", "ARC", "ATOM", "BITMAP", "CARDINAL", "COLORMAP", "CURSOR", "CUT_BUFFER0", "CUT_BUFFER1", "CUT_BUFFER2", "CUT_BUFFER3", "CUT_BUFFER4", "CUT_BUFFER5", "CUT_BUFFER6", "CUT_BUFFER7", "DRAWABLE", "FONT", "INTEGER", "PIXMAP", "POINT", "RECTANGLE", "RESOURCE_MANAGER", "RGB_COLOR_MAP", "RGB_BEST_MAP", "RGB_BLUE_MAP", "RGB_DEFAULT_MAP", "RGB_GRAY_MAP", "RGB_GREEN_MAP", "RGB_RED_MAP", "STRING", "VISUALID", "WINDOW", "WM_COMMAND", "WM_HINTS", "WM_CLIENT_MACHINE", "WM_ICON_NAME", "WM_ICON_SIZE", "WM_NAME", "WM_NORMAL_HINTS", "WM_SIZE_HINTS", "WM_ZOOM_HINTS", "MIN_SPACE", "NORM_SPACE", "MAX_SPACE", "END_SPACE", "SUPERSC.LPT_X", "SUPERSC.LPT_Y", "SUBSC.LPT_X", "SUBSC.LPT_Y", "UNDERLINE_POSITION", "UNDERLINE_THICKNESS", "STRIKEOUT_ASCENT", "STRIKEOUT_DESCENT", "ITALIC_ANGLE", "X_HEIGHT", "QUAD_WIDTH", "WEIGHT", "POINT_SIZE", "RESOLUTION", "COPYRIGHT", "NOTICE", "FONT_NAME", "FAMILY_NAME", "FULL_NAME", "CAP_HEIGHT", "WM_CLASS", "WM_TRANSIENT_FOR"));
+    private static final String[] PREDEFINED_ATOMS = {"PRIMARY", "SECONDARY", "ARC", "ATOM", "BITMAP", "CARDINAL", "COLORMAP", "CURSOR", "CUT_BUFFER0", "CUT_BUFFER1", "CUT_BUFFER2", "CUT_BUFFER3", "CUT_BUFFER4", "CUT_BUFFER5", "CUT_BUFFER6", "CUT_BUFFER7", "DRAWABLE", "FONT", "INTEGER", "PIXMAP", "POINT", "RECTANGLE", "RESOURCE_MANAGER", "RGB_COLOR_MAP", "RGB_BEST_MAP", "RGB_BLUE_MAP", "RGB_DEFAULT_MAP", "RGB_GRAY_MAP", "RGB_GREEN_MAP", "RGB_RED_MAP", "STRING", "VISUALID", "WINDOW", "WM_COMMAND", "WM_HINTS", "WM_CLIENT_MACHINE", "WM_ICON_NAME", "WM_ICON_SIZE", "WM_NAME", "WM_NORMAL_HINTS", "WM_SIZE_HINTS", "WM_ZOOM_HINTS", "MIN_SPACE", "NORM_SPACE", "MAX_SPACE", "END_SPACE", "SUPERSC.LPT_X", "SUPERSC.LPT_Y", "SUBSC.LPT_X", "SUBSC.LPT_Y", "UNDERLINE_POSITION", "UNDERLINE_THICKNESS", "STRIKEOUT_ASCENT", "STRIKEOUT_DESCENT", "ITALIC_ANGLE", "X_HEIGHT", "QUAD_WIDTH", "WEIGHT", "POINT_SIZE", "RESOLUTION", "COPYRIGHT", "NOTICE", "FONT_NAME", "FAMILY_NAME", "FULL_NAME", "CAP_HEIGHT", "WM_CLASS", "WM_TRANSIENT_FOR"};
+    private static final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[256];
+    private static volatile int count = 1;
 
-    public synchronized static String getName(int id) {
-        return atoms.get(id);
+    static {
+        for (String name : PREDEFINED_ATOMS) internAtom(name);
     }
 
-    public synchronized static int getId(String name) {
+    public static final int STRING = getId("STRING");
+    public static final int RESOURCE_MANAGER = getId("RESOURCE_MANAGER");
+    public static final int WM_HINTS = getId("WM_HINTS");
+    public static final int WM_NAME = getId("WM_NAME");
+    public static final int WM_CLASS = getId("WM_CLASS");
+    // Not predefined by the protocol, interned upfront so that window helpers can use constant ids
+    public static final int NET_WM_PID = internAtom("_NET_WM_PID");
+    public static final int NET_WM_WOW64 = internAtom("_NET_WM_WOW64");
+    public static final int NET_WM_HWND = internAtom("_NET_WM_HWND");
+
+    public static String getName(int id) {
+        // Read count before names, internAtom() publishes them in the opposite order
+        return id > 0 && id < count ? names[id] : null;
+    }
+
+    public static int getId(String name) {
         if (name == null) return 0;
-        for (int i = 0; i < atoms.size(); i++) if (name.equals(atoms.get(i))) return i;
-        return -1;
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
     }
 
-    public synchronized static int internAtom(String name) {
-        int id = getId(name);
-        if (id == -1) {
-            id = atoms.size();
-            atoms.add(name);
+    public static int internAtom(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+
+        synchronized (Atom.class) {
+            id = ids.get(name);
+            if (id != null) return id;
+
+            id = count;
+            String[] names = Atom.names;
+            if (id == names.length) {
+                String[] newNames = new String[names.length * 2];
+                System.arraycopy(names, 0, newNames, 0, names.length);
+                names = newNames;
+            }
+            names[id] = name;
+            Atom.names = names;
+            count = id + 1;
+            ids.put(name, id);
+            return id;
         }
-        return id;
     }
 
-    public synchronized static boolean isValid(int id) {
-        return id > 0 && id < atoms.size();
+    public static boolean isValid(int id) {
+        return id > 0 && id < count;
     }
 }
@@ -0,0 +1,61 @@
+package com.winlator.xmod.xserver;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Follows the display's vertical blanks with Choreographer frame callbacks. The callbacks are only
+ * posted while the clock is being queried, and stop after IDLE_TIMEOUT without queries.
+ *
+ * The refresh interval is estimated from the frame times, ignoring frames that were skipped.
+ */
+public class ChoreographerVSyncClock implements VSyncClock, Choreographer.FrameCallback {
+    private static final long DEFAULT_INTERVAL = 1000000 / 60;
+    private static final long IDLE_TIMEOUT = 1000000;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile long vsyncUst = 0;
+    private volatile long interval = DEFAULT_INTERVAL;
+    private volatile long lastQueryUst = 0;
+
+    @Override
+    public long getUst() {
+        return System.nanoTime() / 1000;
+    }
+
+    @Override
+    public long getVSyncUst() {
+        lastQueryUst = getUst();
+        if (running.compareAndSet(false, true)) {
+            handler.post(() -> Choreographer.getInstance().postFrameCallback(this));
+        }
+        return vsyncUst;
+    }
+
+    @Override
+    public long getInterval() {
+        return interval;
+    }
+
+    @Override
+    public void sleepUntil(long ust) throws InterruptedException {
+        long delay = ust - getUst();
+        if (delay > 0) Thread.sleep(delay / 1000, (int)(delay % 1000) * 1000);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long ust = frameTimeNanos / 1000;
+        long delta = ust - vsyncUst;
+        if (vsyncUst > 0 && delta > 0 && delta < interval * 3 / 2) interval = (interval * 7 + delta) / 8;
+        vsyncUst = ust;
+
+        if (ust - lastQueryUst < IDLE_TIMEOUT) {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+        else running.set(false);
+    }
+}
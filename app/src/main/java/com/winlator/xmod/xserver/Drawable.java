@@ -3,14 +3,18 @@ package com.winlator.xmod.xserver;
 import android.graphics.Bitmap;
 
 import com.winlator.xmod.core.Callback;
+import com.winlator.xmod.math.DamageRegion;
 import com.winlator.xmod.math.Mathf;
 import com.winlator.xmod.renderer.GPUImage;
 import com.winlator.xmod.renderer.Texture;
 
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class Drawable extends XResource {
+    private static final byte MAX_DAMAGE_BOXES = 8;
     public final short width;
     public final short height;
     public final Visual visual;
@@ -18,7 +22,10 @@ public class Drawable extends XResource {
     private ByteBuffer data;
     private Runnable onDrawListener;
     private Callback<Drawable> onDestroyListener;
-    public final Object renderLock = new Object();
+    private DrawableBufferPool bufferPool;
+    private boolean alive = true;
+    private final ReentrantReadWriteLock contentLock = new ReentrantReadWriteLock();
+    private final DamageRegion damage = new DamageRegion(MAX_DAMAGE_BOXES);
 
     static {
         System.loadLibrary("winlator");
@@ -35,6 +42,15 @@ public class Drawable extends XResource {
         }
     }
 
+    public Drawable(int id, int width, int height, Visual visual, DrawableBufferPool bufferPool) {
+        super(id);
+        this.width = (short)width;
+        this.height = (short)height;
+        this.visual = visual;
+        this.bufferPool = bufferPool;
+        this.data = bufferPool.acquire(width * height * 4);
+    }
+
     public static Drawable fromBitmap(Bitmap bitmap) {
         Drawable drawable = new Drawable(0, bitmap.getWidth(), bitmap.getHeight(), null);
         fromBitmap(bitmap, drawable.data);
@@ -46,8 +62,13 @@ public class Drawable extends XResource {
     }
 
     public void setTexture(Texture texture) {
-        if (texture instanceof GPUImage) data = ((GPUImage)texture).getVirtualData();
-        this.texture = texture;
+        try (XLock lock = lockForWrite()) {
+            if (texture instanceof GPUImage) {
+                releaseBuffer();
+                data = ((GPUImage)texture).getVirtualData();
+            }
+            this.texture = texture;
+        }
     }
 
     public ByteBuffer getData() {
@@ -58,13 +79,101 @@ public class Drawable extends XResource {
         if (data == null) {
             throw new IllegalArgumentException("Attempting to set Drawable.data to null!");
         }
-        this.data = data;
+        try (XLock lock = lockForWrite()) {
+            if (data != this.data) releaseBuffer();
+            this.data = data;
+        }
+    }
+
+    private void releaseBuffer() {
+        if (bufferPool != null) {
+            bufferPool.release(data);
+            bufferPool = null;
+        }
+    }
+
+    /**
+     * Gives the pixel buffer back to the pool it was taken from and marks the drawable as dead. Draw
+     * operations on a dead drawable do nothing, so holders that outlive it don't touch the buffer.
+     */
+    public void releaseData() {
+        try (XLock lock = lockForWrite()) {
+            releaseBuffer();
+            data = null;
+            alive = false;
+        }
+    }
+
+    /**
+     * Returns whether the pixel data is still valid. Only meaningful while holding the content lock.
+     */
+    public boolean isAlive() {
+        return alive;
+    }
+
+    /**
+     * Returns the area changed since the texture was last updated. Only valid while holding the
+     * content lock; the renderer clears it once the damaged boxes have been uploaded.
+     */
+    public DamageRegion getDamage() {
+        return damage;
+    }
+
+    private void addDamage(int x, int y, int width, int height) {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, this.width);
+        int y1 = Math.min(y + height, this.height);
+        damage.add(x0, y0, x1 - x0, y1 - y0);
+        texture.setNeedsUpdate(true);
     }
 
     private short getStride() {
         return texture instanceof GPUImage ? ((GPUImage)texture).getStride() : width;
     }
 
+    /**
+     * Locks the pixel data of this drawable for reading. Several readers (e.g. the renderer and
+     * a GetImage request) can hold it at the same time.
+     */
+    public XLock lockForRead() {
+        final Lock lock = contentLock.readLock();
+        lock.lock();
+        return lock::unlock;
+    }
+
+    /**
+     * Locks the pixel data of this drawable for writing. All draw operations take it internally,
+     * callers only need it to make several operations atomic with respect to the renderer. It must
+     * not be held when calling copyArea(), which takes the locks of both drawables in a fixed order.
+     */
+    public XLock lockForWrite() {
+        final Lock lock = contentLock.writeLock();
+        lock.lock();
+        return lock::unlock;
+    }
+
+    private XLock lockForCopy(Drawable srcDrawable) {
+        if (srcDrawable == this) return lockForWrite();
+
+        // Always lock in the same order to avoid deadlocks between two opposite copies, which is
+        // why callers must not already hold the lock of either drawable
+        final XLock firstLock, secondLock;
+        if (srcDrawable.id < this.id) {
+            firstLock = srcDrawable.lockForRead();
+            secondLock = lockForWrite();
+        }
+        else {
+            firstLock = lockForWrite();
+            secondLock = srcDrawable.lockForRead();
+        }
+
+        return () -> {
+            secondLock.close();
+            firstLock.close();
+        };
+    }
+
     public Runnable getOnDrawListener() {
         return onDrawListener;
     }
@@ -82,36 +191,46 @@ public class Drawable extends XResource {
     }
 
     public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
-        if (depth == 1) {
-            drawBitmap(width, height, data, this.data);
-        }
-        else if (depth == 24 || depth == 32) {
-            dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
-            dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
-            if ((dstX + width) > this.width) width = (short)((this.width - dstX));
-            if ((dstY + height) > this.height) height = (short)((this.height - dstY));
-
-            copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+        try (XLock lock = lockForWrite()) {
+            if (!alive) return;
+            if (depth == 1) {
+                drawBitmap(width, height, data, this.data);
+                addDamage(0, 0, width, height);
+            }
+            else if (depth == 24 || depth == 32) {
+                dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
+                dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
+                if ((dstX + width) > this.width) width = (short)((this.width - dstX));
+                if ((dstY + height) > this.height) height = (short)((this.height - dstY));
+
+                copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+                addDamage(dstX, dstY, width, height);
+            }
+
+            this.data.rewind();
+            data.rewind();
         }
-
-        this.data.rewind();
-        data.rewind();
-
-        texture.setNeedsUpdate(true);
         if (onDrawListener != null) onDrawListener.run();
     }
 
     public ByteBuffer getImage(short x, short y, short width, short height) {
-        ByteBuffer dstData = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        return getImage(x, y, width, height, null);
+    }
+
+    public ByteBuffer getImage(short x, short y, short width, short height, DrawableBufferPool bufferPool) {
+        ByteBuffer dstData = bufferPool != null ? bufferPool.acquire(width * height * 4) : ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
 
         x = (short)Mathf.clamp(x, 0, this.width-1);
         y = (short)Mathf.clamp(y, 0, this.height-1);
         if ((x + width) > this.width) width = (short)(this.width - x);
         if ((y + height) > this.height) height = (short)(this.height - y);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+        try (XLock lock = lockForRead()) {
+            if (!alive) return dstData;
+            copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+            this.data.rewind();
+        }
 
-        this.data.rewind();
         dstData.rewind();
         return dstData;
     }
@@ -126,15 +245,18 @@ public class Drawable extends XResource {
         if ((dstX + width) > this.width) width = (short)(this.width - dstX);
         if ((dstY + height) > this.height) height = (short)(this.height - dstY);
 
-        if (gcFunction == GraphicsContext.Function.COPY) {
-            copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
-        }
-        else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
+        try (XLock lock = lockForCopy(drawable)) {
+            if (!alive || !drawable.alive) return;
+            if (gcFunction == GraphicsContext.Function.COPY) {
+                copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
+            }
+            else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
 
-        this.data.rewind();
-        drawable.data.rewind();
+            this.data.rewind();
+            drawable.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            addDamage(dstX, dstY, width, height);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -148,10 +270,13 @@ public class Drawable extends XResource {
         if ((x + width) > this.width) width = (short)((this.width - x));
         if ((y + height) > this.height) height = (short)((this.height - y));
 
-        fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
-        this.data.rewind();
+        try (XLock lock = lockForWrite()) {
+            if (!alive) return;
+            fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
+            this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            addDamage(x, y, width, height);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -167,19 +292,25 @@ public class Drawable extends XResource {
         x1 = Mathf.clamp(x1, 0, width-lineWidth);
         y1 = Mathf.clamp(y1, 0, height-lineWidth);
 
-        drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
+        try (XLock lock = lockForWrite()) {
+            if (!alive) return;
+            drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
 
-        this.data.rewind();
+            this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            addDamage(Math.min(x0, x1), Math.min(y0, y1), Math.abs(x1 - x0) + lineWidth, Math.abs(y1 - y0) + lineWidth);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
     public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, Drawable srcDrawable, Drawable maskDrawable) {
-        drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
-        this.data.rewind();
+        try (XLock lock = lockForWrite()) {
+            if (!alive || !srcDrawable.alive || !maskDrawable.alive) return;
+            drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcDrawable.data, maskDrawable.data, this.data);
+            this.data.rewind();
 
-        texture.setNeedsUpdate(true);
+            addDamage(0, 0, width, height);
+        }
         if (onDrawListener != null) onDrawListener.run();
     }
 
@@ -0,0 +1,117 @@
+package com.winlator.xmod.xserver;
+
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+
+public class DrawableBufferPool {
+    private static final int MIN_BUFFER_SIZE = 4096;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+    private static final ByteBuffer ZERO = ByteBuffer.allocateDirect(65536);
+    private final SparseArray<ArrayDeque<ByteBuffer>> freeBuffers = new SparseArray<>();
+    private long maxPooledBytes;
+    private long pooledBytes = 0;
+    private long outstandingBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public DrawableBufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Rounds the size up to one of four size classes per power of two, so a buffer never wastes
+     * more than a quarter of its capacity.
+     */
+    private static int getSizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) return MIN_BUFFER_SIZE;
+        int step = Integer.highestOneBit(size - 1) >> 2;
+        return ((size - 1) / step + 1) * step;
+    }
+
+    /**
+     * Returns a zero-filled little-endian buffer whose limit is the requested size. The buffer must
+     * be given back with release() once it is no longer referenced.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            misses++;
+            return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        int sizeClass = getSizeClass(size);
+        ArrayDeque<ByteBuffer> buffers = freeBuffers.get(sizeClass);
+        ByteBuffer buffer = buffers != null ? buffers.poll() : null;
+
+        if (buffer != null) {
+            hits++;
+            pooledBytes -= sizeClass;
+            clear(buffer, size);
+        }
+        else {
+            misses++;
+            buffer = ByteBuffer.allocateDirect(sizeClass).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        outstandingBytes += sizeClass;
+        buffer.limit(size);
+        return buffer;
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        int sizeClass = buffer.capacity();
+        if (sizeClass > MAX_BUFFER_SIZE || getSizeClass(sizeClass) != sizeClass) return;
+
+        outstandingBytes -= sizeClass;
+        if (pooledBytes + sizeClass > maxPooledBytes) return;
+
+        ArrayDeque<ByteBuffer> buffers = freeBuffers.get(sizeClass);
+        if (buffers == null) {
+            buffers = new ArrayDeque<>();
+            freeBuffers.put(sizeClass, buffers);
+        }
+
+        buffer.clear();
+        buffers.add(buffer);
+        pooledBytes += sizeClass;
+    }
+
+    public synchronized void trim() {
+        freeBuffers.clear();
+        pooledBytes = 0;
+    }
+
+    public synchronized long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    public synchronized void setMaxPooledBytes(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        if (pooledBytes > maxPooledBytes) trim();
+    }
+
+    public synchronized long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    public synchronized long getOutstandingBytes() {
+        return outstandingBytes;
+    }
+
+    public synchronized float getHitRate() {
+        long total = hits + misses;
+        return total > 0 ? (float)hits / total : 0;
+    }
+
+    private static void clear(ByteBuffer buffer, int size) {
+        buffer.clear();
+        while (buffer.position() < size) {
+            ByteBuffer zero = ZERO.duplicate();
+            zero.limit(Math.min(zero.capacity(), size - buffer.position()));
+            buffer.put(zero);
+        }
+        buffer.rewind();
+    }
+}
@@ -3,11 +3,14 @@ package com.winlator.xmod.xserver;
 import android.util.SparseArray;
 
 import com.winlator.xmod.core.Callback;
+import com.winlator.xmod.renderer.GLRenderer;
 import com.winlator.xmod.renderer.Texture;
 
 public class DrawableManager extends XResourceManager implements XResourceManager.OnResourceLifecycleListener {
+    private static final long MAX_POOLED_BYTES = 64 * 1024 * 1024;
     private final XServer xServer;
     private final SparseArray<Drawable> drawables = new SparseArray<>();
+    public final DrawableBufferPool bufferPool = new DrawableBufferPool(MAX_POOLED_BYTES);
 
     public DrawableManager(XServer xServer) {
         this.xServer = xServer;
@@ -36,7 +39,7 @@ public class DrawableManager extends XResourceManager implements XResourceManage
             return drawable;
         }
         if (drawables.indexOfKey(id) >= 0) return null;
-        Drawable drawable = new Drawable(id, width, height, visual);
+        Drawable drawable = new Drawable(id, width, height, visual, bufferPool);
         if (drawable.getData() == null) {
             throw new IllegalStateException("Drawable with id " + id + " has null data at creation.");
         }
@@ -54,11 +57,15 @@ public class DrawableManager extends XResourceManager implements XResourceManage
         }
 
         final Texture texture = drawable.getTexture();
-        if (texture != null) xServer.getRenderer().xServerView.queueEvent(texture::destroy);
+        GLRenderer renderer = xServer.getRenderer();
+        if (texture != null && renderer != null) renderer.xServerView.queueEvent(texture::destroy);
 
         Callback<Drawable> onDestroyListener = drawable.getOnDestroyListener();
         if (onDestroyListener != null) onDestroyListener.call(drawable);
 
+        // The renderer may still hold this drawable until its scene is updated, it skips it once dead
+        drawable.releaseData();
+
         drawable.setOnDrawListener(null);
         drawables.remove(id);
     }
@@ -0,0 +1,214 @@
+package com.winlator.xmod.xserver;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Input stage between the Android views and the X server. Injected events are queued without
+ * locking and applied in order under the input locks by drain().
+ *
+ * Button and key events drain the queue right away on the injecting thread. Pointer motion is
+ * drained by a pump thread at most once every motion interval, and consecutive motion events are
+ * merged into one, so a fast mouse or touchpad produces at most one MotionNotify (and one
+ * redraw request) per interval instead of one per event. Motion queued before a button or key
+ * event is applied before it.
+ */
+public class InputEventQueue {
+    public static final int DEFAULT_MOTION_INTERVAL = 8;
+    private static final byte POINTER_MOVE = 0;
+    private static final byte POINTER_MOVE_DELTA = 1;
+    private static final byte POINTER_BUTTON_PRESS = 2;
+    private static final byte POINTER_BUTTON_RELEASE = 3;
+    private static final byte KEY_PRESS = 4;
+    private static final byte KEY_RELEASE = 5;
+    private final XServer xServer;
+    private final ConcurrentLinkedQueue<InputEvent> events = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean motionPending = new AtomicBoolean(false);
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private volatile int motionInterval = DEFAULT_MOTION_INTERVAL;
+    private volatile long lastDrainTime = 0;
+    private boolean draining = false;
+    private Thread pumpThread;
+
+    private static class InputEvent {
+        private byte type;
+        private int x;
+        private int y;
+        private Pointer.Button button;
+        private XKeycode keycode;
+
+        private InputEvent(byte type, int x, int y) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+        }
+
+        private boolean isMotion() {
+            return type == POINTER_MOVE || type == POINTER_MOVE_DELTA;
+        }
+    }
+
+    public InputEventQueue(XServer xServer) {
+        this.xServer = xServer;
+    }
+
+    public int getMotionInterval() {
+        return motionInterval;
+    }
+
+    /**
+     * Sets the minimum time between two motion drains, in milliseconds. With 0 every motion event
+     * is applied right away.
+     */
+    public void setMotionInterval(int motionInterval) {
+        this.motionInterval = Math.max(0, motionInterval);
+    }
+
+    public void pointerMove(int x, int y) {
+        enqueueMotion(new InputEvent(POINTER_MOVE, x, y));
+    }
+
+    public void pointerMoveDelta(int dx, int dy) {
+        enqueueMotion(new InputEvent(POINTER_MOVE_DELTA, dx, dy));
+    }
+
+    public void pointerButton(Pointer.Button button, boolean pressed) {
+        InputEvent event = new InputEvent(pressed ? POINTER_BUTTON_PRESS : POINTER_BUTTON_RELEASE, 0, 0);
+        event.button = button;
+        enqueue(event);
+    }
+
+    public void keyPress(XKeycode keycode, int keysym) {
+        if (keycode == null) return;
+        InputEvent event = new InputEvent(KEY_PRESS, keysym, 0);
+        event.keycode = keycode;
+        enqueue(event);
+    }
+
+    public void keyRelease(XKeycode keycode) {
+        if (keycode == null) return;
+        InputEvent event = new InputEvent(KEY_RELEASE, 0, 0);
+        event.keycode = keycode;
+        enqueue(event);
+    }
+
+    private void enqueue(InputEvent event) {
+        receivedCount.incrementAndGet();
+        events.add(event);
+        drain();
+    }
+
+    private void enqueueMotion(InputEvent event) {
+        receivedCount.incrementAndGet();
+        events.add(event);
+        if (motionInterval == 0) {
+            drain();
+        }
+        else if (motionPending.compareAndSet(false, true)) LockSupport.unpark(getPumpThread());
+    }
+
+    private synchronized Thread getPumpThread() {
+        if (pumpThread == null) {
+            pumpThread = new Thread(this::runPump, "InputEventPump");
+            pumpThread.setDaemon(true);
+            pumpThread.start();
+        }
+        return pumpThread;
+    }
+
+    private void runPump() {
+        while (true) {
+            LockSupport.park(this);
+            if (!motionPending.get()) continue;
+
+            long delay;
+            while ((delay = lastDrainTime + TimeUnit.MILLISECONDS.toNanos(motionInterval) - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, delay);
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Applies all queued events. Drains are serialized by the input locks, and a drain started
+     * from a listener of an event that is being applied leaves the new events to the drain in
+     * progress.
+     */
+    public void drain() {
+        try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.INPUT_DEVICE)) {
+            if (draining) return;
+            draining = true;
+            motionPending.set(false);
+            lastDrainTime = System.nanoTime();
+
+            try {
+                InputEvent motion = null;
+                InputEvent event;
+                while ((event = events.poll()) != null) {
+                    if (event.isMotion()) {
+                        motion = mergeMotion(motion, event);
+                        continue;
+                    }
+
+                    if (motion != null) {
+                        apply(motion);
+                        motion = null;
+                    }
+                    apply(event);
+                }
+                if (motion != null) apply(motion);
+            }
+            finally {
+                draining = false;
+            }
+        }
+    }
+
+    private static InputEvent mergeMotion(InputEvent motion, InputEvent event) {
+        if (motion == null || event.type == POINTER_MOVE) return event;
+        motion.x += event.x;
+        motion.y += event.y;
+        return motion;
+    }
+
+    private void apply(InputEvent event) {
+        switch (event.type) {
+            case POINTER_MOVE:
+                xServer.pointer.setPosition(event.x, event.y);
+                break;
+            case POINTER_MOVE_DELTA:
+                xServer.pointer.setPosition(xServer.pointer.getX() + event.x, xServer.pointer.getY() + event.y);
+                break;
+            case POINTER_BUTTON_PRESS:
+            case POINTER_BUTTON_RELEASE:
+                xServer.pointer.setButton(event.button, event.type == POINTER_BUTTON_PRESS);
+                break;
+            case KEY_PRESS:
+                xServer.keyboard.setKeyPress(event.keycode.id, event.x);
+                break;
+            case KEY_RELEASE:
+                xServer.keyboard.setKeyRelease(event.keycode.id);
+                break;
+        }
+        deliveredCount.incrementAndGet();
+    }
+
+    /** Number of events injected since the last reset. */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    /** Number of events applied since the last reset, lower than received when motion was merged. */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public void resetCounters() {
+        receivedCount.set(0);
+        deliveredCount.set(0);
+    }
+}
@@ -0,0 +1,167 @@
+package com.winlator.xmod.xserver;
+
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps a queue of pending presentations per window and runs them at the vertical blank of their
+ * target MSC (media stream counter), as given by a VSyncClock.
+ *
+ * The MSC counts the vertical blanks seen by the scheduler, so it only moves forward even if the
+ * clock's phase or refresh interval changes. When several pixmap presentations of a window are
+ * due at the same vertical blank, only the last one is shown and the others are skipped.
+ */
+public class PresentScheduler {
+    private final VSyncClock clock;
+    private final SparseArray<ArrayList<Entry>> queues = new SparseArray<>();
+    private int pendingCount = 0;
+    private long msc = 1;
+    private long lastVSyncUst = 0;
+    private Thread thread;
+
+    public static abstract class Entry {
+        public final int windowId;
+        public final long targetMsc;
+        private final boolean skippable;
+
+        /**
+         * Entries that are skippable may be superseded by a later skippable entry of the same
+         * window that is due at the same vertical blank.
+         */
+        protected Entry(int windowId, long targetMsc, boolean skippable) {
+            this.windowId = windowId;
+            this.targetMsc = targetMsc;
+            this.skippable = skippable;
+        }
+
+        protected abstract void execute(long ust, long msc, boolean skipped);
+    }
+
+    public PresentScheduler(VSyncClock clock) {
+        this.clock = clock;
+    }
+
+    public VSyncClock getClock() {
+        return clock;
+    }
+
+    public synchronized long getCurrentMsc() {
+        return updateMsc();
+    }
+
+    public synchronized long getLastVSyncUst() {
+        updateMsc();
+        return lastVSyncUst;
+    }
+
+    private long updateMsc() {
+        long interval = Math.max(1, clock.getInterval());
+        long vsyncUst = clock.getVSyncUst();
+        long now = clock.getUst();
+        long currentVSyncUst = vsyncUst + Math.floorDiv(now - vsyncUst, interval) * interval;
+
+        if (lastVSyncUst == 0) {
+            lastVSyncUst = currentVSyncUst;
+        }
+        else if (currentVSyncUst > lastVSyncUst) {
+            // rounding absorbs small phase corrections of the clock
+            msc += (currentVSyncUst - lastVSyncUst + interval / 2) / interval;
+            lastVSyncUst = currentVSyncUst;
+        }
+        return msc;
+    }
+
+    /**
+     * Returns the MSC at which a request for targetMsc should run, as in the Present protocol: a
+     * target that has already passed moves to the next MSC that is equal to remainder modulo
+     * divisor, or to the next vertical blank if divisor is 0. Asynchronous requests may run at the
+     * current MSC.
+     */
+    public static long adjustTargetMsc(long targetMsc, long divisor, long remainder, long currentMsc, boolean async) {
+        if (targetMsc > currentMsc) return targetMsc;
+
+        if (divisor > 0) {
+            targetMsc = currentMsc - Long.remainderUnsigned(currentMsc, divisor) + Long.remainderUnsigned(remainder, divisor);
+            if (targetMsc < currentMsc || (targetMsc == currentMsc && !async)) targetMsc += divisor;
+            return targetMsc;
+        }
+        else return async ? currentMsc : currentMsc + 1;
+    }
+
+    public synchronized void schedule(Entry entry) {
+        ArrayList<Entry> queue = queues.get(entry.windowId);
+        if (queue == null) queues.put(entry.windowId, (queue = new ArrayList<>()));
+
+        int index = queue.size();
+        while (index > 0 && queue.get(index - 1).targetMsc > entry.targetMsc) index--;
+        queue.add(index, entry);
+        pendingCount++;
+
+        if (thread == null) {
+            thread = new Thread(this::run, "PresentScheduler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notify();
+    }
+
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    private void run() {
+        ArrayList<Entry> dueEntries = new ArrayList<>();
+        try {
+            while (true) {
+                long nextVSyncUst;
+                synchronized (this) {
+                    while (pendingCount == 0) wait();
+                    updateMsc();
+                    nextVSyncUst = lastVSyncUst + clock.getInterval();
+                }
+
+                clock.sleepUntil(nextVSyncUst);
+
+                long currentMsc;
+                long ust;
+                synchronized (this) {
+                    currentMsc = updateMsc();
+                    ust = lastVSyncUst;
+                    collectDueEntries(currentMsc, dueEntries);
+                }
+
+                for (int i = 0; i < dueEntries.size(); i++) {
+                    Entry entry = dueEntries.get(i);
+                    boolean skipped = false;
+                    if (entry.skippable) {
+                        for (int j = i + 1; j < dueEntries.size(); j++) {
+                            Entry nextEntry = dueEntries.get(j);
+                            if (nextEntry.windowId == entry.windowId && nextEntry.skippable) {
+                                skipped = true;
+                                break;
+                            }
+                        }
+                    }
+                    entry.execute(ust, currentMsc, skipped);
+                }
+                dueEntries.clear();
+            }
+        }
+        catch (InterruptedException e) {}
+    }
+
+    private void collectDueEntries(long currentMsc, ArrayList<Entry> dueEntries) {
+        for (int i = queues.size() - 1; i >= 0; i--) {
+            ArrayList<Entry> queue = queues.valueAt(i);
+            int count = 0;
+            while (count < queue.size() && queue.get(count).targetMsc <= currentMsc) count++;
+            if (count == 0) continue;
+
+            for (int j = 0; j < count; j++) dueEntries.add(queue.get(j));
+            queue.subList(0, count).clear();
+            pendingCount -= count;
+            if (queue.isEmpty()) queues.removeAt(i);
+        }
+    }
+}
@@ -2,7 +2,6 @@ package com.winlator.xmod.xserver;
 
 import androidx.annotation.NonNull;
 
-import com.winlator.xmod.core.ArrayUtils;
 import com.winlator.xmod.core.StringUtils;
 
 import java.nio.ByteBuffer;
@@ -31,7 +30,12 @@ public class Property {
     public final int name;
     public final int type;
     public final Format format;
+    /** A view of the value, replaced whenever the value changes. Views taken earlier keep the old value. */
     public ByteBuffer data;
+    private byte[] buffer;
+    private int start;
+    private int length;
+    private String stringValue;
 
     public Property(int name, int type, Format format, byte[] data) {
         this.name = name;
@@ -40,47 +44,87 @@ public class Property {
         replace(data);
     }
 
-    public void replace(byte[] data) {
-        this.data = ByteBuffer.wrap(data != null ? data : new byte[0]).order(ByteOrder.LITTLE_ENDIAN);
+    public synchronized void replace(byte[] data) {
+        buffer = data != null ? data : new byte[0];
+        start = 0;
+        length = buffer.length;
+        updateData();
     }
 
-    public void prepend(byte[] values) {
-        replace(ArrayUtils.concat(values, this.data.array()));
+    /**
+     * Grows the backing array so that it has room for prependLength bytes before the value and
+     * appendLength bytes after it. The slack added on each side is at least the current length,
+     * so repeated appends or prepends copy the value a logarithmic number of times.
+     */
+    private void reserve(int prependLength, int appendLength) {
+        int tailSlack = buffer.length - start - length;
+        if (start >= prependLength && tailSlack >= appendLength) return;
+
+        int newStart = start >= prependLength ? start : Math.max(prependLength, length);
+        int newTailSlack = tailSlack >= appendLength ? tailSlack : Math.max(appendLength, length);
+        byte[] newBuffer = new byte[newStart + length + newTailSlack];
+        System.arraycopy(buffer, start, newBuffer, newStart, length);
+        buffer = newBuffer;
+        start = newStart;
+    }
+
+    public synchronized void prepend(byte[] values) {
+        reserve(values.length, 0);
+        start -= values.length;
+        length += values.length;
+        System.arraycopy(values, 0, buffer, start, values.length);
+        updateData();
+    }
+
+    public synchronized void append(byte[] values) {
+        reserve(0, values.length);
+        System.arraycopy(values, 0, buffer, start + length, values.length);
+        length += values.length;
+        updateData();
     }
 
-    public void append(byte[] values) {
-        replace(ArrayUtils.concat(this.data.array(), values));
+    private void updateData() {
+        data = ByteBuffer.wrap(buffer, start, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+        stringValue = null;
+    }
+
+    public int length() {
+        return length;
     }
 
     @NonNull
     @Override
-    public String toString() {
+    public synchronized String toString() {
+        if (stringValue == null) stringValue = decodeString();
+        return stringValue;
+    }
+
+    private String decodeString() {
         String type = Atom.getName(this.type);
-        data.rewind();
         switch (type) {
             case "UTF8_STRING":
-                return StringUtils.fromANSIString(data.array(), StandardCharsets.UTF_8);
+                return StringUtils.fromANSIString(buffer, start, length, StandardCharsets.UTF_8);
             case "STRING":
-                return StringUtils.fromANSIString(data.array(), XServer.LATIN1_CHARSET);
+                return StringUtils.fromANSIString(buffer, start, length, XServer.LATIN1_CHARSET);
             case "ATOM":
                 return Atom.getName(data.getInt(0));
             default:
                 StringBuilder sb = new StringBuilder();
-                for (int i = 0, size = data.capacity() / (format.value >> 3); i < size; i++) {
+                int itemSize = format.value >> 3;
+                for (int i = 0, size = length / itemSize; i < size; i++) {
                     if (i > 0) sb.append(",");
                     switch (format) {
                         case BYTE_ARRAY:
-                            sb.append(data.get());
+                            sb.append(data.get(i));
                             break;
                         case SHORT_ARRAY:
-                            sb.append(data.getShort());
+                            sb.append(data.getShort(i * itemSize));
                             break;
                         case INT_ARRAY:
-                            sb.append(data.getInt());
+                            sb.append(data.getInt(i * itemSize));
                             break;
                     }
                 }
-                data.rewind();
                 return sb.toString();
         }
     }
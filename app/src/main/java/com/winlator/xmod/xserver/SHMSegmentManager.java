@@ -28,6 +28,16 @@ public class SHMSegmentManager {
         }
     }
 
+    /**
+     * Detaches the segments a client left attached when it disconnected.
+     */
+    public void detachAll(XClient client) {
+        for (int i = shmSegments.size() - 1; i >= 0; i--) {
+            int xid = shmSegments.keyAt(i);
+            if (client.isValidResourceId(xid)) detach(xid);
+        }
+    }
+
     public ByteBuffer getData(int xid) {
         return shmSegments.get(xid);
     }
@@ -0,0 +1,19 @@
+package com.winlator.xmod.xserver;
+
+/**
+ * Source of vertical blank timing for the Present extension. Times are UST values, microseconds on
+ * CLOCK_MONOTONIC, which is what clients compare them against.
+ */
+public interface VSyncClock {
+    /** Current time, in microseconds. */
+    long getUst();
+
+    /** Time of a recent vertical blank, in microseconds. */
+    long getVSyncUst();
+
+    /** Refresh interval, in microseconds. */
+    long getInterval();
+
+    /** Waits until the given time, a simulated clock advances to it instead. */
+    void sleepUntil(long ust) throws InterruptedException;
+}
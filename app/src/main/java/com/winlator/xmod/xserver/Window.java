@@ -34,7 +34,11 @@ public class Window extends XResource {
     private final SparseArray<Property> properties = new SparseArray<>();
     private final ArrayList<Window> children = new ArrayList<>();
     private final List<Window> immutableChildren = Collections.unmodifiableList(children);
+    private static final EventListener[] NO_LISTENERS = new EventListener[0];
     private final ArrayList<EventListener> eventListeners = new ArrayList<>();
+    /** Union of the event masks of all listeners, and the listeners of each event bit in registration order. */
+    private int eventMaskBits = 0;
+    private final EventListener[][] eventListenersByBit = new EventListener[Integer.SIZE][];
 
     public Window(int id, Drawable content, int x, int y, int width, int height, XClient originClient) {
         super(id);
@@ -147,32 +151,32 @@ public class Window extends XResource {
     }
 
     public String getName() {
-        Property property = getProperty(Atom.getId("WM_NAME"));
+        Property property = getProperty(Atom.WM_NAME);
         return property != null ? property.toString() : "";
     }
 
     public String getClassName() {
-        Property property = getProperty(Atom.getId("WM_CLASS"));
+        Property property = getProperty(Atom.WM_CLASS);
         return property != null ? property.toString() : "";
     }
 
     public int getWMHintsValue(WMHints wmHints) {
-        Property property = getProperty(Atom.getId("WM_HINTS"));
+        Property property = getProperty(Atom.WM_HINTS);
         return property != null ? property.getInt(wmHints.ordinal()) : 0;
     }
 
     public int getProcessId() {
-        Property property = getProperty(Atom.getId("_NET_WM_PID"));
+        Property property = getProperty(Atom.NET_WM_PID);
         return property != null ? property.getInt(0) : 0;
     }
 
     public boolean isWoW64() {
-        Property property = getProperty(Atom.getId("_NET_WM_WOW64"));
+        Property property = getProperty(Atom.NET_WM_WOW64);
         return property != null && property.data.get(0) == 1;
     }
 
     public long getHandle() {
-        Property property = getProperty(Atom.getId("_NET_WM_HWND"));
+        Property property = getProperty(Atom.NET_WM_HWND);
         return property != null ? property.getLong(0) : 0;
     }
 
@@ -229,55 +233,91 @@ public class Window extends XResource {
         return children.size();
     }
 
+    /**
+     * Listeners are indexed by their event mask when added, so the mask must not change while the
+     * listener is registered (a new listener is created when a client changes its event mask).
+     */
     public void addEventListener(EventListener eventListener) {
         eventListeners.add(eventListener);
+        updateEventIndex();
     }
 
     public void removeEventListener(EventListener eventListener) {
-        eventListeners.remove(eventListener);
+        if (eventListeners.remove(eventListener)) updateEventIndex();
     }
 
-    public boolean hasEventListenerFor(int eventId) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId)) return true;
+    private void updateEventIndex() {
+        eventMaskBits = 0;
+        for (EventListener eventListener : eventListeners) eventMaskBits |= eventListener.eventMask.getBits();
+
+        for (int bit = 0; bit < Integer.SIZE; bit++) {
+            int eventId = 1<<bit;
+            if ((eventMaskBits & eventId) == 0) {
+                eventListenersByBit[bit] = null;
+                continue;
+            }
+
+            int count = 0;
+            for (EventListener eventListener : eventListeners) {
+                if (eventListener.isInterestedIn(eventId)) count++;
+            }
+
+            EventListener[] listeners = new EventListener[count];
+            int i = 0;
+            for (EventListener eventListener : eventListeners) {
+                if (eventListener.isInterestedIn(eventId)) listeners[i++] = eventListener;
+            }
+            eventListenersByBit[bit] = listeners;
         }
-        return false;
+    }
+
+    /**
+     * Returns the listeners of the event bits in eventMask, or null if the listeners of more than
+     * one bit match and they have to be filtered one by one.
+     */
+    private EventListener[] getEventListeners(int eventMask) {
+        int matchingBits = eventMask & eventMaskBits;
+        if (matchingBits == 0) return NO_LISTENERS;
+        if (Integer.bitCount(matchingBits) > 1) return null;
+        return eventListenersByBit[Integer.numberOfTrailingZeros(matchingBits)];
+    }
+
+    public boolean hasEventListenerFor(int eventId) {
+        return (eventMaskBits & eventId) != 0;
     }
 
     public boolean hasEventListenerFor(Bitmask mask) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(mask)) return true;
-        }
-        return false;
+        return (eventMaskBits & mask.getBits()) != 0;
     }
 
     public void sendEvent(int eventId, Event event) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId)) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventId, event, null);
     }
 
     public void sendEvent(Bitmask eventMask, Event event) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventMask)) {
-                eventListener.sendEvent(event);
-            }
-        }
+        sendEvent(eventMask.getBits(), event, null);
     }
 
-    public void sendEvent(int eventId, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId) && eventListener.client == client) {
-                eventListener.sendEvent(event);
+    public void sendEvent(Bitmask eventMask, Event event, XClient client) {
+        sendEvent(eventMask.getBits(), event, client);
+    }
+
+    /**
+     * Sends the event to the listeners interested in any of the bits of eventMask, only to the
+     * listeners of client if it isn't null.
+     */
+    public void sendEvent(int eventMask, Event event, XClient client) {
+        EventListener[] listeners = getEventListeners(eventMask);
+        if (listeners != null) {
+            for (EventListener eventListener : listeners) {
+                if (client == null || eventListener.client == client) eventListener.sendEvent(event);
             }
+            return;
         }
-    }
 
-    public void sendEvent(Bitmask eventMask, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) {
+        for (int i = 0; i < eventListeners.size(); i++) {
+            EventListener eventListener = eventListeners.get(i);
+            if ((eventListener.eventMask.getBits() & eventMask) != 0 && (client == null || eventListener.client == client)) {
                 eventListener.sendEvent(event);
             }
         }
@@ -333,10 +373,11 @@ public class Window extends XResource {
     }
 
     public Window getAncestorWithEventMask(Bitmask eventMask) {
+        int bits = eventMask.getBits();
         Window window = this;
         while (window != null) {
-            if (window.hasEventListenerFor(eventMask)) return window;
-            if (window.attributes.getDoNotPropagateMask().intersects(eventMask)) return null;
+            if ((window.eventMaskBits & bits) != 0) return window;
+            if ((window.attributes.getDoNotPropagateMask().getBits() & bits) != 0) return null;
             window = window.parent;
         }
         return null;
@@ -349,7 +390,7 @@ public class Window extends XResource {
     public Window getAncestorWithEventId(int eventId, Window endWindow) {
         Window window = this;
         while (window != null) {
-            if (window.hasEventListenerFor(eventId)) return window;
+            if ((window.eventMaskBits & eventId) != 0) return window;
             if (window == endWindow || window.attributes.getDoNotPropagateMask().isSet(eventId)) return null;
             window = window.parent;
         }
@@ -385,16 +426,12 @@ public class Window extends XResource {
     }
 
     public Bitmask getAllEventMasks() {
-        Bitmask eventMask = new Bitmask();
-        for (EventListener eventListener : eventListeners) eventMask.join(eventListener.eventMask);
-        return eventMask;
+        return new Bitmask(eventMaskBits);
     }
 
     public EventListener getButtonPressListener() {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(Event.BUTTON_PRESS)) return eventListener;
-        }
-        return null;
+        EventListener[] listeners = getEventListeners(Event.BUTTON_PRESS);
+        return listeners.length > 0 ? listeners[0] : null;
     }
 
     public void disableAllDescendants() {
@@ -23,6 +23,7 @@ public class WindowManager extends XResourceManager {
     public enum FocusRevertTo {NONE, POINTER_ROOT, PARENT}
     public final Window rootWindow;
     private final SparseArray<Window> windows = new SparseArray<>();
+    private final WindowSpatialIndex spatialIndex;
     public final DrawableManager drawableManager;
     private Window focusedWindow;
     private FocusRevertTo focusRevertTo = FocusRevertTo.NONE;
@@ -51,6 +52,7 @@ public class WindowManager extends XResourceManager {
         rootWindow = new Window(id, drawable, 0, 0, screenInfo.width, screenInfo.height, null);
         rootWindow.attributes.setMapped(true);
         windows.put(id, rootWindow);
+        spatialIndex = new WindowSpatialIndex(rootWindow);
     }
 
     public Window getWindow(int id) {
@@ -85,6 +87,7 @@ public class WindowManager extends XResourceManager {
         triggerOnFreeResourceListener(window);
         if (window == focusedWindow) revertFocus();
         parent.removeChild(window);
+        spatialIndex.invalidate();
     }
 
     public void mapWindow(Window window) {
@@ -92,6 +95,7 @@ public class WindowManager extends XResourceManager {
             Window parent = window.getParent();
             if (!parent.hasEventListenerFor(Event.SUBSTRUCTURE_REDIRECT) || window.attributes.isOverrideRedirect()) {
                 window.attributes.setMapped(true);
+                spatialIndex.invalidate();
                 window.sendEvent(Event.STRUCTURE_NOTIFY, new MapNotify(window, window));
                 parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new MapNotify(parent, window));
                 window.sendEvent(Event.EXPOSURE, new Expose(window));
@@ -104,6 +108,7 @@ public class WindowManager extends XResourceManager {
     public void unmapWindow(Window window) {
         if (rootWindow.id != window.id && window.attributes.isMapped()) {
             window.attributes.setMapped(false);
+            spatialIndex.invalidate();
             Window parent = window.getParent();
             window.sendEvent(Event.STRUCTURE_NOTIFY, new UnmapNotify(window, window));
             parent.sendEvent(Event.SUBSTRUCTURE_NOTIFY, new UnmapNotify(parent, window));
@@ -175,6 +180,7 @@ public class WindowManager extends XResourceManager {
         if (drawable != null) drawable.setOnDrawListener(() -> triggerOnUpdateWindowContent(window));
         windows.put(id, window);
         parent.addChild(window);
+        spatialIndex.invalidate();
         triggerOnCreateResourceListener(window);
         return window;
     }
@@ -201,6 +207,7 @@ public class WindowManager extends XResourceManager {
             window.setY(y);
             window.setWidth(width);
             window.setHeight(height);
+            spatialIndex.invalidate();
             triggerOnUpdateWindowGeometry(window, resized);
         }
 
@@ -219,6 +226,7 @@ public class WindowManager extends XResourceManager {
                 parent.moveChildBelow(window, sibling);
                 break;
         }
+        spatialIndex.invalidate();
         triggerOnChangeWindowZOrder(window);
     }
 
@@ -276,16 +284,11 @@ public class WindowManager extends XResourceManager {
         Window oldParent = window.getParent();
         if (oldParent != null) oldParent.removeChild(window);
         newParent.addChild(window);
+        spatialIndex.invalidate();
     }
 
     public Window findPointWindow(short rootX, short rootY) {
-        return findPointWindow(rootWindow, rootX, rootY);
-    }
-
-    private Window findPointWindow(Window window, short rootX, short rootY) {
-        if (!(window.attributes.isMapped() && window.containsPoint(rootX, rootY))) return null;
-        Window child = window.getChildByCoords(rootX, rootY);
-        return child != null ? findPointWindow(child, rootX, rootY) : window;
+        return spatialIndex.findPointWindow(rootX, rootY);
     }
 
     public void addOnWindowModificationListener(OnWindowModificationListener onWindowModificationListener) {
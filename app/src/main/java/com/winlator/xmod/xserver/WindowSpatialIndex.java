@@ -0,0 +1,142 @@
+package com.winlator.xmod.xserver;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the topmost viewable window under a point without walking the window tree.
+ *
+ * The viewable windows are flattened in stacking order (a parent before its children, a child
+ * before the siblings above it) together with their rectangles in root coordinates, clipped by
+ * their ancestors. The window the recursive hit test would find is the last one in that order
+ * that contains the point. A grid over the root window lists, for every cell, the windows that
+ * overlap it, so a lookup only tests the few windows of one cell.
+ *
+ * The index is rebuilt on the next lookup after invalidate(), which the window manager calls
+ * whenever a window is created, destroyed, mapped, unmapped, moved, resized, restacked or
+ * reparented.
+ */
+public class WindowSpatialIndex {
+    private static final int CELL_SIZE = 128;
+    private final Window rootWindow;
+    private boolean valid = false;
+    private Window[] windows = new Window[16];
+    private int[] rects = new int[64];
+    private int windowCount = 0;
+    private int columns;
+    private int rows;
+    private int[][] cells = new int[0][];
+    private int[] cellSizes = new int[0];
+
+    public WindowSpatialIndex(Window rootWindow) {
+        this.rootWindow = rootWindow;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public Window findPointWindow(short rootX, short rootY) {
+        if (!valid) rebuild();
+        if (windowCount == 0 || !contains(0, rootX, rootY)) return null;
+
+        int column = (rootX - rects[0]) / CELL_SIZE;
+        int row = (rootY - rects[1]) / CELL_SIZE;
+        int cell = row * columns + column;
+        int[] indices = cells[cell];
+        for (int i = cellSizes[cell] - 1; i >= 0; i--) {
+            int index = indices[i];
+            if (contains(index, rootX, rootY)) return windows[index];
+        }
+        return null;
+    }
+
+    private boolean contains(int index, int x, int y) {
+        int offset = index * 4;
+        return x >= rects[offset] && y >= rects[offset+1] && x < rects[offset+2] && y < rects[offset+3];
+    }
+
+    private void rebuild() {
+        Arrays.fill(windows, 0, windowCount, null);
+        windowCount = 0;
+        valid = true;
+        if (!rootWindow.attributes.isMapped()) return;
+
+        ArrayDeque<Window> stack = new ArrayDeque<>();
+        ArrayDeque<int[]> clipStack = new ArrayDeque<>();
+        stack.push(rootWindow);
+        clipStack.push(new int[]{Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0});
+
+        while (!stack.isEmpty()) {
+            Window window = stack.pop();
+            int[] parentClip = clipStack.pop();
+
+            int x = parentClip[4] + window.getX();
+            int y = parentClip[5] + window.getY();
+            int x0 = Math.max(parentClip[0], x);
+            int y0 = Math.max(parentClip[1], y);
+            int x1 = Math.min(parentClip[2], x + window.getWidth());
+            int y1 = Math.min(parentClip[3], y + window.getHeight());
+            if (x0 >= x1 || y0 >= y1) continue;
+
+            addWindow(window, x0, y0, x1, y1);
+
+            int[] clip = {x0, y0, x1, y1, x, y};
+            // pushed from the top down, so that the bottom child is flattened first
+            List<Window> children = window.getChildren();
+            for (int i = children.size() - 1; i >= 0; i--) {
+                Window child = children.get(i);
+                if (child.attributes.isMapped()) {
+                    stack.push(child);
+                    clipStack.push(clip);
+                }
+            }
+        }
+
+        buildGrid();
+    }
+
+    private void addWindow(Window window, int x0, int y0, int x1, int y1) {
+        if (windowCount == windows.length) {
+            windows = Arrays.copyOf(windows, windowCount * 2);
+            rects = Arrays.copyOf(rects, windowCount * 8);
+        }
+        int offset = windowCount * 4;
+        rects[offset] = x0;
+        rects[offset+1] = y0;
+        rects[offset+2] = x1;
+        rects[offset+3] = y1;
+        windows[windowCount++] = window;
+    }
+
+    private void buildGrid() {
+        if (windowCount == 0) return;
+        columns = (rects[2] - rects[0] + CELL_SIZE - 1) / CELL_SIZE;
+        rows = (rects[3] - rects[1] + CELL_SIZE - 1) / CELL_SIZE;
+
+        int cellCount = columns * rows;
+        if (cells.length != cellCount) {
+            cells = new int[cellCount][];
+            cellSizes = new int[cellCount];
+            for (int i = 0; i < cellCount; i++) cells[i] = new int[8];
+        }
+        else Arrays.fill(cellSizes, 0);
+
+        for (int index = 0; index < windowCount; index++) {
+            int offset = index * 4;
+            int column0 = (rects[offset] - rects[0]) / CELL_SIZE;
+            int row0 = (rects[offset+1] - rects[1]) / CELL_SIZE;
+            int column1 = (rects[offset+2] - 1 - rects[0]) / CELL_SIZE;
+            int row1 = (rects[offset+3] - 1 - rects[1]) / CELL_SIZE;
+
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    int cell = row * columns + column;
+                    if (cellSizes[cell] == cells[cell].length) cells[cell] = Arrays.copyOf(cells[cell], cellSizes[cell] * 2);
+                    cells[cell][cellSizes[cell]++] = index;
+                }
+            }
+        }
+    }
+}
@@ -5,6 +5,7 @@ import androidx.collection.ArrayMap;
 import com.winlator.xmod.xconnector.XInputStream;
 import com.winlator.xmod.xconnector.XOutputStream;
 import com.winlator.xmod.xserver.events.Event;
+import com.winlator.xmod.xserver.requests.DrawRequests;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -21,6 +22,7 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
     private final ArrayList<XResource> resources = new ArrayList<>();
+    private DrawRequests.ImageStream imageStream;
 
     public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
         this.xServer = xServer;
@@ -94,6 +96,9 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
                 eventListeners.keyAt(i).removeEventListener(eventListeners.removeAt(i));
             }
 
+            SHMSegmentManager shmSegmentManager = xServer.getSHMSegmentManager();
+            if (shmSegmentManager != null) shmSegmentManager.detachAll(this);
+
             xServer.windowManager.removeOnResourceLifecycleListener(this);
             xServer.pixmapManager.removeOnResourceLifecycleListener(this);
             xServer.graphicsContextManager.removeOnResourceLifecycleListener(this);
@@ -136,6 +141,14 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         inputStream.skip(getRemainingRequestLength());
     }
 
+    public DrawRequests.ImageStream getImageStream() {
+        return imageStream;
+    }
+
+    public void setImageStream(DrawRequests.ImageStream imageStream) {
+        this.imageStream = imageStream;
+    }
+
     public XInputStream getInputStream() {
         return inputStream;
     }
@@ -28,6 +28,7 @@ public class XClientRequestHandler implements RequestHandler {
     public static final byte RESPONSE_CODE_ERROR = 0;
     public static final byte RESPONSE_CODE_SUCCESS = 1;
     public static final int MAX_REQUEST_LENGTH = 65535;
+    public static final int MIN_STREAMED_REQUEST_LENGTH = 262144;
 
     @Override
     public boolean handleRequest(Client client) throws IOException {
@@ -150,10 +151,12 @@ public class XClientRequestHandler implements RequestHandler {
     }
 
     private boolean handleNormalRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
+        if (client.getImageStream() != null) return DrawRequests.continuePutImage(client, inputStream);
         if (inputStream.available() < 4) return false;
         byte opcode = inputStream.readByte();
         byte requestData = inputStream.readByte();
 
+        int headerLength = 4;
         int requestLength = inputStream.readUnsignedShort();
         if (requestLength != 0) {
             requestLength = requestLength * 4 - 4;
@@ -161,8 +164,18 @@ public class XClientRequestHandler implements RequestHandler {
         else if (inputStream.available() < 4) {
             return false;
         }
-        else requestLength = inputStream.readInt() * 4 - 8;
-        if (inputStream.available() < requestLength) return false;
+        else {
+            requestLength = inputStream.readInt() * 4 - 8;
+            headerLength = 8;
+        }
+
+        if (inputStream.available() < requestLength) {
+            if (opcode == ClientOpcodes.PUT_IMAGE && requestLength >= MIN_STREAMED_REQUEST_LENGTH) {
+                if (DrawRequests.beginPutImage(client, inputStream, requestData, requestLength)) return true;
+            }
+            inputStream.setPendingLength(headerLength + requestLength);
+            return false;
+        }
 
         client.generateSequenceNumber();
         client.setRequestData(requestData);
@@ -352,14 +365,10 @@ public class XClientRequestHandler implements RequestHandler {
                     }
                     break;
                 case ClientOpcodes.COPY_AREA:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.copyArea(client, inputStream, outputStream);
-                    }
+                    DrawRequests.copyArea(client, inputStream, outputStream);
                     break;
                 case ClientOpcodes.POLY_LINE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.polyLine(client, inputStream, outputStream);
-                    }
+                    DrawRequests.polyLine(client, inputStream, outputStream);
                     break;
                 case ClientOpcodes.POLY_SEGMENT:
                     client.skipRequest();
@@ -368,19 +377,13 @@ public class XClientRequestHandler implements RequestHandler {
                     client.skipRequest();
                     break;
                 case ClientOpcodes.POLY_FILL_RECTANGLE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.polyFillRectangle(client, inputStream, outputStream);
-                    }
+                    DrawRequests.polyFillRectangle(client, inputStream, outputStream);
                     break;
                 case ClientOpcodes.PUT_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                        DrawRequests.putImage(client, inputStream, outputStream);
-                    }
+                    DrawRequests.putImage(client, inputStream, outputStream);
                     break;
                 case ClientOpcodes.GET_IMAGE:
-                    try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
-                        DrawRequests.getImage(client, inputStream, outputStream);
-                    }
+                    DrawRequests.getImage(client, inputStream, outputStream);
                     break;
                 case ClientOpcodes.CREATE_COLORMAP:
                     client.skipRequest();
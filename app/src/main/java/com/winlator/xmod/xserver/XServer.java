@@ -14,6 +14,7 @@ import com.winlator.xmod.xserver.extensions.SyncExtension;
 
 import java.nio.charset.Charset;
 import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class XServer {
@@ -32,6 +33,7 @@ public class XServer {
     public final CursorManager cursorManager;
     public final Keyboard keyboard = Keyboard.createKeyboard(this);
     public final Pointer pointer = new Pointer(this);
+    public final InputEventQueue inputEventQueue = new InputEventQueue(this);
     public final InputDeviceManager inputDeviceManager;
     public final GrabManager grabManager;
     public final CursorLocker cursorLocker;
@@ -39,6 +41,7 @@ public class XServer {
     private GLRenderer renderer;
     private WinHandler winHandler;
     private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
+    private final AtomicLongArray lockContentions = new AtomicLongArray(Lockable.values().length);
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
     private boolean isGrabbed = false;
@@ -100,12 +103,31 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
+    private void acquireLock(Lockable lockable) {
+        ReentrantLock lock = locks.get(lockable);
+        if (!lock.tryLock()) {
+            lockContentions.incrementAndGet(lockable.ordinal());
+            lock.lock();
+        }
+    }
+
+    /**
+     * Returns how many times a thread had to wait for the given lock since the server was created.
+     */
+    public long getLockContentionCount(Lockable lockable) {
+        return lockContentions.get(lockable.ordinal());
+    }
+
+    public void resetLockContentionCounts() {
+        for (int i = 0; i < lockContentions.length(); i++) lockContentions.set(i, 0);
+    }
+
     private class SingleXLock implements XLock {
         private final ReentrantLock lock;
 
         private SingleXLock(Lockable lockable) {
             this.lock = locks.get(lockable);
-            lock.lock();
+            acquireLock(lockable);
         }
 
         @Override
@@ -119,7 +141,7 @@ public class XServer {
 
         private MultiXLock(Lockable[] lockables) {
             this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
+            for (Lockable lockable : lockables) acquireLock(lockable);
         }
 
         @Override
@@ -151,27 +173,19 @@ public class XServer {
     }
 
     public void injectPointerMove(int x, int y) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setPosition(x, y);
-        }
+        inputEventQueue.pointerMove(x, y);
     }
 
     public void injectPointerMoveDelta(int dx, int dy) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setPosition(pointer.getX() + dx, pointer.getY() + dy);
-        }
+        inputEventQueue.pointerMoveDelta(dx, dy);
     }
 
     public void injectPointerButtonPress(Pointer.Button buttonCode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setButton(buttonCode, true);
-        }
+        inputEventQueue.pointerButton(buttonCode, true);
     }
 
     public void injectPointerButtonRelease(Pointer.Button buttonCode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setButton(buttonCode, false);
-        }
+        inputEventQueue.pointerButton(buttonCode, false);
     }
 
     public void injectKeyPress(XKeycode xKeycode) {
@@ -179,15 +193,11 @@ public class XServer {
     }
 
     public void injectKeyPress(XKeycode xKeycode, int keysym) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            keyboard.setKeyPress(xKeycode.id, keysym);
-        }
+        inputEventQueue.keyPress(xKeycode, keysym);
     }
 
     public void injectKeyRelease(XKeycode xKeycode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            keyboard.setKeyRelease(xKeycode.id);
-        }
+        inputEventQueue.keyRelease(xKeycode);
     }
 
     private void setupExtensions() {
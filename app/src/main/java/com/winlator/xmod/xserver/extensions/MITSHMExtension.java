@@ -90,17 +90,21 @@ public class MITSHMExtension implements Extension {
         int shmseg = inputStream.readInt();
         inputStream.skip(4);
 
-        Drawable drawable = client.xServer.drawableManager.getDrawable(drawableId);
-        if (drawable == null) throw new BadDrawable(drawableId);
+        Drawable drawable;
+        ByteBuffer data;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+            drawable = client.xServer.drawableManager.getDrawable(drawableId);
+            if (drawable == null) throw new BadDrawable(drawableId);
 
-        GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
-        if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+            GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+            if (graphicsContext == null) throw new BadGraphicsContext(gcId);
 
-        ByteBuffer data = client.xServer.getSHMSegmentManager().getData(shmseg);
-        if (data == null) throw new BadSHMSegment(shmseg);
+            data = client.xServer.getSHMSegmentManager().getData(shmseg);
+            if (data == null) throw new BadSHMSegment(shmseg);
 
-        if (graphicsContext.getFunction() != GraphicsContext.Function.COPY) {
-            throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
+            if (graphicsContext.getFunction() != GraphicsContext.Function.COPY) {
+                throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
+            }
         }
 
         drawable.drawImage(srcX, srcY, dstX, dstY, srcWidth, srcHeight, depth, data, totalWidth, totalHeight);
@@ -124,9 +128,7 @@ public class MITSHMExtension implements Extension {
                 }
                 break;
             case ClientOpcodes.PUT_IMAGE :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
-                    putImage(client, inputStream, outputStream);
-                }
+                putImage(client, inputStream, outputStream);
                 break;
             default:
                 throw new BadImplementation();
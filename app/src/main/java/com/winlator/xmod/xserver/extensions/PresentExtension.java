@@ -10,8 +10,11 @@ import com.winlator.xmod.xconnector.XInputStream;
 import com.winlator.xmod.xconnector.XOutputStream;
 import com.winlator.xmod.xconnector.XStreamLock;
 import com.winlator.xmod.xserver.Bitmask;
+import com.winlator.xmod.xserver.ChoreographerVSyncClock;
 import com.winlator.xmod.xserver.Drawable;
 import com.winlator.xmod.xserver.Pixmap;
+import com.winlator.xmod.xserver.PresentScheduler;
+import com.winlator.xmod.xserver.VSyncClock;
 import com.winlator.xmod.xserver.Window;
 import com.winlator.xmod.xserver.XClient;
 import com.winlator.xmod.xserver.XLock;
@@ -28,15 +31,17 @@ import java.io.IOException;
 
 public class PresentExtension implements Extension {
     public static final byte MAJOR_OPCODE = -103;
-    private static final int FAKE_INTERVAL = 1000000 / 60;
+    private static final int OPTION_ASYNC = 1;
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
     private final SparseArray<Event> events = new SparseArray<>();
+    private final PresentScheduler scheduler;
     private SyncExtension syncExtension;
 
     private static abstract class ClientOpcodes {
         private static final byte QUERY_VERSION = 0;
         private static final byte PRESENT_PIXMAP = 1;
+        private static final byte NOTIFY_MSC = 2;
         private static final byte SELECT_INPUT = 3;
     }
 
@@ -47,6 +52,78 @@ public class PresentExtension implements Extension {
         private Bitmask mask;
     }
 
+    private class PixmapPresentation extends PresentScheduler.Entry {
+        private final XServer xServer;
+        private final Window window;
+        private final Pixmap pixmap;
+        private final int serial;
+        private final short xOff;
+        private final short yOff;
+        private final int idleFence;
+
+        private PixmapPresentation(XServer xServer, Window window, Pixmap pixmap, int serial, short xOff, short yOff, int idleFence, long targetMsc) {
+            super(window.id, targetMsc, true);
+            this.xServer = xServer;
+            this.window = window;
+            this.pixmap = pixmap;
+            this.serial = serial;
+            this.xOff = xOff;
+            this.yOff = yOff;
+            this.idleFence = idleFence;
+        }
+
+        @Override
+        protected void execute(long ust, long msc, boolean skipped) {
+            try (XLock lock = xServer.lock(XServer.Lockable.WINDOW_MANAGER, XServer.Lockable.PIXMAP_MANAGER)) {
+                boolean windowExists = xServer.windowManager.getWindow(window.id) == window;
+                boolean pixmapExists = xServer.pixmapManager.getPixmap(pixmap.id) == pixmap;
+                if (!windowExists) {
+                    if (idleFence != 0) syncExtension.setTriggered(idleFence);
+                    return;
+                }
+
+                // The client still waits for this serial even if it freed the pixmap meanwhile
+                if (!pixmapExists) {
+                    if (idleFence != 0) syncExtension.setTriggered(idleFence);
+                    sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.SKIP, ust, msc);
+                }
+                else if (skipped) {
+                    sendIdleNotify(window, pixmap, serial, idleFence);
+                    sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.SKIP, ust, msc);
+                }
+                else present(window, pixmap, serial, xOff, yOff, idleFence, ust, msc);
+            }
+        }
+    }
+
+    private class MSCNotification extends PresentScheduler.Entry {
+        private final Window window;
+        private final int serial;
+
+        private MSCNotification(Window window, int serial, long targetMsc) {
+            super(window.id, targetMsc, false);
+            this.window = window;
+            this.serial = serial;
+        }
+
+        @Override
+        protected void execute(long ust, long msc, boolean skipped) {
+            sendCompleteNotify(window, serial, Kind.MSC_NOTIFY, Mode.COPY, ust, msc);
+        }
+    }
+
+    public PresentExtension() {
+        this(new ChoreographerVSyncClock());
+    }
+
+    public PresentExtension(VSyncClock clock) {
+        scheduler = new PresentScheduler(clock);
+    }
+
+    public PresentScheduler getScheduler() {
+        return scheduler;
+    }
+
     @Override
     public String getName() {
         return "Present";
@@ -105,6 +182,13 @@ public class PresentExtension implements Extension {
         }
     }
 
+    private void present(Window window, Pixmap pixmap, int serial, short xOff, short yOff, int idleFence, long ust, long msc) {
+        Drawable content = window.getContent();
+        content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
+        sendIdleNotify(window, pixmap, serial, idleFence);
+        sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
+    }
+
     private void presentPixmap(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         int windowId = inputStream.readInt();
         int pixmapId = inputStream.readInt();
@@ -114,6 +198,11 @@ public class PresentExtension implements Extension {
         short yOff = inputStream.readShort();
         inputStream.skip(8);
         int idleFence = inputStream.readInt();
+        int options = inputStream.readInt();
+        inputStream.skip(4);
+        long targetMsc = inputStream.readLong();
+        long divisor = inputStream.readLong();
+        long remainder = inputStream.readLong();
         inputStream.skip(client.getRemainingRequestLength());
 
         final Window window = client.xServer.windowManager.getWindow(windowId);
@@ -125,14 +214,34 @@ public class PresentExtension implements Extension {
         Drawable content = window.getContent();
         if (content.visual.depth != pixmap.drawable.visual.depth) throw new BadMatch();
 
-        long ust = System.nanoTime() / 1000;
-        long msc = ust / FAKE_INTERVAL;
+        boolean async = (options & OPTION_ASYNC) != 0;
+        long currentMsc = scheduler.getCurrentMsc();
+        targetMsc = PresentScheduler.adjustTargetMsc(targetMsc, divisor, remainder, currentMsc, async);
 
-        synchronized (content.renderLock) {
-            content.copyArea((short)0, (short)0, xOff, yOff, pixmap.drawable.width, pixmap.drawable.height, pixmap.drawable);
-            sendIdleNotify(window, pixmap, serial, idleFence);
-            sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
+        if (targetMsc <= currentMsc) {
+            present(window, pixmap, serial, xOff, yOff, idleFence, scheduler.getClock().getUst(), currentMsc);
         }
+        else scheduler.schedule(new PixmapPresentation(client.xServer, window, pixmap, serial, xOff, yOff, idleFence, targetMsc));
+    }
+
+    private void notifyMsc(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        int windowId = inputStream.readInt();
+        int serial = inputStream.readInt();
+        inputStream.skip(4);
+        long targetMsc = inputStream.readLong();
+        long divisor = inputStream.readLong();
+        long remainder = inputStream.readLong();
+
+        Window window = client.xServer.windowManager.getWindow(windowId);
+        if (window == null) throw new BadWindow(windowId);
+
+        long currentMsc = scheduler.getCurrentMsc();
+        targetMsc = PresentScheduler.adjustTargetMsc(targetMsc, divisor, remainder, currentMsc, true);
+
+        if (targetMsc <= currentMsc) {
+            sendCompleteNotify(window, serial, Kind.MSC_NOTIFY, Mode.COPY, scheduler.getLastVSyncUst(), currentMsc);
+        }
+        else scheduler.schedule(new MSCNotification(window, serial, targetMsc));
     }
 
     private void selectInput(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
@@ -185,6 +294,11 @@ public class PresentExtension implements Extension {
                     presentPixmap(client, inputStream, outputStream);
                 }
                 break;
+            case ClientOpcodes.NOTIFY_MSC:
+                try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
+                    notifyMsc(client, inputStream, outputStream);
+                }
+                break;
             case ClientOpcodes.SELECT_INPUT:
                 try (XLock lock = client.xServer.lock(XServer.Lockable.WINDOW_MANAGER)) {
                     selectInput(client, inputStream, outputStream);
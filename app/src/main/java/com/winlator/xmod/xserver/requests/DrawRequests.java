@@ -8,6 +8,8 @@ import com.winlator.xmod.xconnector.XStreamLock;
 import com.winlator.xmod.xserver.Drawable;
 import com.winlator.xmod.xserver.GraphicsContext;
 import com.winlator.xmod.xserver.XClient;
+import com.winlator.xmod.xserver.XLock;
+import com.winlator.xmod.xserver.XServer;
 import com.winlator.xmod.xserver.errors.BadDrawable;
 import com.winlator.xmod.xserver.errors.BadGraphicsContext;
 import com.winlator.xmod.xserver.errors.BadMatch;
@@ -20,6 +22,28 @@ public abstract class DrawRequests {
     public enum Format {BITMAP, XY_PIXMAP, Z_PIXMAP}
     private enum CoordinateMode {ORIGIN, PREVIOUS}
 
+    public static final class ImageStream {
+        private final int drawableId;
+        private final Drawable drawable;
+        private final short dstX;
+        private final short dstY;
+        private final short width;
+        private final short height;
+        private final byte depth;
+        private short row = 0;
+        private int skipLength = 0;
+
+        private ImageStream(int drawableId, Drawable drawable, short dstX, short dstY, short width, short height, byte depth) {
+            this.drawableId = drawableId;
+            this.drawable = drawable;
+            this.dstX = dstX;
+            this.dstY = dstY;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+    }
+
     public static void putImage(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
         Format format = Format.values()[client.getRequestData()];
         int drawableId = inputStream.readInt();
@@ -34,14 +58,17 @@ public abstract class DrawRequests {
         int length = client.getRemainingRequestLength();
         ByteBuffer data = inputStream.readByteBuffer(length);
 
-        Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
-        if (drawable == null) throw new BadDrawable(drawableId);
+        Drawable drawable;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+            drawable = client.xServer.drawableManager.getDrawable(drawableId);
+            if (drawable == null) throw new BadDrawable(drawableId);
 
-        GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
-        if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+            GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+            if (graphicsContext == null) throw new BadGraphicsContext(gcId);
 
-        if (!(graphicsContext.getFunction() == GraphicsContext.Function.COPY || format == Format.Z_PIXMAP)) {
-            throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
+            if (!(graphicsContext.getFunction() == GraphicsContext.Function.COPY || format == Format.Z_PIXMAP)) {
+                throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
+            }
         }
 
         switch (format) {
@@ -64,6 +91,77 @@ public abstract class DrawRequests {
         }
     }
 
+    /**
+     * Starts handling a large Z_PIXMAP PutImage before its payload has fully arrived. Returns false if
+     * the request cannot be streamed, in which case it is handled normally once complete.
+     */
+    public static boolean beginPutImage(XClient client, XInputStream inputStream, byte requestData, int requestLength) {
+        if (inputStream.available() < 20) return false;
+        Format format = Format.values()[requestData];
+        int drawableId = inputStream.readInt();
+        int gcId = inputStream.readInt();
+        short width = inputStream.readShort();
+        short height = inputStream.readShort();
+        short dstX = inputStream.readShort();
+        short dstY = inputStream.readShort();
+        byte leftPad = inputStream.readByte();
+        byte depth = inputStream.readByte();
+        inputStream.skip(2);
+
+        if (format != Format.Z_PIXMAP || leftPad != 0 || (depth != 24 && depth != 32)) return false;
+        if (width <= 0 || height <= 0 || (requestLength - 20) != (long)width * height * 4) return false;
+
+        Drawable drawable;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+            drawable = client.xServer.drawableManager.getDrawable(drawableId);
+            GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+            if (drawable == null || graphicsContext == null || graphicsContext.getFunction() != GraphicsContext.Function.COPY) return false;
+        }
+
+        if (dstX < 0 || dstY < 0 || (dstX + width) > drawable.width || (dstY + height) > drawable.height) return false;
+
+        client.generateSequenceNumber();
+        client.setImageStream(new ImageStream(drawableId, drawable, dstX, dstY, width, height, depth));
+        continuePutImage(client, inputStream);
+        return true;
+    }
+
+    /**
+     * Copies the complete rows received so far of a streamed PutImage into its drawable. If the
+     * drawable was freed in the meantime, the rest of the payload is skipped.
+     */
+    public static boolean continuePutImage(XClient client, XInputStream inputStream) {
+        ImageStream stream = client.getImageStream();
+        int rowLength = stream.width * 4;
+
+        if (stream.skipLength == 0) {
+            try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER)) {
+                if (client.xServer.drawableManager.getDrawable(stream.drawableId) != stream.drawable) {
+                    stream.skipLength = (stream.height - stream.row) * rowLength;
+                }
+            }
+        }
+
+        if (stream.skipLength > 0) {
+            int length = Math.min(inputStream.available(), stream.skipLength);
+            if (length == 0) return false;
+            inputStream.skip(length);
+            stream.skipLength -= length;
+            if (stream.skipLength == 0) client.setImageStream(null);
+            return true;
+        }
+
+        int rows = Math.min(inputStream.available() / rowLength, stream.height - stream.row);
+        if (rows == 0) return false;
+
+        ByteBuffer data = inputStream.readByteBuffer(rows * rowLength);
+        stream.drawable.drawImage((short)0, (short)0, stream.dstX, (short)(stream.dstY + stream.row), stream.width, (short)rows, stream.depth, data, stream.width, (short)rows);
+        stream.row += rows;
+
+        if (stream.row == stream.height) client.setImageStream(null);
+        return true;
+    }
+
     public static void getImage(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
         Format format = Format.values()[client.getRequestData()];
         int drawableId = inputStream.readInt();
@@ -75,10 +173,15 @@ public abstract class DrawRequests {
 
         if (format != Format.Z_PIXMAP) throw new UnsupportedOperationException("Only Z_PIXMAP is supported.");
 
-        Drawable drawable =  client.xServer.drawableManager.getDrawable(drawableId);
-        if (drawable == null) throw new BadDrawable(drawableId);
-        int visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
-        ByteBuffer data = drawable.getImage(x, y, width, height);
+        Drawable drawable;
+        int visualId;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.PIXMAP_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+            drawable = client.xServer.drawableManager.getDrawable(drawableId);
+            if (drawable == null) throw new BadDrawable(drawableId);
+            visualId = client.xServer.pixmapManager.getPixmap(drawableId) == null ? drawable.visual.id : 0;
+        }
+
+        ByteBuffer data = drawable.getImage(x, y, width, height, client.xServer.drawableManager.bufferPool);
         int length = data.limit();
 
         try (XStreamLock lock = outputStream.lock()) {
@@ -91,6 +194,9 @@ public abstract class DrawRequests {
             outputStream.write(data);
             if ((-length & 3) > 0) outputStream.writePad(-length & 3);
         }
+        finally {
+            client.xServer.drawableManager.bufferPool.release(data);
+        }
     }
 
     public static void copyArea(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
@@ -104,25 +210,30 @@ public abstract class DrawRequests {
         short width = inputStream.readShort();
         short height = inputStream.readShort();
 
-        Drawable srcDrawable = client.xServer.drawableManager.getDrawable(srcDrawableId);
-        if (srcDrawable == null) throw new BadDrawable(srcDrawableId);
-        if (srcDrawable.getData() == null) {
-            throw new IllegalStateException("srcDrawable has null data!");
-        }
+        Drawable srcDrawable, dstDrawable;
+        GraphicsContext.Function gcFunction;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+            srcDrawable = client.xServer.drawableManager.getDrawable(srcDrawableId);
+            if (srcDrawable == null) throw new BadDrawable(srcDrawableId);
+            if (srcDrawable.getData() == null) {
+                throw new IllegalStateException("srcDrawable has null data!");
+            }
 
-        Drawable dstDrawable = client.xServer.drawableManager.getDrawable(dstDrawableId);
-        if (dstDrawable == null) throw new BadDrawable(dstDrawableId);
-        if (dstDrawable.getData() == null) {
-            throw new IllegalStateException("dstDrawable has null data!");
-        }
+            dstDrawable = client.xServer.drawableManager.getDrawable(dstDrawableId);
+            if (dstDrawable == null) throw new BadDrawable(dstDrawableId);
+            if (dstDrawable.getData() == null) {
+                throw new IllegalStateException("dstDrawable has null data!");
+            }
 
 
-        GraphicsContext graphicsContext =  client.xServer.graphicsContextManager.getGraphicsContext(gcId);
-        if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+            GraphicsContext graphicsContext =  client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+            if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+            gcFunction = graphicsContext.getFunction();
+        }
 
         if (srcDrawable.visual.depth != dstDrawable.visual.depth) throw new BadMatch();
 
-        dstDrawable.copyArea(srcX, srcY, dstX, dstY, width, height, srcDrawable, graphicsContext.getFunction());
+        dstDrawable.copyArea(srcX, srcY, dstX, dstY, width, height, srcDrawable, gcFunction);
     }
 
     public static void polyLine(XClient client, XInputStream inputStream, XOutputStream outputStream) throws XRequestError {
@@ -130,10 +241,16 @@ public abstract class DrawRequests {
         int drawableId = inputStream.readInt();
         int gcId = inputStream.readInt();
 
-        Drawable drawable = client.xServer.drawableManager.getDrawable(drawableId);
-        if (drawable == null) throw new BadDrawable(drawableId);
-        GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
-        if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+        Drawable drawable;
+        int foreground, lineWidth;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+            drawable = client.xServer.drawableManager.getDrawable(drawableId);
+            if (drawable == null) throw new BadDrawable(drawableId);
+            GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+            if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+            foreground = graphicsContext.getForeground();
+            lineWidth = graphicsContext.getLineWidth();
+        }
         int length = client.getRemainingRequestLength();
 
         short[] points = new short[length / 2];
@@ -144,8 +261,8 @@ public abstract class DrawRequests {
             length -= 4;
         }
 
-        if (coordinateMode == CoordinateMode.ORIGIN && graphicsContext.getLineWidth() > 0) {
-            drawable.drawLines(graphicsContext.getForeground(), graphicsContext.getLineWidth(), points);
+        if (coordinateMode == CoordinateMode.ORIGIN && lineWidth > 0) {
+            drawable.drawLines(foreground, lineWidth, points);
         }
     }
 
@@ -153,10 +270,15 @@ public abstract class DrawRequests {
         int drawableId = inputStream.readInt();
         int gcId = inputStream.readInt();
 
-        Drawable drawable = client.xServer.drawableManager.getDrawable(drawableId);
-        if (drawable == null) throw new BadDrawable(drawableId);
-        GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
-        if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+        Drawable drawable;
+        int background;
+        try (XLock lock = client.xServer.lock(XServer.Lockable.DRAWABLE_MANAGER, XServer.Lockable.GRAPHIC_CONTEXT_MANAGER)) {
+            drawable = client.xServer.drawableManager.getDrawable(drawableId);
+            if (drawable == null) throw new BadDrawable(drawableId);
+            GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
+            if (graphicsContext == null) throw new BadGraphicsContext(gcId);
+            background = graphicsContext.getBackground();
+        }
         int length = client.getRemainingRequestLength();
 
         while (length != 0) {
@@ -164,7 +286,7 @@ public abstract class DrawRequests {
             short y = inputStream.readShort();
             short width = inputStream.readShort();
             short height = inputStream.readShort();
-            drawable.fillRect(x, y, width, height, graphicsContext.getBackground());
+            drawable.fillRect(x, y, width, height, background);
             length -= 8;
         }
     }
@@ -25,6 +25,7 @@ import com.winlator.xmod.xserver.errors.XRequestError;
 import com.winlator.xmod.xserver.events.RawEvent;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 public abstract class WindowRequests {
@@ -228,11 +229,11 @@ public abstract class WindowRequests {
                 outputStream.writePad(12);
             }
             else {
-                byte[] data = property.data.array();
+                ByteBuffer data = property.data;
                 int offset = longOffset * 4;
-                int length = Math.min(data.length - offset, longLength * 4);
+                int length = Math.min(data.capacity() - offset, longLength * 4);
                 if (length < 0) throw new BadValue(longOffset);
-                bytesAfter = data.length - (offset + length);
+                bytesAfter = data.capacity() - (offset + length);
 
                 outputStream.writeByte(RESPONSE_CODE_SUCCESS);
                 outputStream.writeByte(property.format.value);
@@ -242,7 +243,7 @@ public abstract class WindowRequests {
                 outputStream.writeInt(bytesAfter);
                 outputStream.writeInt(length / (property.format.value / 8));
                 outputStream.writePad(12);
-                outputStream.write(data, offset, length);
+                outputStream.write(data.array(), data.arrayOffset() + offset, length);
                 if ((-length & 3) > 0) outputStream.writePad(-length & 3);
             }
         }